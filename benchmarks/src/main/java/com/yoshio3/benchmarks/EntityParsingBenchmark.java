@@ -0,0 +1,69 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.benchmarks;
+
+import com.yoshio3.intent.RecognizedIntent;
+import com.yoshio3.rest.entities.luis.ResponseFromLUIS;
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing the JSR_NUMBER entity and converting the LUIS response into
+ * {@code RecognizedIntent}. The LUIS response is read once from the sample
+ * payload instead of calling LUIS.
+ *
+ * @author Yoshio Terada
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EntityParsingBenchmark {
+
+    @Param({"299", "jsr299", "JSR 299", "ＪＳＲ２９９"})
+    public String entity;
+
+    private ResponseFromLUIS luis;
+
+    @Setup
+    public void setup() throws IOException {
+        luis = Payloads.newObjectMapper().readValue(Payloads.read("luis-response.json"), ResponseFromLUIS.class);
+    }
+
+    @Benchmark
+    public Optional<Integer> parseJSRNumber() {
+        return RecognizedIntent.parseJSRNumber(entity);
+    }
+
+    @Benchmark
+    public RecognizedIntent fromLUIS() {
+        return RecognizedIntent.fromLUIS(luis);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.benchmarks;
+
+import com.yoshio3.intent.Intent;
+import com.yoshio3.intent.IntentHandler;
+import com.yoshio3.intent.LocalIntentRecognizer;
+import com.yoshio3.intent.RecognizedIntent;
+import com.yoshio3.intent.Utterances;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Recognizing the intent of the input and dispatching it to the handler.
+ *
+ * The inputs which are not recognized locally fall back to the in-process
+ * LUIS stub. The dispatch is {@code IntentHandler#dispatch} which is used by
+ * {@code BotMessageReceiver}, and only the handlers are stubs which return the
+ * completed future, so only the local work of the dispatch is measured.
+ *
+ * @author Yoshio Terada
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntentDispatchBenchmark {
+
+    private final static RecognizedIntent LUIS_STUB_RESULT = new RecognizedIntent(Intent.AMBIGUOUS_SEARCH, null, "servlet");
+    private final static CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+
+    @Param({"JSR 299 は何ですか？", "JSR 199 を翻訳してください", "Servlet は何に含まれますか？"})
+    public String input;
+
+    private final LocalIntentRecognizer recognizer = new LocalIntentRecognizer();
+
+    @Benchmark
+    public String normalize() {
+        return Utterances.normalize(input);
+    }
+
+    @Benchmark
+    public CompletableFuture<Void> recognizeAndDispatch() {
+        Optional<RecognizedIntent> local = recognizer.recognize(Utterances.normalize(input));
+        return HANDLER.dispatch(input, local.orElse(LUIS_STUB_RESULT));
+    }
+
+    @Benchmark
+    public Intent fromLabel() {
+        return Intent.fromLabel("JSR-Translate");
+    }
+
+    // Stubs of the handlers of BotMessageReceiver.
+    private final static IntentHandler<String, CompletableFuture<Void>> HANDLER = new IntentHandler<String, CompletableFuture<Void>>() {
+        @Override
+        public CompletableFuture<Void> onJSRDetail(String input, RecognizedIntent intent) {
+            return intent.getJsrNumber().isPresent() ? DONE : null;
+        }
+
+        @Override
+        public CompletableFuture<Void> onAmbiguousSearch(String input, RecognizedIntent intent) {
+            return intent.getKeyword().isPresent() ? DONE : null;
+        }
+
+        @Override
+        public CompletableFuture<Void> onTranslate(String input, RecognizedIntent intent) {
+            return intent.getJsrNumber().isPresent() ? DONE : null;
+        }
+
+        @Override
+        public CompletableFuture<Void> onNothing(String input, RecognizedIntent intent) {
+            return DONE;
+        }
+    };
+}
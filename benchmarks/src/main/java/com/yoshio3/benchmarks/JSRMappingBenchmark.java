@@ -0,0 +1,98 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.benchmarks;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.yoshio3.JSRResultJSONMapping;
+import com.yoshio3.client.JSRSearchResultReader;
+import com.yoshio3.client.JSRSummary;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reading the response of the JSR-Confirm-Service into
+ * {@code JSRResultJSONMapping}, for the single JSR and for the list of the
+ * ambiguous search. {@code readListStreaming} is the streaming path which
+ * binds only the id and the name. {@code listSize} is the parameter of the
+ * list only, so the single JSR is measured once.
+ *
+ * @author Yoshio Terada
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JSRMappingBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Single {
+
+        private byte[] payload;
+        private ObjectReader reader;
+
+        @Setup
+        public void setup() {
+            payload = Payloads.read("jsr-single.json");
+            reader = Payloads.newObjectMapper().readerFor(JSRResultJSONMapping.class);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class JSRList {
+
+        @Param({"10", "300"})
+        public int listSize;
+
+        private byte[] payload;
+        private ObjectReader reader;
+
+        @Setup
+        public void setup() {
+            payload = Payloads.jsrList(listSize);
+            reader = Payloads.newObjectMapper().readerFor(new TypeReference<List<JSRResultJSONMapping>>() {});
+        }
+    }
+
+    @Benchmark
+    public JSRResultJSONMapping readSingle(Single state) throws IOException {
+        return state.reader.readValue(state.payload);
+    }
+
+    @Benchmark
+    public List<JSRResultJSONMapping> readList(JSRList state) throws IOException {
+        return state.reader.readValue(state.payload);
+    }
+
+    @Benchmark
+    public List<JSRSummary> readListStreaming(JSRList state) throws IOException {
+        return JSRSearchResultReader.read(new ByteArrayInputStream(state.payload), summary -> summary);
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.yoshio3.rest.entities.bot.BotObjectMapperProvider;
+import com.yoshio3.rest.entities.bot.CommonMessageFromBotFramework;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Jackson deserialization of the message from the Bot Framework, which is
+ * done for every POST to /rest/message. The {@code ObjectMapper} is the one
+ * of {@code BotObjectMapperProvider} which is registered to JAX-RS by
+ * {@code BotRESTApplication}, so the same configuration is measured.
+ *
+ * @author Yoshio Terada
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageDeserializationBenchmark {
+
+    private byte[] payload;
+    private ObjectReader reader;
+
+    @Setup
+    public void setup() {
+        payload = Payloads.read("bot-message.json");
+        ObjectMapper mapper = new BotObjectMapperProvider().getContext(CommonMessageFromBotFramework.class);
+        reader = mapper.readerFor(CommonMessageFromBotFramework.class);
+    }
+
+    @Benchmark
+    public CommonMessageFromBotFramework readMessage() throws IOException {
+        return reader.readValue(payload);
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compare the throughput and the memory of the executor modes of the bot.
+ *
+ * Each conversation makes the same blocking calls as the translate intent of
+ * the bot (LUIS, the JSR-Confirm-Service, the Translator and the reply to the
+ * Bot Framework) against {@link StubServer}. All of the conversations are
+ * started at the same time on:
+ *
+ * <ul>
+ * <li>managed : the fixed thread pool like the {@code ManagedExecutorService}
+ * of the container ("--poolSize", 64 by default)</li>
+ * <li>virtual : one virtual thread per conversation</li>
+ * </ul>
+ *
+ * Usage:
+ * <pre>
+ * java -jar loadtest.jar [--mode managed|virtual|both] [--conversations 10000]
+ *     [--poolSize 64] [--latency 100]
+ * </pre>
+ *
+ * @author Yoshio Terada
+ */
+public class ExecutorModeLoadTest {
+
+    private final String baseUrl;
+    private final int conversations;
+
+    ExecutorModeLoadTest(String baseUrl, int conversations) {
+        this.baseUrl = baseUrl;
+        this.conversations = conversations;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String mode = option(args, "--mode", "both");
+        int conversations = Integer.parseInt(option(args, "--conversations", "10000"));
+        int poolSize = Integer.parseInt(option(args, "--poolSize", "64"));
+        long latency = Long.parseLong(option(args, "--latency", "100"));
+
+        // HttpURLConnection keeps only 5 idle connections per host by default.
+        System.setProperty("http.maxConnections", String.valueOf(Math.max(conversations, 5)));
+
+        try (StubServer stubs = new StubServer(latency)) {
+            ExecutorModeLoadTest test = new ExecutorModeLoadTest(stubs.getBaseUrl(), conversations);
+            System.out.printf(Locale.ROOT, "conversations=%d, stub latency=%dms, managed pool=%d%n",
+                    conversations, latency, poolSize);
+            System.out.printf(Locale.ROOT, "%-8s %10s %12s %10s %10s %10s %12s %8s%n",
+                    "mode", "total(ms)", "conv/s", "p50(ms)", "p99(ms)", "max(ms)", "heap(MB)", "errors");
+            // Warm up the JIT and the connections before the measurement.
+            new ExecutorModeLoadTest(stubs.getBaseUrl(), Math.min(conversations, 500))
+                    .run("warmup", Executors.newFixedThreadPool(poolSize), false);
+            if (mode.equals("managed") || mode.equals("both")) {
+                test.run("managed", Executors.newFixedThreadPool(poolSize), true);
+            }
+            if (mode.equals("virtual") || mode.equals("both")) {
+                test.run("virtual", Executors.newVirtualThreadPerTaskExecutor(), true);
+            }
+        }
+    }
+
+    private void run(String name, ExecutorService executor, boolean print) throws InterruptedException {
+        System.gc();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        AtomicLong peakHeap = new AtomicLong(memory.getHeapMemoryUsage().getUsed());
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        sampler.scheduleAtFixedRate(() -> peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max),
+                0, 20, TimeUnit.MILLISECONDS);
+
+        long[] latencies = new long[conversations];
+        AtomicInteger errors = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(conversations);
+        long start = System.nanoTime();
+        for (int i = 0; i < conversations; i++) {
+            int index = i;
+            long submitted = System.nanoTime();
+            executor.execute(() -> {
+                try {
+                    converse(index);
+                } catch (IOException | RuntimeException e) {
+                    errors.incrementAndGet();
+                } finally {
+                    latencies[index] = System.nanoTime() - submitted;
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        long total = System.nanoTime() - start;
+        executor.shutdown();
+        sampler.shutdown();
+
+        if (print) {
+            Arrays.sort(latencies);
+            System.out.printf(Locale.ROOT, "%-8s %10d %12.1f %10d %10d %10d %12.1f %8d%n",
+                    name,
+                    TimeUnit.NANOSECONDS.toMillis(total),
+                    conversations / (total / 1e9),
+                    TimeUnit.NANOSECONDS.toMillis(percentile(latencies, 0.50)),
+                    TimeUnit.NANOSECONDS.toMillis(percentile(latencies, 0.99)),
+                    TimeUnit.NANOSECONDS.toMillis(latencies[latencies.length - 1]),
+                    peakHeap.get() / (1024.0 * 1024.0),
+                    errors.get());
+            System.out.printf(Locale.ROOT, "%-8s peak platform threads=%d%n", "", threads.getPeakThreadCount());
+        }
+    }
+
+    /**
+     * One conversation of the translate intent, in the blocking style of the
+     * bot.
+     */
+    private void converse(int index) throws IOException {
+        call("GET", "/luis?q=JSR366-" + index, null);
+        call("GET", "/jsr/366", null);
+        call("GET", "/translator/Translate?text=Java+EE+8&to=ja", null);
+        call("POST", "/bot/v3/conversations/c" + index + "/activities/a" + index, "{\"text\":\"JSR 366\"}");
+    }
+
+    private void call(String method, String path, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) URI.create(baseUrl + path).toURL().openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(30_000);
+        connection.setReadTimeout(60_000);
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        int status = connection.getResponseCode();
+        try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            if (in != null) {
+                in.readAllBytes();
+            }
+        }
+        if (status >= 400) {
+            throw new IOException(method + " " + path + " returned " + status);
+        }
+    }
+
+    private static long percentile(long[] sorted, double quantile) {
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private static String option(String[] args, String name, String defaultValue) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals(name)) {
+                return args[i + 1];
+            }
+        }
+        return defaultValue;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Latency and error profile of the stubs.
+ *
+ * Each stub ("luis", "jsr", "translator", "botToken" and "bot") is
+ * configured like:
+ *
+ * <pre>
+ * luis.latency.median=80     # median latency in milliseconds
+ * luis.latency.p99=400       # 99th percentile latency in milliseconds
+ * luis.errorRate=0.01        # ratio of the error responses
+ * luis.errorStatus=500       # status of the error responses (429 has Retry-After)
+ * </pre>
+ *
+ * The latency follows the log-normal distribution which has the median and
+ * the 99th percentile, so the stubs have the long tail like the real
+ * services.
+ *
+ * @author Yoshio Terada
+ */
+public class StubProfile {
+
+    // The 99th percentile of the standard normal distribution.
+    private final static double Z_99 = 2.3263;
+
+    private final Properties properties;
+
+    StubProfile(Properties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * @param latencyMillis fixed latency of all of the stubs
+     * @return the profile without the errors
+     */
+    public static StubProfile fixed(long latencyMillis) {
+        Properties properties = new Properties();
+        for (String stub : new String[]{"luis", "jsr", "translator", "botToken", "bot"}) {
+            properties.setProperty(stub + ".latency.median", String.valueOf(latencyMillis));
+            properties.setProperty(stub + ".latency.p99", String.valueOf(latencyMillis));
+        }
+        return new StubProfile(properties);
+    }
+
+    /**
+     * Load the profile from the file, or from the class path (e.g.
+     * "profiles/default.properties") if the file doesn't exist.
+     *
+     * @param name the file or the resource name
+     * @return the profile
+     * @throws IOException if the profile could not be read
+     */
+    public static StubProfile load(String name) throws IOException {
+        Properties properties = new Properties();
+        Path file = Paths.get(name);
+        try (InputStream in = Files.exists(file)
+                ? Files.newInputStream(file)
+                : StubProfile.class.getClassLoader().getResourceAsStream(name)) {
+            if (in == null) {
+                throw new IOException("Profile is not found : " + name);
+            }
+            properties.load(in);
+        }
+        return new StubProfile(properties);
+    }
+
+    /**
+     * @param stub name of the stub
+     * @return the latency of the next response in milliseconds
+     */
+    public long sampleLatency(String stub) {
+        double median = getDouble(stub + ".latency.median", 50);
+        double p99 = Math.max(getDouble(stub + ".latency.p99", median * 4), median);
+        if (median <= 0) {
+            return 0;
+        }
+        double sigma = Math.log(p99 / median) / Z_99;
+        return Math.round(median * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian()));
+    }
+
+    /**
+     * @param stub name of the stub
+     * @return true if the next response should be the error
+     */
+    public boolean sampleError(String stub) {
+        return ThreadLocalRandom.current().nextDouble() < getDouble(stub + ".errorRate", 0);
+    }
+
+    /**
+     * @param stub name of the stub
+     * @return the status of the error response
+     */
+    public int getErrorStatus(String stub) {
+        return (int) getDouble(stub + ".errorStatus", 500);
+    }
+
+    /**
+     * @param name name of the property
+     * @param defaultValue the value if it is not configured
+     * @return the value of the property
+     */
+    public double getDouble(String name, double defaultValue) {
+        String value = properties.getProperty(name);
+        return value == null || value.trim().isEmpty() ? defaultValue : Double.parseDouble(value.trim());
+    }
+}
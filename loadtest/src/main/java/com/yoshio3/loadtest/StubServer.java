@@ -0,0 +1,283 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local HTTP stubs of LUIS, the JSR-Confirm-Service, the Translator and the
+ * Bot Framework. The bot is pointed to them by the endpoint overrides (see
+ * {@link #getBotOptions()}). Each response is delayed and fails by the
+ * {@link StubProfile}.
+ *
+ * The stubs run on the virtual threads, so they are not the bottleneck of
+ * the load test.
+ *
+ * They can also be started alone, and then each reply is printed as "reply
+ * {epoch millis} {conversation ID} {activity ID}" (e.g. to measure the time to
+ * the first reply by scripts/measure-startup.sh):
+ *
+ * <pre>
+ * java -cp loadtest/target/loadtest.jar com.yoshio3.loadtest.StubServer \
+ *     [--port 9000] [--profile profiles/default.properties]
+ * </pre>
+ *
+ * @author Yoshio Terada
+ */
+public class StubServer implements AutoCloseable {
+
+    /**
+     * Called when the bot sent the reply to the Bot Framework stub.
+     */
+    public interface ReplyListener {
+
+        /**
+         * @param conversationId ID of the conversation
+         * @param activityId ID of the activity which the reply is for
+         * @param body the reply
+         */
+        void onReply(String conversationId, String activityId, String body);
+    }
+
+    private final static Pattern DIGITS = Pattern.compile("[0-9]+");
+    private final static Pattern REPLY_PATH = Pattern.compile("/bot/v3/conversations/([^/]+)/activities/([^/]+)");
+    private final static byte[] EMPTY = new byte[0];
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final StubProfile profile;
+    private final ReplyListener listener;
+
+    public static void main(String[] args) throws Exception {
+        int port = 9000;
+        String profile = "profiles/default.properties";
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals("--port")) {
+                port = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--profile")) {
+                profile = args[i + 1];
+            }
+        }
+        StubServer stubs = new StubServer(port, StubProfile.load(profile), (conversationId, activityId, body)
+                -> System.out.println("reply " + System.currentTimeMillis() + " " + conversationId + " " + activityId));
+        Runtime.getRuntime().addShutdownHook(new Thread(stubs::close));
+        System.out.println("options " + stubs.getBotOptions());
+        Thread.currentThread().join();
+    }
+
+    /**
+     * @param latencyMillis fixed latency of each response
+     * @throws IOException if the server could not be started
+     */
+    public StubServer(long latencyMillis) throws IOException {
+        this(0, StubProfile.fixed(latencyMillis), (conversationId, activityId, body) -> {
+        });
+    }
+
+    /**
+     * @param port port of the stubs (0 for any free port)
+     * @param profile latency and error profile
+     * @param listener called for each reply to the Bot Framework stub
+     * @throws IOException if the server could not be started
+     */
+    public StubServer(int port, StubProfile profile, ReplyListener listener) throws IOException {
+        this.profile = profile;
+        this.listener = listener;
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 16_384);
+        server.createContext("/luis", exchange -> handle(exchange, "luis", this::luis));
+        server.createContext("/jsr/", exchange -> handle(exchange, "jsr", this::jsr));
+        server.createContext("/translator/issueToken", exchange -> handle(exchange, "translator",
+                request -> "stub-translator-token"));
+        server.createContext("/translator/Translate", exchange -> handle(exchange, "translator", this::translate));
+        server.createContext("/bot/token", exchange -> handle(exchange, "botToken",
+                request -> "{\"token_type\":\"Bearer\",\"expires_in\":3600,\"access_token\":\"stub-bot-token\"}"));
+        server.createContext("/bot/v3/", exchange -> handle(exchange, "bot", this::reply));
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * @return base URL of the stubs like "http://127.0.0.1:12345"
+     */
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * @return the system properties to point the bot to the stubs
+     */
+    public String getBotOptions() {
+        String base = getBaseUrl();
+        return "-Dendpoint.luis=" + base + "/luis"
+                + " -Dendpoint.jsr=" + base + "/jsr/"
+                + " -Dendpoint.translator=" + base + "/translator"
+                + " -Dendpoint.botFramework=" + base + "/bot";
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private interface Handler {
+
+        String handle(Request request) throws IOException;
+    }
+
+    private static class Request {
+
+        private final HttpExchange exchange;
+        private final String body;
+
+        Request(HttpExchange exchange, String body) {
+            this.exchange = exchange;
+            this.body = body;
+        }
+
+        String path() {
+            return exchange.getRequestURI().getPath();
+        }
+
+        String query(String name) {
+            String query = exchange.getRequestURI().getRawQuery();
+            if (query == null) {
+                return "";
+            }
+            for (String pair : query.split("&")) {
+                int separator = pair.indexOf('=');
+                if (separator > 0 && pair.substring(0, separator).equals(name)) {
+                    return URLDecoder.decode(pair.substring(separator + 1), StandardCharsets.UTF_8);
+                }
+            }
+            return "";
+        }
+    }
+
+    private void handle(HttpExchange exchange, String stub, Handler handler) throws IOException {
+        try {
+            String body;
+            try (InputStream in = exchange.getRequestBody()) {
+                body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            sleep(profile.sampleLatency(stub));
+            if (profile.sampleError(stub)) {
+                int status = profile.getErrorStatus(stub);
+                if (status == 429) {
+                    exchange.getResponseHeaders().set("Retry-After", "1");
+                }
+                send(exchange, status, EMPTY);
+                return;
+            }
+            String response = handler.handle(new Request(exchange, body));
+            send(exchange, 200, response.getBytes(StandardCharsets.UTF_8));
+        } catch (RuntimeException e) {
+            send(exchange, 500, EMPTY);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private String luis(Request request) {
+        String query = request.query("q");
+        String text = Normalizer.normalize(query, Normalizer.Form.NFKC);
+        Matcher digits = DIGITS.matcher(text);
+        String intent;
+        String entities;
+        if (digits.find()) {
+            intent = text.contains("翻訳") || text.toLowerCase().contains("translate") ? "JSR-Translate" : "JSR 番号の詳細";
+            entities = "[{\"entity\":\"" + digits.group() + "\",\"type\":\"JSR_NUMBER\",\"score\":0.95}]";
+        } else {
+            intent = "JSRあいまい検索";
+            String keyword = text.split("[\\sはのを]")[0];
+            entities = "[{\"entity\":" + Json.quote(keyword) + ",\"type\":\"JSR-NAME-KEYWARD\",\"score\":0.9}]";
+        }
+        return "{\"query\":" + Json.quote(query) + ","
+                + "\"topScoringIntent\":{\"intent\":" + Json.quote(intent) + ",\"score\":0.97},"
+                + "\"entities\":" + entities + "}";
+    }
+
+    private String jsr(Request request) {
+        String path = request.path();
+        if (path.endsWith("/search")) {
+            String keyword = request.query("name");
+            int results = (int) profile.getDouble("jsr.searchResults", 20);
+            StringBuilder builder = new StringBuilder("[");
+            for (int i = 1; i <= results; i++) {
+                if (i > 1) {
+                    builder.append(',');
+                }
+                builder.append("{\"id\":").append(i).append(",\"jsrId\":").append(i)
+                        .append(",\"nameOfJsr\":").append(Json.quote("Stub " + keyword + " " + i))
+                        .append(",\"description\":\"Stub description.\"}");
+            }
+            return builder.append(']').toString();
+        }
+        String number = path.substring(path.lastIndexOf('/') + 1);
+        return "{\"id\":" + Long.parseLong(number) + ",\"jsrId\":" + Long.parseLong(number)
+                + ",\"nameOfJsr\":\"Stub JSR " + number + "\""
+                + ",\"description\":\"This JSR is the stub of the JSR " + number + ".\""
+                + ",\"specLeads\":[\"Stub Lead\"],\"latestStage\":\"Final Release\"}";
+    }
+
+    private String translate(Request request) {
+        String text = request.query("text")
+                .replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+        return "<string xmlns=\"http://schemas.microsoft.com/2003/10/Serialization/\">日本語訳 : " + text + "</string>";
+    }
+
+    private String reply(Request request) {
+        Matcher matcher = REPLY_PATH.matcher(request.path());
+        if (matcher.matches()) {
+            listener.onReply(URLDecoder.decode(matcher.group(1), StandardCharsets.UTF_8),
+                    URLDecoder.decode(matcher.group(2), StandardCharsets.UTF_8), request.body);
+        }
+        return "{\"id\":\"stub-reply\"}";
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        if (body.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
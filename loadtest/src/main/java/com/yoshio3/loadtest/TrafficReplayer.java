@@ -0,0 +1,267 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.loadtest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replay the recorded conversation traffic against "/rest/message" of the
+ * bot, and report the latency from the message to the first reply and the
+ * throughput.
+ *
+ * The replayer starts {@link StubServer} on "--stubPort", so the bot must be
+ * started with the endpoints of the stubs, which are printed at the start:
+ *
+ * <pre>
+ * java -cp loadtest/target/loadtest.jar com.yoshio3.loadtest.TrafficReplayer \
+ *     [--target http://localhost:8080/rest/message] [--traffic traffic/sample.tsv] \
+ *     [--profile profiles/default.properties] [--stubPort 9000] [--speed 1.0] \
+ *     [--scale 1] [--replyTimeout 30000]
+ * </pre>
+ *
+ * The traffic is the tab separated lines of "offset in milliseconds",
+ * "conversation ID" and "text". "--speed" multiplies the rate of the traffic,
+ * and "--scale" replays each conversation as that many conversations.
+ *
+ * @author Yoshio Terada
+ */
+public class TrafficReplayer {
+
+    private final static int STATUS_ACCEPTED = 202;
+    private final static int STATUS_UNAVAILABLE = 503;
+
+    private final String target;
+    private final String serviceUrl;
+    private final HttpClient client = HttpClient.newBuilder()
+            .executor(Executors.newVirtualThreadPerTaskExecutor())
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+
+    // Activity ID -> the time when it was sent, until the first reply.
+    private final Map<String, Long> pending = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger sent = new AtomicInteger();
+    private final AtomicInteger accepted = new AtomicInteger();
+    private final AtomicInteger rejected = new AtomicInteger();
+    private final AtomicInteger errors = new AtomicInteger();
+    private final AtomicInteger extraReplies = new AtomicInteger();
+    private final AtomicLong lastReplyAt = new AtomicLong();
+
+    TrafficReplayer(String target, String serviceUrl) {
+        this.target = target;
+        this.serviceUrl = serviceUrl;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String target = option(args, "--target", "http://localhost:8080/rest/message");
+        String traffic = option(args, "--traffic", "traffic/sample.tsv");
+        String profile = option(args, "--profile", "profiles/default.properties");
+        int stubPort = Integer.parseInt(option(args, "--stubPort", "9000"));
+        double speed = Double.parseDouble(option(args, "--speed", "1.0"));
+        int scale = Integer.parseInt(option(args, "--scale", "1"));
+        long replyTimeout = Long.parseLong(option(args, "--replyTimeout", "30000"));
+
+        List<Event> events = Event.load(traffic, scale);
+        TrafficReplayer[] replayer = new TrafficReplayer[1];
+        try (StubServer stubs = new StubServer(stubPort, StubProfile.load(profile),
+                (conversationId, activityId, body) -> replayer[0].onReply(activityId))) {
+            replayer[0] = new TrafficReplayer(target, stubs.getBaseUrl() + "/bot");
+            System.out.println("Stubs are started. Start the bot with :");
+            System.out.println("  " + stubs.getBotOptions());
+            waitFor(URI.create(target));
+            System.out.printf(Locale.ROOT, "Replay %d messages of %s (profile %s, speed x%.1f, scale x%d)%n",
+                    events.size(), traffic, profile, speed, scale);
+            replayer[0].replay(events, speed, replyTimeout);
+        }
+    }
+
+    private void replay(List<Event> events, double speed, long replyTimeout) throws InterruptedException {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        long start = System.nanoTime();
+        for (Event event : events) {
+            scheduler.schedule(() -> send(event), (long) (event.offsetMillis / speed), TimeUnit.MILLISECONDS);
+        }
+        scheduler.shutdown();
+        scheduler.awaitTermination(1, TimeUnit.DAYS);
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(replyTimeout);
+        while (sent.get() > accepted.get() + rejected.get() + errors.get() || !pending.isEmpty()) {
+            if (System.nanoTime() > deadline) {
+                break;
+            }
+            Thread.sleep(50);
+        }
+        long end = Math.max(lastReplyAt.get(), System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(50));
+        report(end - start);
+    }
+
+    private void send(Event event) {
+        String activityId = "replay-" + sent.incrementAndGet();
+        String body = "{\"type\":\"message\",\"id\":" + Json.quote(activityId)
+                + ",\"timestamp\":" + Json.quote(Instant.now().toString())
+                + ",\"serviceUrl\":" + Json.quote(serviceUrl)
+                + ",\"channelId\":\"replay\""
+                + ",\"from\":{\"id\":" + Json.quote(event.conversationId) + ",\"name\":\"replay\"}"
+                + ",\"conversation\":{\"id\":" + Json.quote(event.conversationId) + "}"
+                + ",\"recipient\":{\"id\":\"bot\",\"name\":\"jsrbot\"}"
+                + ",\"text\":" + Json.quote(event.text) + "}";
+        HttpRequest request = HttpRequest.newBuilder(URI.create(target))
+                .header("Content-Type", "application/json; charset=UTF-8")
+                .timeout(Duration.ofSeconds(30))
+                .POST(HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8))
+                .build();
+        pending.put(activityId, System.nanoTime());
+        client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+            if (error == null && response.statusCode() == STATUS_ACCEPTED) {
+                accepted.incrementAndGet();
+                return;
+            }
+            pending.remove(activityId);
+            if (error == null && response.statusCode() == STATUS_UNAVAILABLE) {
+                rejected.incrementAndGet();
+            } else {
+                errors.incrementAndGet();
+            }
+        });
+    }
+
+    private void onReply(String activityId) {
+        long now = System.nanoTime();
+        Long sentAt = pending.remove(activityId);
+        if (sentAt == null) {
+            // The second reply of the message (e.g. the pending translation).
+            extraReplies.incrementAndGet();
+            return;
+        }
+        latencies.add(now - sentAt);
+        lastReplyAt.accumulateAndGet(now, Math::max);
+    }
+
+    private void report(long elapsedNanos) {
+        long[] sorted = latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf(Locale.ROOT, "sent=%d accepted=%d rejected(503)=%d errors=%d replied=%d no-reply=%d extra-replies=%d%n",
+                sent.get(), accepted.get(), rejected.get(), errors.get(), sorted.length,
+                accepted.get() - sorted.length, extraReplies.get());
+        System.out.printf(Locale.ROOT, "duration=%.1fs throughput=%.1f replies/s (%.1f messages/s)%n",
+                seconds, sorted.length / seconds, sent.get() / seconds);
+        if (sorted.length == 0) {
+            return;
+        }
+        System.out.printf(Locale.ROOT, "reply latency (ms) : p50=%d p90=%d p99=%d p99.9=%d max=%d%n",
+                millis(percentile(sorted, 0.50)), millis(percentile(sorted, 0.90)),
+                millis(percentile(sorted, 0.99)), millis(percentile(sorted, 0.999)),
+                millis(sorted[sorted.length - 1]));
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    private static long percentile(long[] sorted, double quantile) {
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private static void waitFor(URI target) throws InterruptedException {
+        int port = target.getPort() > 0 ? target.getPort() : 80;
+        System.out.println("Waiting for " + target.getHost() + ":" + port + " ...");
+        while (true) {
+            try (Socket socket = new Socket(target.getHost(), port)) {
+                return;
+            } catch (IOException e) {
+                Thread.sleep(1_000);
+            }
+        }
+    }
+
+    private static String option(String[] args, String name, String defaultValue) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals(name)) {
+                return args[i + 1];
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * One recorded message.
+     */
+    private static class Event {
+
+        private final long offsetMillis;
+        private final String conversationId;
+        private final String text;
+
+        Event(long offsetMillis, String conversationId, String text) {
+            this.offsetMillis = offsetMillis;
+            this.conversationId = conversationId;
+            this.text = text;
+        }
+
+        static List<Event> load(String name, int scale) throws IOException {
+            List<Event> events = new ArrayList<>();
+            Path file = Paths.get(name);
+            try (InputStream in = Files.exists(file)
+                    ? Files.newInputStream(file)
+                    : TrafficReplayer.class.getClassLoader().getResourceAsStream(name)) {
+                if (in == null) {
+                    throw new IOException("Traffic is not found : " + name);
+                }
+                BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isBlank() || line.startsWith("#")) {
+                        continue;
+                    }
+                    String[] fields = line.split("\t", 3);
+                    for (int copy = 0; copy < scale; copy++) {
+                        String conversationId = scale == 1 ? fields[1] : fields[1] + "-" + copy;
+                        events.add(new Event(Long.parseLong(fields[0].trim()), conversationId, fields[2]));
+                    }
+                }
+            }
+            events.sort(Comparator.comparingLong(event -> event.offsetMillis));
+            return events;
+        }
+    }
+}
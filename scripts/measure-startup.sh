@@ -0,0 +1,96 @@
+#!/bin/sh
+#
+# Copyright 2017 Yoshio Terada
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# Measure the time to the first reply and the RSS of the bot.
+#
+#   mvn package                   (baseline)  or
+#   mvn -P fast-startup package   (with the AppCDS archive)
+#   mvn -f loadtest/pom.xml package
+#   scripts/measure-startup.sh baseline 5
+#   scripts/measure-startup.sh fast-startup 5
+#
+# The remote services are replaced by the stubs of the load test, so the
+# network is not needed. Each run starts the bot, posts one message until it
+# is accepted, and waits for the reply on the Bot Framework stub. The result
+# is appended to target/startup-report.tsv:
+#
+#   mode  run  accepted(ms)  first reply(ms)  RSS at first reply(KB)  RSS after 30s(KB)
+#
+# Set CDS_UNLOCK_OPTIONS="-XX:+UnlockCommercialFeatures -XX:+UseAppCDS" on
+# Oracle JDK 8 (same as -Dcds.unlockOptions of the profile).
+
+MODE=${1:-baseline}
+RUNS=${2:-3}
+JAR=target/java-jsr-bot-MSA-1.0-SNAPSHOT.jar
+STUB_PORT=${STUB_PORT:-9000}
+BOT_PORT=${BOT_PORT:-8080}
+REPORT=target/startup-report.tsv
+
+case "$MODE" in
+    baseline)
+        JVM_OPTIONS=""
+        ;;
+    fast-startup)
+        if [ ! -f target/app-cds.jsa ]; then
+            echo "target/app-cds.jsa is not found, run mvn -P fast-startup package" >&2
+            exit 1
+        fi
+        JVM_OPTIONS="$CDS_UNLOCK_OPTIONS -Xshare:auto -XX:SharedArchiveFile=target/app-cds.jsa -XX:+UseSerialGC -Xss512k -XX:ReservedCodeCacheSize=64m -Dstartup.prewarm.enabled=true"
+        ;;
+    *)
+        echo "usage: $0 [baseline|fast-startup] [runs]" >&2
+        exit 1
+        ;;
+esac
+
+now() {
+    date +%s%3N
+}
+
+java -cp loadtest/target/loadtest.jar com.yoshio3.loadtest.StubServer --port "$STUB_PORT" > target/stub.log 2>&1 &
+STUB_PID=$!
+trap 'kill $STUB_PID 2>/dev/null' EXIT
+while ! grep -q '^options ' target/stub.log; do
+    sleep 0.1
+done
+ENDPOINT_OPTIONS=$(sed -n 's/^options //p' target/stub.log)
+
+run=1
+while [ "$run" -le "$RUNS" ]; do
+    ACTIVITY="startup-$MODE-$run-$$"
+    START=$(now)
+    # shellcheck disable=SC2086
+    java $JVM_OPTIONS $ENDPOINT_OPTIONS -Dcatalogue.enabled=false -jar "$JAR" --nocluster --port "$BOT_PORT" > "target/startup-$MODE-$run.log" 2>&1 &
+    BOT_PID=$!
+
+    MESSAGE="{\"type\":\"message\",\"id\":\"$ACTIVITY\",\"serviceUrl\":\"http://127.0.0.1:$STUB_PORT/bot\",\"channelId\":\"skype\",\"from\":{\"id\":\"startup\",\"name\":\"startup\"},\"conversation\":{\"id\":\"$ACTIVITY\"},\"recipient\":{\"id\":\"bot\",\"name\":\"jsrbot\"},\"text\":\"JSR 366 は何ですか？\"}"
+    until [ "$(curl -s -o /dev/null -w '%{http_code}' -H 'Content-Type: application/json' -d "$MESSAGE" "http://127.0.0.1:$BOT_PORT/rest/message")" = "202" ]; do
+        sleep 0.05
+    done
+    ACCEPTED=$(now)
+    until grep -q " $ACTIVITY\$" target/stub.log; do
+        sleep 0.01
+    done
+    REPLIED=$(grep " $ACTIVITY\$" target/stub.log | head -1 | cut -d' ' -f2)
+    RSS_FIRST=$(ps -o rss= -p "$BOT_PID" | tr -d ' ')
+    sleep 30
+    RSS_IDLE=$(ps -o rss= -p "$BOT_PID" | tr -d ' ')
+    kill "$BOT_PID"
+    wait "$BOT_PID" 2>/dev/null
+
+    printf '%s\t%d\t%d\t%d\t%s\t%s\n' "$MODE" "$run" $((ACCEPTED - START)) $((REPLIED - START)) "$RSS_FIRST" "$RSS_IDLE" | tee -a "$REPORT"
+    run=$((run + 1))
+done
@@ -15,38 +15,47 @@
  */
 package com.yoshio3;
 
-import com.fasterxml.jackson.jaxrs.json.JacksonJsonProvider;
+import com.yoshio3.cache.JSRDetailCache;
+import com.yoshio3.catalogue.JSRCatalogue;
+import com.yoshio3.client.JSRServiceClient;
+import com.yoshio3.client.JSRSummary;
+import com.yoshio3.concurrent.BotExecutors;
+import com.yoshio3.concurrent.Futures;
+import com.yoshio3.config.BotConfig;
+import com.yoshio3.ingress.ActivityDeduplicator;
+import com.yoshio3.ingress.IngressQueue;
+import com.yoshio3.intent.Intent;
+import com.yoshio3.intent.IntentHandler;
+import com.yoshio3.intent.IntentRecognizer;
+import com.yoshio3.intent.RecognizedIntent;
+import com.yoshio3.metrics.PipelineMetrics;
+import com.yoshio3.metrics.PipelineMetrics.Stage;
+import com.yoshio3.reply.BotConnectorClient;
+import com.yoshio3.reply.Conversations;
+import com.yoshio3.reply.OutboundQueue;
+import com.yoshio3.reply.ReplyAggregator;
+import com.yoshio3.resilience.Dependencies;
+import com.yoshio3.resilience.Dependencies.Dependency;
 import com.yoshio3.rest.entities.bot.MessageFromBotFrameWork;
 import com.yoshio3.rest.entities.bot.CommonMessageFromBotFramework;
-import com.yoshio3.rest.entities.luis.ResponseFromLUIS;
-import com.yoshio3.rest.entities.luis.childelements.Entity;
-import com.yoshio3.services.AccessTokenForBotService;
-import com.yoshio3.services.LUISService;
-import com.yoshio3.services.BotService;
-import com.yoshio3.services.TranslatorTextServices;
-import java.util.Arrays;
+import com.yoshio3.token.BotTokenManager;
+import com.yoshio3.translator.TranslationService;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 import javax.annotation.Resource;
-import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.inject.Inject;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
-import javax.ws.rs.client.Client;
-import javax.ws.rs.client.ClientBuilder;
-import javax.ws.rs.client.WebTarget;
-import javax.ws.rs.container.ResourceContext;
-import javax.ws.rs.core.Configuration;
-import javax.ws.rs.core.Context;
-import javax.ws.rs.core.GenericType;
-import javax.ws.rs.core.MediaType;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Response;
 
-import org.glassfish.jersey.client.ClientConfig;
-import org.glassfish.jersey.jackson.JacksonFeature;
-
 /**
  * Bot MessageReceiver This class receive the message from Cliant Application
  * like Web, Skype, FaceBook, Slack and so on. After receviced the message, it
@@ -59,14 +68,80 @@ public class BotMessageReceiver {
 
     private final static Logger LOGGER = Logger.getLogger(BotMessageReceiver.class.getName());
 
-    private final static String ENTRYPOINT_OF_JSR_NUMBER_SEARCH = "http://jsr-confim-msa.52.175.149.226.nip.io/JSR-Confirm-Service-MSA-1.0-SNAPSHOT/rest/jsr/";
-    private final static String ENTRYPOINT_OF_JSR_AMBIGUOUS_SEARCH = "http://jsr-confim-msa.52.175.149.226.nip.io/JSR-Confirm-Service-MSA-1.0-SNAPSHOT/rest/jsr/search?name=";
+    private final static long LUIS_TIMEOUT = BotConfig.getLong("pipeline.timeout.luis", 5_000);
+    private final static long JSR_SERVICE_TIMEOUT = BotConfig.getLong("pipeline.timeout.jsr", 10_000);
+    private final static long TRANSLATOR_TIMEOUT = BotConfig.getLong("pipeline.timeout.translator", 10_000);
+    private final static long BOT_FRAMEWORK_TIMEOUT = BotConfig.getLong("pipeline.timeout.botFramework", 10_000);
+    private final static long TRANSLATE_BUDGET = BotConfig.getLong("pipeline.budget.translate", 6_000);
+    private final static String RETRY_AFTER_SECONDS = BotConfig.get("ingress.retryAfter", "5");
+
+    @Resource
+    ManagedScheduledExecutorService scheduler;
+
+    @Inject
+    JSRServiceClient jsrServiceClient;
+
+    @Inject
+    JSRDetailCache jsrDetailCache;
+
+    @Inject
+    JSRCatalogue catalogue;
+
+    @Inject
+    TranslationService translationService;
+
+    @Inject
+    BotTokenManager botTokenManager;
+
+    @Inject
+    ReplyAggregator replyAggregator;
+
+    @Inject
+    IntentRecognizer intentRecognizer;
+
+    @Inject
+    IngressQueue ingressQueue;
+
+    @Inject
+    ActivityDeduplicator deduplicator;
+
+    @Inject
+    PipelineMetrics pipelineMetrics;
+
+    @Inject
+    Dependencies dependencies;
+
+    @Inject
+    BotExecutors executors;
+
+    @Inject
+    OutboundQueue outboundQueue;
+
+    @Inject
+    BotConnectorClient botConnector;
+
+    private final IntentHandler<MessageFromBotFrameWork, CompletableFuture<Void>> intentHandler
+            = new IntentHandler<MessageFromBotFrameWork, CompletableFuture<Void>>() {
+        @Override
+        public CompletableFuture<Void> onJSRDetail(MessageFromBotFrameWork requestMessage, RecognizedIntent intent) {
+            return execForJSRSearch(requestMessage, intent);
+        }
+
+        @Override
+        public CompletableFuture<Void> onAmbiguousSearch(MessageFromBotFrameWork requestMessage, RecognizedIntent intent) {
+            return execForAmbiguousSearch(requestMessage, intent);
+        }
 
-    @Context
-    private ResourceContext resourceContext;
+        @Override
+        public CompletableFuture<Void> onTranslate(MessageFromBotFrameWork requestMessage, RecognizedIntent intent) {
+            return translateEnglish(requestMessage, intent);
+        }
 
-    @Resource //(In Payara "Concurrency Utilities for Java EE" is supported as default)
-    ManagedExecutorService managedExecsvc;
+        @Override
+        public CompletableFuture<Void> onNothing(MessageFromBotFrameWork requestMessage, RecognizedIntent intent) {
+            return execActionForNothing(requestMessage);
+        }
+    };
 
     /**
      * POST Action
@@ -77,27 +152,52 @@ public class BotMessageReceiver {
      * @param message messages from the clients
      * @return {@code Response} You received the message, you have to send back
      * to the "ACCEPTED" response to the client. And concurrently, you need to
-     * operate somethings.
+     * operate somethings. If the bot is too busy to handle the message, "503
+     * Service Unavailable" is returned instead. The redelivered message is
+     * accepted but not handled again.
      */
     @POST
     @Consumes("application/json")
     public Response post(CommonMessageFromBotFramework message) {
-        managedExecsvc.submit(() -> invokeService(message));
+        String activityId = message.getId();
+        if (activityId != null && !activityId.isEmpty() && !deduplicator.firstSeen(activityId)) {
+            LOGGER.log(Level.FINE, "Drop the redelivered message : {0}", activityId);
+            return Response.ok().status(Response.Status.ACCEPTED).build();
+        }
+        String conversationId = Conversations.idOf(message).orElse(String.valueOf(message.getId()));
+        boolean accepted = ingressQueue.offer(conversationId, () -> invokeService(message).whenComplete((result, error) -> {
+            if (error != null) {
+                LOGGER.log(Level.SEVERE, "Could not handle the message", Futures.unwrap(error));
+            }
+        }));
+        if (!accepted) {
+            if (activityId != null) {
+                deduplicator.forget(activityId);
+            }
+            LOGGER.log(Level.WARNING, "Ingress queue is full, reject the message : {0}", message.getId());
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                    .header("Retry-After", RETRY_AFTER_SECONDS)
+                    .build();
+        }
         return Response.ok().status(Response.Status.ACCEPTED).build();
     }
 
     /**
-     * POST Action
+     * Handle the message.
      *
-     * In order to handle the message from clients, this methos is the entry
-     * pont of this class.
+     * All of the remote calls are chained as {@code CompletableFuture}, so
+     * the request thread doesn't wait for the response of the remote
+     * services. Each stage has its own timeout, and the fallback message is
+     * sent if the stage failed. Note that the clients of LUIS, Translator and
+     * Bot Framework are blocking, so each of their calls still occupies a
+     * thread of {@code BotExecutors#blocking()} until the response, and the
+     * JSR lookups occupy a thread of the async pool of the JSR client.
      *
-     * @param message messages from the clients
-     * @return {@code Response} You received the message, you have to send back
-     * to the "ACCEPTED" response to the client. And concurrently, you need to
-     * operate somethings.
+     * @param requestMessage messages from the clients
+     * @return {@code CompletableFuture} which is completed after the reply is
+     * sent.
      */
-    private void invokeService(MessageFromBotFrameWork requestMessage) {
+    private CompletableFuture<Void> invokeService(MessageFromBotFrameWork requestMessage) {
         final String inputString = requestMessage.getText();
         LOGGER.log(Level.FINE, "Input Data from user : {0}", inputString);
         String action = requestMessage.getAction();
@@ -109,48 +209,59 @@ public class BotMessageReceiver {
             //Following is the action of bot behavior.
             if (!requestMessage.getId().isEmpty()) {
                 LOGGER.log(Level.FINE, "Request Message is not Empty");
-                invokeLUISAndSendResponse(requestMessage, inputString);
+                Optional<String> nextPage = Optional.empty();
+                if (replyAggregator.isShowMoreRequest(inputString)) {
+                    nextPage = Conversations.idOf(requestMessage).flatMap(replyAggregator::nextPage);
+                }
+                if (nextPage.isPresent()) {
+                    return sendMessageToBotFramework(requestMessage, Intent.NONE, nextPage.get());
+                } else {
+                    return invokeLUISAndSendResponse(requestMessage, inputString);
+                }
             }
         } else if (action.equals("add")) {
             String message = "Welcome to My SkypeBot";
-            sendMessageToBotFramework(requestMessage, message);
+            return sendMessageToBotFramework(requestMessage, Intent.NONE, message);
         } else {
             LOGGER.log(Level.FINE, "ACTION IS INVALID ? :{0}", requestMessage);
         }
+        return CompletableFuture.completedFuture(null);
     }
 
     /**
      * Invoke LUISService
      *
      * After received the message from clients, we need to analysis the message.
+     * The obvious messages are recognized locally without LUIS.
      *
      * @param requestMessage messages from the clients
      * @param inputMessage inputed message from User.
      */
-    private void invokeLUISAndSendResponse(MessageFromBotFrameWork requestMessage, String inputMessage) {
-        //Invoke LUIS Services
-        LUISService luisService = new LUISService();
-        Optional<ResponseFromLUIS> responseFromLUIS = luisService.getResponseFromLUIS(inputMessage);
-
-        responseFromLUIS.ifPresent(luis -> { 
-            String topIntent = luis.getTopScoringIntent().getIntent();
-            LOGGER.log(Level.FINE, "TopIntent is : {0}", topIntent);
-            // If I implment more, I need to write follows as Enumeration.
-            switch (topIntent) {
-                case "JSR 番号の詳細":
-                    execForJSRSearch(requestMessage, luis);
-                    break;
-                case "JSRあいまい検索":
-                    execForAmbiguousSearch(requestMessage, luis);
-                    break;
-                case "JSR-Translate":
-                    translateEnglish(requestMessage, luis);
-                    break;
-                default:
-                    execActionForNothing(requestMessage);
-                    break;
-            }
-        });
+    private CompletableFuture<Void> invokeLUISAndSendResponse(MessageFromBotFrameWork requestMessage, String inputMessage) {
+        long totalStart = pipelineMetrics.start(Stage.TOTAL, null);
+        long luisStart = pipelineMetrics.start(Stage.LUIS, null);
+        return Futures.within(intentRecognizer.recognize(inputMessage), LUIS_TIMEOUT, scheduler, "LUIS")
+                .whenComplete((recognized, error) -> {
+                    Intent recognizedIntent = recognized != null && recognized.isPresent() ? recognized.get().getIntent() : null;
+                    pipelineMetrics.tag(Stage.LUIS, null, recognizedIntent);
+                    pipelineMetrics.stop(Stage.LUIS, recognizedIntent, luisStart, error != null);
+                })
+                .exceptionally(error -> {
+                    LOGGER.log(Level.SEVERE, "Could not recognize the intent", Futures.unwrap(error));
+                    return Optional.empty();
+                })
+                .thenCompose(recognized -> {
+                    if (!recognized.isPresent()) {
+                        pipelineMetrics.stop(Stage.TOTAL, null, totalStart, true);
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    RecognizedIntent intent = recognized.get();
+                    LOGGER.log(Level.FINE, "TopIntent is : {0}", intent);
+                    pipelineMetrics.tag(Stage.TOTAL, null, intent.getIntent());
+                    CompletableFuture<Void> handled = intentHandler.dispatch(requestMessage, intent);
+                    return handled.whenComplete((result, error)
+                            -> pipelineMetrics.stop(Stage.TOTAL, intent.getIntent(), totalStart, error != null));
+                });
     }
 
     /**
@@ -160,24 +271,18 @@ public class BotMessageReceiver {
      * JSR information.
      *
      * @param requestMessage messages from the clients
-     * @param luis Response object from LUIS.
+     * @param intent recognized intent of the user.
      */
-    private void execForJSRSearch(MessageFromBotFrameWork requestMessage, ResponseFromLUIS luis) {
-        List<Entity> entities = Arrays.asList(luis.getEntities());
-        Integer jsrNumber = getJSRNumber(entities);
-        Response response = getJSRInfo(entities);
-
-        if (isRequestSuccess(response)) {
-            JSRResultJSONMapping result = response
-                    .readEntity(JSRResultJSONMapping.class);
-
-            sendMessageToBotFramework(requestMessage, "JSR " + jsrNumber + " の詳細は 「" + result.getDescription() + "」 です。<BR>"
-                    + "https://jcp.org/en/jsr/detail?id=" + jsrNumber);
-        } else {
-            String error = response.readEntity(String.class);
-            LOGGER.log(Level.SEVERE, error);
-            sendMessageToBotFramework(requestMessage, "対象の JSR は見つかりませんでした");
-        }
+    private CompletableFuture<Void> execForJSRSearch(MessageFromBotFrameWork requestMessage, RecognizedIntent intent) {
+        Optional<Integer> jsrNumber = intent.getJsrNumber();
+        return getJSRInfo(jsrNumber, intent.getIntent()).thenCompose(result -> {
+            if (result.isPresent()) {
+                return sendMessageToBotFramework(requestMessage, intent.getIntent(), "JSR " + jsrNumber.get() + " の詳細は 「" + result.get().getDescription() + "」 です。<BR>"
+                        + "https://jcp.org/en/jsr/detail?id=" + jsrNumber.get());
+            } else {
+                return sendMessageToBotFramework(requestMessage, intent.getIntent(), "対象の JSR は見つかりませんでした");
+            }
+        });
     }
 
     /**
@@ -187,39 +292,26 @@ public class BotMessageReceiver {
      * ambiguous search.
      *
      * @param requestMessage messages from the clients
-     * @param luis Response object from LUIS.
+     * @param intent recognized intent of the user.
      */
-    public void execForAmbiguousSearch(MessageFromBotFrameWork requestMessage, ResponseFromLUIS luis) {
-        List<Entity> entities = Arrays.asList(luis.getEntities());
-        entities.stream()
-                .filter(ent -> ent.getType().equals("JSR-NAME-KEYWARD"))
-                .map(Entity::getEntity)
-                .findAny()
-                .ifPresent((String keyword) -> {
-                    final Configuration clientConfig = new ClientConfig(JacksonJsonProvider.class);
-                    Client client = ClientBuilder.newClient(clientConfig);
-                    WebTarget target = client.target(ENTRYPOINT_OF_JSR_AMBIGUOUS_SEARCH + keyword);
-                    Response response = target
-                            .request(MediaType.APPLICATION_JSON)
-                            .accept(MediaType.APPLICATION_JSON)
-                            .get();
-
-                    if (isRequestSuccess(response)) {
-                        try {
-                            List<JSRResultJSONMapping> jsrList = response.readEntity(new GenericType<List<JSRResultJSONMapping>>() {});
-                            sendMessageToBotFramework(requestMessage, "お探しの JSR は" + "「" + jsrList.size() + "」 ありました。");
-
-                            jsrList.stream().forEach(jsr -> {
-                                sendMessageToBotFramework(requestMessage, "JSR : " + jsr.getId() + "「" + jsr.getNameOfJsr() + "」 がみつかりました。");
-                            });
-
-                        } catch (Exception e) {
-                            LOGGER.log(Level.SEVERE, null, e);
-                        }
+    public CompletableFuture<Void> execForAmbiguousSearch(MessageFromBotFrameWork requestMessage, RecognizedIntent intent) {
+        if (!intent.getKeyword().isPresent()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        String keyword = intent.getKeyword().get();
+        return pipelineMetrics.time(Stage.JSR_SEARCH, intent.getIntent(),
+                Futures.within(searchJSR(keyword), JSR_SERVICE_TIMEOUT, scheduler, "JSR search"))
+                .exceptionally(error -> {
+                    LOGGER.log(Level.SEVERE, null, Futures.unwrap(error));
+                    return Optional.empty();
+                })
+                .thenCompose(result -> {
+                    if (result.isPresent()) {
+                        List<String> lines = result.get();
+                        return sendMessageToBotFramework(requestMessage, intent.getIntent(), replyAggregator.firstPage(Conversations.idOf(requestMessage),
+                                "お探しの JSR は" + "「" + lines.size() + "」 ありました。", lines));
                     } else {
-                        String error = response.readEntity(String.class);
-                        LOGGER.log(Level.SEVERE, error);
-                        sendMessageToBotFramework(requestMessage, "お探しの項目では見つかりませんでした");
+                        return sendMessageToBotFramework(requestMessage, intent.getIntent(), "お探しの項目では見つかりませんでした");
                     }
                 });
     }
@@ -230,87 +322,138 @@ public class BotMessageReceiver {
      * It will be called when LUIS caluculate user would like to get specific
      * JSR information.
      *
+     * The access token of the Translator doesn't depend on the JSR, so it is
+     * requested at the same time as the JSR. If the translation is not
+     * finished within the latency budget, the English description is sent
+     * first, and the translation is sent as the follow-up message.
+     *
      * @param requestMessage messages from the clients
-     * @param luis Response object from LUIS.
+     * @param intent recognized intent of the user.
      */
-    public void translateEnglish(MessageFromBotFrameWork requestMessage, ResponseFromLUIS luis) {
-        List<Entity> entities = Arrays.asList(luis.getEntities());
-        Integer jsrNumber = getJSRNumber(entities);
-        Response response = getJSRInfo(entities);
-
-        if (isRequestSuccess(response)) {
-            JSRResultJSONMapping result = response
-                    .readEntity(JSRResultJSONMapping.class);
-            String englishDescription = result.getDescription();
-
-            //Crete a instance of TranslatorTextServices
-            TranslatorTextServices trans = new TranslatorTextServices();
-            Optional<String> accessToken = trans.getAccessTokenForTranslator();
-            accessToken.ifPresent(token -> {
-                String translated = trans.translateEnglish(englishDescription, token);
-                sendMessageToBotFramework(requestMessage, "JSR " + jsrNumber + " の日本語訳は 「" + translated + "」 です。<BR>"
-                        + "https://jcp.org/en/jsr/detail?id=" + jsrNumber);
-            });
-        } else {
-            String error = response.readEntity(String.class);
-            LOGGER.log(Level.SEVERE, error);
-            sendMessageToBotFramework(requestMessage, "対象の JSR を翻訳できませんでした");
+    public CompletableFuture<Void> translateEnglish(MessageFromBotFrameWork requestMessage, RecognizedIntent intent) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TRANSLATE_BUDGET);
+        Optional<Integer> jsrNumber = intent.getJsrNumber();
+        if (!jsrNumber.isPresent()) {
+            return sendMessageToBotFramework(requestMessage, intent.getIntent(), "対象の JSR を翻訳できませんでした");
         }
+        CompletableFuture<Optional<String>> token = translationService.prefetchToken();
+        return getJSRInfo(jsrNumber, intent.getIntent()).thenCompose(result -> {
+            if (!result.isPresent()) {
+                return sendMessageToBotFramework(requestMessage, intent.getIntent(), "対象の JSR を翻訳できませんでした");
+            }
+            String englishDescription = result.get().getDescription();
+
+            CompletableFuture<Optional<String>> translation = pipelineMetrics.time(Stage.TRANSLATOR, intent.getIntent(),
+                    Futures.within(translationService.translate(jsrNumber.get(), englishDescription, token), TRANSLATOR_TIMEOUT, scheduler, "Translator"))
+                    .exceptionally(error -> {
+                        LOGGER.log(Level.SEVERE, null, Futures.unwrap(error));
+                        return Optional.empty();
+                    });
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            return Futures.within(translation, Math.max(remaining, 0), scheduler, "Translate budget")
+                    .handle((translated, error) -> error == null)
+                    .thenCompose(inBudget -> {
+                        if (inBudget) {
+                            return sendTranslation(requestMessage, intent, jsrNumber.get(), translation.join(), false);
+                        }
+                        pipelineMetrics.budgetExceeded(intent.getIntent());
+                        CompletableFuture<Void> partial = sendMessageToBotFramework(requestMessage, intent.getIntent(), "JSR " + jsrNumber.get() + " の詳細は 「" + englishDescription + "」 です。<BR>"
+                                + "日本語訳は準備中です。少々お待ちください。");
+                        return partial.thenCombine(translation, (sent, translated) -> translated)
+                                .thenCompose(translated -> sendTranslation(requestMessage, intent, jsrNumber.get(), translated, true));
+                    });
+        });
     }
 
-    private Response getJSRInfo(List<Entity> entities) {
-        Integer jsrNumber = getJSRNumber(entities);
-        LOGGER.log(Level.INFO, ENTRYPOINT_OF_JSR_NUMBER_SEARCH + "{0}", jsrNumber);
-
-        Client client = ClientBuilder.newBuilder()
-                .register(JacksonFeature.class)
-                .build();
-        WebTarget target = client.target(ENTRYPOINT_OF_JSR_NUMBER_SEARCH + jsrNumber);
-        Response response = target
-                .request()
-                .get();
-        return response;
+    /**
+     * Send the translation. If it could not be translated, the user is told
+     * so, because the user is waiting for the answer (or for the follow-up
+     * which was promised by the partial answer).
+     */
+    private CompletableFuture<Void> sendTranslation(MessageFromBotFrameWork requestMessage, RecognizedIntent intent,
+            Integer jsrNumber, Optional<String> translated, boolean followUp) {
+        if (!translated.isPresent()) {
+            return sendMessageToBotFramework(requestMessage, intent.getIntent(),
+                    followUp ? "翻訳できませんでした" : "対象の JSR を翻訳できませんでした");
+        }
+        return sendMessageToBotFramework(requestMessage, intent.getIntent(), "JSR " + jsrNumber + " の日本語訳は 「" + translated.get() + "」 です。<BR>"
+                + "https://jcp.org/en/jsr/detail?id=" + jsrNumber);
     }
 
-    private Integer getJSRNumber(List<Entity> entities) {
-        //JSR-WITHNUM,JSR_NUMBER
-        Optional<String> jsrnum = entities.stream()
-                .filter(ent -> ent.getType().equals("JSR_NUMBER"))
-                .map(filterEnt -> filterEnt.getEntity())
-                .findFirst();
-        String jsrString = jsrnum.get();
-        Integer jsrNumber;
-
-        if (jsrString.indexOf("jar") > 0) {
-            jsrNumber = Integer.valueOf(jsrString.replaceAll("jsr", ""));
-        } else if (jsrString.indexOf("JSR") > 0) {
-            jsrNumber = Integer.valueOf(jsrString.replaceAll("JSR", ""));
-        } else {
-            jsrNumber = Integer.valueOf(jsrString);
+    private CompletableFuture<Optional<List<String>>> searchJSR(String keyword) {
+        Optional<List<JSRResultJSONMapping>> local = catalogue.search(keyword);
+        if (local.isPresent()) {
+            List<String> lines = local.get().stream()
+                    .map(jsr -> toSearchResultLine(JSRSummary.of(jsr)))
+                    .collect(Collectors.toList());
+            return CompletableFuture.completedFuture(lines.isEmpty() ? Optional.empty() : Optional.of(lines));
+        }
+        return jsrServiceClient.searchByName(keyword, this::toSearchResultLine);
+    }
+
+    private String toSearchResultLine(JSRSummary jsr) {
+        return "JSR : " + jsr.getId() + "「" + jsr.getNameOfJsr() + "」 がみつかりました。";
+    }
+
+    private CompletableFuture<Optional<JSRResultJSONMapping>> getJSRInfo(Optional<Integer> jsrNumber, Intent intent) {
+        if (!jsrNumber.isPresent()) {
+            return CompletableFuture.completedFuture(Optional.empty());
         }
-        return jsrNumber;
+        return pipelineMetrics.time(Stage.JSR_SERVICE, intent,
+                Futures.within(jsrDetailCache.findByNumber(jsrNumber.get()), JSR_SERVICE_TIMEOUT, scheduler, "JSR service"))
+                .exceptionally(error -> {
+                    LOGGER.log(Level.SEVERE, null, Futures.unwrap(error));
+                    return Optional.empty();
+                });
     }
 
-    private void sendMessageToBotFramework(MessageFromBotFrameWork requestMessage, String message) {
-        String token = AccessTokenForBotService.getAccesToken();
-        BotService botService = resourceContext.getResource(BotService.class);
-        botService.sendResponse(requestMessage, token, message);
+    /**
+     * Send the reply through the queue of the conversation.
+     *
+     * The replies are sent in order, and the replies to the same message which
+     * are produced at the same time are merged into one activity.
+     */
+    private CompletableFuture<Void> sendMessageToBotFramework(MessageFromBotFrameWork requestMessage, Intent intent, String message) {
+        return pipelineMetrics.time(Stage.BOT_FRAMEWORK, intent, outboundQueue.send(requestMessage, message, this::deliver));
     }
 
-    private void execActionForNothing(MessageFromBotFrameWork requestMessage) {
+    /**
+     * Send the reply to the Bot Framework.
+     *
+     * The throttled send (429) is not the failure of the Bot Framework, so it
+     * is not recorded to the circuit breaker and it is retried by the queue.
+     * The reply to the service URL which is not allowed is not sent.
+     */
+    private CompletableFuture<Void> deliver(MessageFromBotFrameWork requestMessage, String message) {
+        if (!botConnector.isAllowed(requestMessage)) {
+            return Futures.failed(new IllegalArgumentException("The service URL is not allowed : " + requestMessage.getServiceUrl()));
+        }
+        CompletableFuture<Optional<WebApplicationException>> send = dependencies.get(Dependency.BOT_FRAMEWORK).call(() -> CompletableFuture.supplyAsync(() -> {
+            try {
+                botTokenManager.withToken(token -> botConnector.sendResponse(requestMessage, token, message));
+                return Optional.empty();
+            } catch (WebApplicationException e) {
+                if (OutboundQueue.isThrottled(e)) {
+                    return Optional.of(e);
+                }
+                throw e;
+            }
+        }, executors.blocking()));
+        return Futures.within(send, BOT_FRAMEWORK_TIMEOUT, scheduler, "Bot Framework").thenApply(throttled -> {
+            if (throttled.isPresent()) {
+                throw throttled.get();
+            }
+            return null;
+        });
+    }
+
+    private CompletableFuture<Void> execActionForNothing(MessageFromBotFrameWork requestMessage) {
         StringBuilder builder = new StringBuilder();
         builder.append("もう一度ご入力ください。<BR/>");
         builder.append("例：<BR/>");
         builder.append("Servlet は何に含まれますか？入りますか？<BR/>");
         builder.append("JSR 299 は何ですか？<BR/>");
         builder.append("JSR 199 を翻訳してください<BR/>");
-        sendMessageToBotFramework(requestMessage, builder.toString());
-    }
-
-    private boolean isRequestSuccess(Response response) {
-        Response.StatusType statusInfo = response.getStatusInfo();
-        Response.Status.Family family = statusInfo.getFamily();
-        return family != null && family == Response.Status.Family.SUCCESSFUL;
+        return sendMessageToBotFramework(requestMessage, Intent.NONE, builder.toString());
     }
-
 }
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.admin;
+
+import com.yoshio3.cache.JSRDetailCache;
+import com.yoshio3.config.BotConfig;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.inject.Inject;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.core.Response;
+
+/**
+ * Administration endpoints of this bot.
+ *
+ * The request must have the "X-Admin-Token" header which is same as the
+ * configured "bot.admin.token". If the token is not configured, all of the
+ * administration endpoints are disabled.
+ *
+ * @author Yoshio Terada
+ */
+@Path("admin")
+public class AdminResource {
+
+    private final static Logger LOGGER = Logger.getLogger(AdminResource.class.getName());
+
+    private final static String ADMIN_TOKEN_HEADER = "X-Admin-Token";
+
+    @Inject
+    JSRDetailCache jsrDetailCache;
+
+    /**
+     * Invalidate all of the cached JSR details.
+     *
+     * @param token administration token
+     * @return {@code Response} 204 if invalidated
+     */
+    @DELETE
+    @Path("cache/jsr")
+    public Response invalidateAllJSR(@HeaderParam(ADMIN_TOKEN_HEADER) String token) {
+        if (!isAuthorized(token)) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+        jsrDetailCache.invalidateAll();
+        LOGGER.log(Level.INFO, "JSR cache is invalidated");
+        return Response.noContent().build();
+    }
+
+    /**
+     * Invalidate the cached JSR detail of the JSR number.
+     *
+     * @param token administration token
+     * @param jsrNumber JSR number
+     * @return {@code Response} 204 if invalidated
+     */
+    @DELETE
+    @Path("cache/jsr/{jsrNumber}")
+    public Response invalidateJSR(@HeaderParam(ADMIN_TOKEN_HEADER) String token, @PathParam("jsrNumber") Integer jsrNumber) {
+        if (!isAuthorized(token)) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+        jsrDetailCache.invalidate(jsrNumber);
+        LOGGER.log(Level.INFO, "JSR {0} is invalidated from the cache", jsrNumber);
+        return Response.noContent().build();
+    }
+
+    private boolean isAuthorized(String token) {
+        String expected = BotConfig.get("bot.admin.token", null);
+        if (expected == null || token == null) {
+            return false;
+        }
+        return MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.cache;
+
+import com.yoshio3.metrics.Counter;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Bounded in-memory cache.
+ *
+ * The entries are evicted by LRU when the cache is full, and they are also
+ * expired by the TTL which is decided for each value. When several threads
+ * miss the same key at the same time, only one of them calls the loader and
+ * the others wait for the same result. If the key is invalidated while it is
+ * loaded, the result is still returned to the callers but it is not cached.
+ *
+ * @author Yoshio Terada
+ * @param <K> type of the key
+ * @param <V> type of the value
+ */
+public class ExpiringLruCache<K, V> {
+
+    private final int maxSize;
+    private final ToLongFunction<? super V> ttlMillis;
+    private final LongSupplier clock;
+    private final LinkedHashMap<K, CacheEntry<V>> entries;
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    private final Counter hits = new Counter();
+    private final Counter misses = new Counter();
+    private final Counter evictions = new Counter();
+    private final Counter coalesced = new Counter();
+
+    /**
+     * @param maxSize max number of entries
+     * @param ttlMillis time to live of the value in milliseconds. If it
+     * returns 0 or less, the value is not cached.
+     */
+    public ExpiringLruCache(int maxSize, ToLongFunction<? super V> ttlMillis) {
+        this(maxSize, ttlMillis, System::currentTimeMillis);
+    }
+
+    /**
+     * @param maxSize max number of entries
+     * @param ttlMillis time to live of the value in milliseconds
+     * @param clock current time in milliseconds (e.g. the fake clock of the
+     * test)
+     */
+    ExpiringLruCache(int maxSize, ToLongFunction<? super V> ttlMillis, LongSupplier clock) {
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Get the cached value. If it is not cached, the loader is invoked and
+     * the result is cached.
+     *
+     * @param key key of the value
+     * @param loader load the value when it is not cached
+     * @return {@code CompletableFuture} of the value
+     */
+    public CompletableFuture<V> get(K key, Function<? super K, ? extends CompletionStage<V>> loader) {
+        Optional<V> cached = getIfPresent(key);
+        if (cached.isPresent()) {
+            return CompletableFuture.completedFuture(cached.get());
+        }
+        misses.increment();
+
+        CompletableFuture<V> created = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            coalesced.increment();
+            return existing;
+        }
+
+        CompletionStage<V> stage;
+        try {
+            stage = loader.apply(key);
+        } catch (RuntimeException e) {
+            CompletableFuture<V> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            stage = failed;
+        }
+        stage.whenComplete((value, error) -> {
+            synchronized (entries) {
+                // The load is removed by the invalidation, so the stale value is not cached.
+                if (inFlight.remove(key, created) && error == null) {
+                    put(key, value);
+                }
+            }
+            if (error == null) {
+                created.complete(value);
+            } else {
+                created.completeExceptionally(error);
+            }
+        });
+        return created;
+    }
+
+    /**
+     * Get the value only when it is cached and not expired.
+     *
+     * @param key key of the value
+     * @return {@code Optional} of the cached value
+     */
+    public Optional<V> getIfPresent(K key) {
+        long now = clock.getAsLong();
+        synchronized (entries) {
+            CacheEntry<V> entry = entries.get(key);
+            if (entry != null) {
+                if (entry.expiresAt > now) {
+                    hits.increment();
+                    return Optional.of(entry.value);
+                }
+                entries.remove(key);
+                evictions.increment();
+            }
+        }
+        return Optional.empty();
+    }
+
+    public void put(K key, V value) {
+        if (value == null) {
+            return;
+        }
+        long ttl = ttlMillis.applyAsLong(value);
+        if (ttl <= 0) {
+            return;
+        }
+        long expiresAt = clock.getAsLong() + ttl;
+        synchronized (entries) {
+            entries.put(key, new CacheEntry<>(value, expiresAt));
+            Iterator<Map.Entry<K, CacheEntry<V>>> eldest = entries.entrySet().iterator();
+            while (entries.size() > maxSize && eldest.hasNext()) {
+                eldest.next();
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * Remove the value. The value which is being loaded now is not cached
+     * either, and the next call of {@link #get(Object, Function)} loads it
+     * again.
+     *
+     * @param key key of the value
+     */
+    public void invalidate(K key) {
+        synchronized (entries) {
+            entries.remove(key);
+            inFlight.remove(key);
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+            inFlight.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    private static class CacheEntry<V> {
+
+        private final V value;
+        private final long expiresAt;
+
+        CacheEntry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.cache;
+
+import com.yoshio3.JSRResultJSONMapping;
+import com.yoshio3.catalogue.JSRCatalogue;
+import com.yoshio3.client.JSRServiceClient;
+import com.yoshio3.cluster.ClusterCache;
+import com.yoshio3.config.BotConfig;
+import com.yoshio3.metrics.MetricsRegistry;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+/**
+ * Cache of the JSR details keyed by JSR number.
+ *
+ * The JSR metadata hardly ever changes, so the result of the
+ * JSR-Confirm-Service is kept in memory. "Not found" is also cached (for the
+ * shorter time), but the failure of the service is never cached. The JSRs in
+ * the local catalogue are answered without the cache. The found JSRs are
+ * also shared by the instances of the bot in the cluster.
+ *
+ * The invalidation removes the JSR from the catalogue, the local cache and
+ * the cluster. The load which was started before the invalidation doesn't
+ * put its result to the cluster, so the old value is not shared again.
+ *
+ * @author Yoshio Terada
+ */
+@ApplicationScoped
+public class JSRDetailCache {
+
+    @Inject
+    JSRServiceClient jsrServiceClient;
+
+    @Inject
+    JSRCatalogue catalogue;
+
+    @Inject
+    MetricsRegistry metrics;
+
+    @Inject
+    ClusterCache clusterCache;
+
+    private ExpiringLruCache<Integer, Optional<JSRResultJSONMapping>> cache;
+    private long ttl;
+    private final AtomicLong generation = new AtomicLong();
+
+    @PostConstruct
+    void init() {
+        ttl = BotConfig.getLong("jsr.cache.ttl", 6 * 60 * 60 * 1000L);
+        long negativeTtl = BotConfig.getLong("jsr.cache.negativeTtl", 10 * 60 * 1000L);
+        cache = new ExpiringLruCache<>(BotConfig.getInt("jsr.cache.maxSize", 1_000),
+                value -> value.isPresent() ? ttl : negativeTtl);
+
+        metrics.gauge("jsr_cache_size", cache::size);
+        metrics.counter("jsr_cache_hits_total", cache::getHitCount);
+        metrics.counter("jsr_cache_misses_total", cache::getMissCount);
+        metrics.counter("jsr_cache_evictions_total", cache::getEvictionCount);
+        metrics.counter("jsr_cache_coalesced_total", cache::getCoalescedCount);
+    }
+
+    /**
+     * Get a JSR contents from the JSR-Number.
+     *
+     * @param jsrNumber JSR number
+     * @return {@code CompletableFuture} of the JSR. It is empty if the JSR is
+     * not found, and it fails with {@code JSRServiceException} if the service
+     * could not answer the request.
+     */
+    public CompletableFuture<Optional<JSRResultJSONMapping>> findByNumber(Integer jsrNumber) {
+        Optional<JSRResultJSONMapping> local = catalogue.findByNumber(jsrNumber);
+        if (local.isPresent()) {
+            return CompletableFuture.completedFuture(local);
+        }
+        return cache.get(jsrNumber, this::load);
+    }
+
+    /**
+     * Invalidate the JSR, so the next lookup asks the JSR-Confirm-Service.
+     *
+     * @param jsrNumber JSR number
+     */
+    public void invalidate(Integer jsrNumber) {
+        generation.incrementAndGet();
+        catalogue.evict(jsrNumber);
+        cache.invalidate(jsrNumber);
+        clusterCache.remove(ClusterCache.JSR_DETAILS, String.valueOf(jsrNumber));
+    }
+
+    /**
+     * Invalidate all of the JSRs. The catalogue is loaded again in the
+     * background.
+     */
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        cache.invalidateAll();
+        clusterCache.clear(ClusterCache.JSR_DETAILS);
+        catalogue.reload();
+    }
+
+    private CompletableFuture<Optional<JSRResultJSONMapping>> load(Integer jsrNumber) {
+        String key = String.valueOf(jsrNumber);
+        long startGeneration = generation.get();
+        return clusterCache.<JSRResultJSONMapping>get(ClusterCache.JSR_DETAILS, key)
+                .thenCompose(shared -> shared.isPresent()
+                        ? CompletableFuture.completedFuture(shared)
+                        : jsrServiceClient.findByNumber(jsrNumber).thenApply(found -> {
+                            if (generation.get() == startGeneration) {
+                                found.ifPresent(jsr -> clusterCache.put(ClusterCache.JSR_DETAILS, key, jsr, ttl));
+                            }
+                            return found;
+                        }));
+    }
+}
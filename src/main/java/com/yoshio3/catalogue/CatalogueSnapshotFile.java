@@ -0,0 +1,306 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.catalogue;
+
+import com.yoshio3.JSRResultJSONMapping;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot file of the JSR catalogue and the translated descriptions.
+ *
+ * The file is read by the memory mapping at the startup, so the first
+ * request after the restart is answered without calling the remote services
+ * and without parsing JSON. Note that the mapping only makes the loading
+ * fast: all of the records are decoded into {@code JSRResultJSONMapping} on
+ * the heap, because the n-gram index and the replies use the names and the
+ * descriptions as strings. The heap footprint is the same as the catalogue
+ * which is loaded from the remote service. The layout is (big endian):
+ *
+ * <pre>
+ * header  : magic "JSRC"(int) version(int) createdAt(long)
+ *           payloadLength(int) payloadCrc32(long)
+ * payload : jsrCount(int) { jsr }*  translationCount(int) { jsrNumber(int) text }*
+ * jsr     : id(long) jsrId(int) nameOfJsr description reason specLeads
+ *           startDate endDate effectiveDate latestStage currentStatus
+ * </pre>
+ *
+ * A string is the length of the UTF-8 bytes (-1 for null) and the bytes, a
+ * date is the epoch millis ({@code Long.MIN_VALUE} for null). The file of the
+ * other version or with the wrong checksum is ignored. The file is written
+ * to the temporary file and moved atomically, so the reader never sees the
+ * half written file.
+ *
+ * @author Yoshio Terada
+ */
+public class CatalogueSnapshotFile {
+
+    private final static Logger LOGGER = Logger.getLogger(CatalogueSnapshotFile.class.getName());
+
+    private final static int MAGIC = 0x4A535243; // "JSRC"
+    private final static int FORMAT_VERSION = 1;
+    private final static int HEADER_SIZE = 4 + 4 + 8 + 4 + 8;
+
+    private final static int NULL_LENGTH = -1;
+    private final static long NULL_DATE = Long.MIN_VALUE;
+    private final static long NULL_ID = Long.MIN_VALUE;
+    private final static int NULL_JSR_ID = Integer.MIN_VALUE;
+
+    private final Path path;
+
+    public CatalogueSnapshotFile(Path path) {
+        this.path = path;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Write the snapshot file atomically.
+     *
+     * @param jsrs all of the JSRs
+     * @param translations translated descriptions by the JSR number
+     * @throws IOException if the file could not be written
+     */
+    public void write(List<JSRResultJSONMapping> jsrs, Map<Integer, String> translations) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * 1024);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(jsrs.size());
+            for (JSRResultJSONMapping jsr : jsrs) {
+                writeJSR(out, jsr);
+            }
+            out.writeInt(translations.size());
+            for (Map.Entry<Integer, String> translation : translations.entrySet()) {
+                out.writeInt(translation.getKey());
+                writeString(out, translation.getValue());
+            }
+        }
+        byte[] payload = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC)
+                .putInt(FORMAT_VERSION)
+                .putLong(System.currentTimeMillis())
+                .putInt(payload.length)
+                .putLong(crc.getValue())
+                .flip();
+
+        Path directory = path.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer body = ByteBuffer.wrap(payload);
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+                while (body.hasRemaining()) {
+                    channel.write(body);
+                }
+                channel.force(true);
+            }
+            try {
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Read the snapshot file.
+     *
+     * @return {@code Optional} of the contents. It is empty if the file
+     * doesn't exist or could not be used.
+     */
+    public Optional<Contents> read() {
+        if (!Files.isRegularFile(path)) {
+            return Optional.empty();
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                LOGGER.log(Level.WARNING, "JSR snapshot {0} is truncated", path);
+                return Optional.empty();
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC) {
+                LOGGER.log(Level.WARNING, "{0} is not a JSR snapshot", path);
+                return Optional.empty();
+            }
+            int version = buffer.getInt();
+            if (version != FORMAT_VERSION) {
+                LOGGER.log(Level.INFO, "JSR snapshot {0} is version {1}, ignored", new Object[]{path, version});
+                return Optional.empty();
+            }
+            long createdAt = buffer.getLong();
+            int payloadLength = buffer.getInt();
+            long expectedCrc = buffer.getLong();
+            if (payloadLength < 0 || payloadLength != buffer.remaining()) {
+                LOGGER.log(Level.WARNING, "JSR snapshot {0} is truncated", path);
+                return Optional.empty();
+            }
+            CRC32 crc = new CRC32();
+            crc.update(buffer.duplicate());
+            if (crc.getValue() != expectedCrc) {
+                LOGGER.log(Level.WARNING, "JSR snapshot {0} has a wrong checksum", path);
+                return Optional.empty();
+            }
+
+            int jsrCount = buffer.getInt();
+            List<JSRResultJSONMapping> jsrs = new ArrayList<>(jsrCount);
+            for (int i = 0; i < jsrCount; i++) {
+                jsrs.add(readJSR(buffer));
+            }
+            int translationCount = buffer.getInt();
+            Map<Integer, String> translations = new HashMap<>(translationCount * 2);
+            for (int i = 0; i < translationCount; i++) {
+                int jsrNumber = buffer.getInt();
+                translations.put(jsrNumber, readString(buffer));
+            }
+            return Optional.of(new Contents(jsrs, translations, createdAt));
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Could not read the JSR snapshot " + path, e);
+            return Optional.empty();
+        }
+    }
+
+    private static void writeJSR(DataOutputStream out, JSRResultJSONMapping jsr) throws IOException {
+        out.writeLong(jsr.getId() == null ? NULL_ID : jsr.getId());
+        out.writeInt(jsr.getJsrId() == null ? NULL_JSR_ID : jsr.getJsrId());
+        writeString(out, jsr.getNameOfJsr());
+        writeString(out, jsr.getDescription());
+        writeString(out, jsr.getReason());
+        String[] specLeads = jsr.getSpecLeads();
+        out.writeInt(specLeads == null ? NULL_LENGTH : specLeads.length);
+        if (specLeads != null) {
+            for (String specLead : specLeads) {
+                writeString(out, specLead);
+            }
+        }
+        writeDate(out, jsr.getStartDate());
+        writeDate(out, jsr.getEndDate());
+        writeDate(out, jsr.getEffectiveDate());
+        writeString(out, jsr.getLatestStage());
+        writeString(out, jsr.getCurrentStatus());
+    }
+
+    private static JSRResultJSONMapping readJSR(ByteBuffer buffer) {
+        JSRResultJSONMapping jsr = new JSRResultJSONMapping();
+        long id = buffer.getLong();
+        jsr.setId(id == NULL_ID ? null : id);
+        int jsrId = buffer.getInt();
+        jsr.setJsrId(jsrId == NULL_JSR_ID ? null : jsrId);
+        jsr.setNameOfJsr(readString(buffer));
+        jsr.setDescription(readString(buffer));
+        jsr.setReason(readString(buffer));
+        int specLeadCount = buffer.getInt();
+        if (specLeadCount != NULL_LENGTH) {
+            String[] specLeads = new String[specLeadCount];
+            for (int i = 0; i < specLeadCount; i++) {
+                specLeads[i] = readString(buffer);
+            }
+            jsr.setSpecLeads(specLeads);
+        }
+        jsr.setStartDate(readDate(buffer));
+        jsr.setEndDate(readDate(buffer));
+        jsr.setEffectiveDate(readDate(buffer));
+        jsr.setLatestStage(readString(buffer));
+        jsr.setCurrentStatus(readString(buffer));
+        return jsr;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(NULL_LENGTH);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeDate(DataOutputStream out, Date date) throws IOException {
+        out.writeLong(date == null ? NULL_DATE : date.getTime());
+    }
+
+    private static Date readDate(ByteBuffer buffer) {
+        long time = buffer.getLong();
+        return time == NULL_DATE ? null : new Date(time);
+    }
+
+    /**
+     * Contents of the snapshot file.
+     */
+    public static class Contents {
+
+        private final List<JSRResultJSONMapping> jsrs;
+        private final Map<Integer, String> translations;
+        private final long createdAt;
+
+        Contents(List<JSRResultJSONMapping> jsrs, Map<Integer, String> translations, long createdAt) {
+            this.jsrs = Collections.unmodifiableList(jsrs);
+            this.translations = Collections.unmodifiableMap(translations);
+            this.createdAt = createdAt;
+        }
+
+        public List<JSRResultJSONMapping> getJsrs() {
+            return jsrs;
+        }
+
+        public Map<Integer, String> getTranslations() {
+            return translations;
+        }
+
+        public long getCreatedAt() {
+            return createdAt;
+        }
+    }
+}
@@ -0,0 +1,402 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.catalogue;
+
+import com.yoshio3.JSRResultJSONMapping;
+import com.yoshio3.client.JSRServiceClient;
+import com.yoshio3.concurrent.BotExecutors;
+import com.yoshio3.concurrent.Futures;
+import com.yoshio3.config.BotConfig;
+import com.yoshio3.metrics.Counter;
+import com.yoshio3.metrics.MetricsRegistry;
+import com.yoshio3.translator.TranslationService;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+
+/**
+ * Local snapshot of all of the JSRs.
+ *
+ * The JSR corpus is only a few hundred entries, so the whole of it is loaded
+ * from the JSR-Confirm-Service at the startup and refreshed periodically. The
+ * whole corpus is requested by the search with "catalogue.keyword" (empty by
+ * default). Nothing guarantees that the service answers the whole corpus for
+ * it, so the result which has less than "catalogue.minSize" JSRs is not
+ * installed.
+ *
+ * The number lookup and the ambiguous search are answered from the snapshot.
+ * The callers fall back to the remote service if the snapshot is not loaded
+ * yet, is older than "catalogue.ttl", or doesn't have the answer (the JSR is
+ * not in the snapshot, or no JSR matches the keyword), so a partial snapshot
+ * doesn't turn the valid queries into "not found".
+ *
+ * The snapshot and the translated descriptions are also saved to the binary
+ * file (see {@link CatalogueSnapshotFile}) after each refresh, and the file
+ * is read at the startup, so the bot doesn't start cold after the restart.
+ *
+ * The refresh doesn't block the shared scheduler; the result of the service
+ * is installed when it arrives. The invalidation by the administrator
+ * ({@link #evict(Integer)} and {@link #reload()}) increments the generation
+ * of the snapshot, and the refresh which was started before it is discarded,
+ * so the invalidated JSR is not installed again by the old result.
+ *
+ * @author Yoshio Terada
+ */
+@ApplicationScoped
+public class JSRCatalogue {
+
+    private final static Logger LOGGER = Logger.getLogger(JSRCatalogue.class.getName());
+
+    @Resource
+    ManagedScheduledExecutorService scheduler;
+
+    @Inject
+    JSRServiceClient jsrServiceClient;
+
+    @Inject
+    TranslationService translationService;
+
+    @Inject
+    MetricsRegistry metrics;
+
+    @Inject
+    BotExecutors executors;
+
+    private volatile Snapshot snapshot;
+    // Guarded by this.
+    private long generation;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private final AtomicBoolean refreshAgain = new AtomicBoolean();
+
+    private boolean enabled;
+    private long refreshInterval;
+    private long ttlMillis;
+    private int minSize;
+    private LongSupplier clock;
+    private CatalogueSnapshotFile snapshotFile;
+    private Counter localHits;
+    private Counter fallbacks;
+    private Counter refreshFailures;
+
+    @PostConstruct
+    void init() {
+        enabled = BotConfig.getBoolean("catalogue.enabled", true);
+        refreshInterval = BotConfig.getLong("catalogue.refreshInterval", 6 * 60 * 60 * 1000L);
+        configure(BotConfig.getLong("catalogue.ttl", 2 * refreshInterval),
+                BotConfig.getInt("catalogue.minSize", 100),
+                System::currentTimeMillis);
+        if (BotConfig.getBoolean("catalogue.snapshot.enabled", true)) {
+            snapshotFile = new CatalogueSnapshotFile(
+                    Paths.get(BotConfig.get("catalogue.snapshot.path", "/tmp/jsr-catalogue.bin")));
+        }
+    }
+
+    // Package-private for the tests.
+    void configure(long ttlMillis, int minSize, LongSupplier clock) {
+        this.ttlMillis = ttlMillis;
+        this.minSize = minSize;
+        this.clock = clock;
+        localHits = metrics.counter("catalogue_local_hits_total");
+        fallbacks = metrics.counter("catalogue_fallbacks_total");
+        refreshFailures = metrics.counter("catalogue_refresh_failures_total");
+        metrics.gauge("catalogue_size", () -> snapshot == null ? 0 : snapshot.index.size());
+        metrics.gauge("catalogue_age_seconds", () -> snapshot == null ? -1
+                : TimeUnit.MILLISECONDS.toSeconds(clock.getAsLong() - snapshot.loadedAt));
+    }
+
+    /**
+     * Start loading the catalogue when the application is started.
+     *
+     * @param event the event of the application start
+     */
+    void onStartup(@Observes @Initialized(ApplicationScoped.class) Object event) {
+        if (!enabled) {
+            LOGGER.log(Level.INFO, "JSR catalogue is disabled");
+            return;
+        }
+        loadSnapshotFile();
+        scheduler.scheduleWithFixedDelay(this::refresh, 0, refreshInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Load all of the JSRs from the JSR-Confirm-Service and replace the
+     * snapshot. If it failed, the current snapshot is kept. Only one refresh
+     * runs at a time.
+     *
+     * @return {@code CompletableFuture} which is completed after the refresh.
+     * It never fails.
+     */
+    public CompletableFuture<Void> refresh() {
+        if (!refreshing.compareAndSet(false, true)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        refreshAgain.set(false);
+        long startGeneration = getGeneration();
+        String keyword = BotConfig.get("catalogue.keyword", "");
+        CompletableFuture<Optional<List<JSRResultJSONMapping>>> loading;
+        try {
+            loading = Futures.within(jsrServiceClient.searchByName(keyword),
+                    BotConfig.getLong("catalogue.loadTimeout", 60_000), scheduler, "JSR catalogue");
+        } catch (RuntimeException e) {
+            loading = Futures.failed(e);
+        }
+        return loading.thenAccept(jsrs -> {
+            if (!jsrs.isPresent() || jsrs.get().size() < minSize) {
+                refreshFailures.increment();
+                LOGGER.log(Level.WARNING, "JSR catalogue has only {0} JSRs (less than {1}), keep the current snapshot",
+                        new Object[]{jsrs.map(List::size).orElse(0), minSize});
+                return;
+            }
+            if (!install(jsrs.get(), startGeneration)) {
+                LOGGER.log(Level.INFO, "JSR catalogue was invalidated while it was loaded, discard the result");
+                return;
+            }
+            executors.blocking().execute(this::writeSnapshotFile);
+        }).whenComplete((result, error) -> {
+            refreshing.set(false);
+            if (error != null) {
+                refreshFailures.increment();
+                LOGGER.log(Level.WARNING, "Could not load the JSR catalogue", Futures.unwrap(error));
+            }
+            // The reload was requested while this refresh was running.
+            if (refreshAgain.getAndSet(false)) {
+                refresh();
+            }
+        }).exceptionally(error -> null);
+    }
+
+    /**
+     * Remove the JSR from the snapshot, so it is looked up from the remote
+     * service until the next refresh.
+     *
+     * @param jsrNumber JSR number
+     */
+    public synchronized void evict(Integer jsrNumber) {
+        generation++;
+        Snapshot current = snapshot;
+        if (current == null || !current.byNumber.containsKey(jsrNumber)) {
+            return;
+        }
+        List<JSRResultJSONMapping> jsrs = new ArrayList<>(current.index.getDocuments());
+        jsrs.removeIf(jsr -> jsrNumber.equals(numberOf(jsr)));
+        snapshot = new Snapshot(jsrs, current.loadedAt);
+    }
+
+    /**
+     * Drop the snapshot and load it again from the remote service. The
+     * lookups go to the remote service until it is loaded.
+     */
+    public void reload() {
+        synchronized (this) {
+            generation++;
+            snapshot = null;
+        }
+        refreshAgain.set(true);
+        if (enabled) {
+            refresh();
+        }
+    }
+
+    private synchronized long getGeneration() {
+        return generation;
+    }
+
+    private synchronized boolean install(List<JSRResultJSONMapping> jsrs, long expectedGeneration) {
+        if (generation != expectedGeneration) {
+            return false;
+        }
+        replace(jsrs);
+        return true;
+    }
+
+    /**
+     * Read the snapshot file which was written before the restart. The remote
+     * refresh still runs after this, so the old file is replaced soon.
+     */
+    void loadSnapshotFile() {
+        if (snapshotFile == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        snapshotFile.read().ifPresent(contents -> {
+            if (contents.getJsrs().isEmpty()) {
+                return;
+            }
+            snapshot = new Snapshot(contents.getJsrs(), contents.getCreatedAt());
+            contents.getTranslations().forEach((jsrNumber, translated) -> {
+                JSRResultJSONMapping jsr = snapshot.byNumber.get(jsrNumber);
+                if (jsr != null) {
+                    translationService.preload(jsrNumber, jsr.getDescription(), translated);
+                }
+            });
+            LOGGER.log(Level.INFO, "JSR catalogue is loaded from {0} : {1} JSRs, {2} translations in {3} ms",
+                    new Object[]{snapshotFile.getPath(), contents.getJsrs().size(),
+                        contents.getTranslations().size(),
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)});
+        });
+    }
+
+    /**
+     * Save the translations which were made after the last refresh.
+     */
+    @PreDestroy
+    void shutdown() {
+        if (enabled) {
+            writeSnapshotFile();
+        }
+    }
+
+    /**
+     * Write the current snapshot and the translations which are cached now to
+     * the snapshot file.
+     */
+    void writeSnapshotFile() {
+        Snapshot current = snapshot;
+        if (snapshotFile == null || current == null) {
+            return;
+        }
+        Map<Integer, String> translations = new HashMap<>();
+        current.byNumber.forEach((jsrNumber, jsr) -> translationService
+                .getIfCached(jsrNumber, jsr.getDescription())
+                .ifPresent(translated -> translations.put(jsrNumber, translated)));
+        try {
+            snapshotFile.write(current.index.getDocuments(), translations);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not write the JSR snapshot " + snapshotFile.getPath(), e);
+        }
+    }
+
+    /**
+     * Replace the snapshot with the JSRs.
+     *
+     * @param jsrs all of the JSRs
+     */
+    public synchronized void replace(List<JSRResultJSONMapping> jsrs) {
+        snapshot = new Snapshot(jsrs, clock.getAsLong());
+        LOGGER.log(Level.INFO, "JSR catalogue is loaded : {0} JSRs", jsrs.size());
+    }
+
+    /**
+     * @return true if the snapshot is loaded
+     */
+    public boolean isLoaded() {
+        return snapshot != null;
+    }
+
+    /**
+     * @return all of the JSRs in the snapshot
+     */
+    public List<JSRResultJSONMapping> getAll() {
+        Snapshot current = snapshot;
+        return current == null ? Collections.emptyList() : current.index.getDocuments();
+    }
+
+    /**
+     * Get a JSR contents from the snapshot.
+     *
+     * @param jsrNumber JSR number
+     * @return {@code Optional} of the JSR. It is empty if the snapshot is not
+     * loaded, is expired or doesn't have the JSR, so the caller should ask
+     * the remote service.
+     */
+    public Optional<JSRResultJSONMapping> findByNumber(Integer jsrNumber) {
+        Snapshot current = freshSnapshot();
+        JSRResultJSONMapping jsr = current == null ? null : current.byNumber.get(jsrNumber);
+        if (jsr == null) {
+            fallbacks.increment();
+            return Optional.empty();
+        }
+        localHits.increment();
+        return Optional.of(jsr);
+    }
+
+    /**
+     * Search the JSRs by keyword in the snapshot.
+     *
+     * @param keyword keyword of the JSR
+     * @return {@code Optional} of the matched JSRs. It is empty if the
+     * snapshot is not loaded, is expired or no JSR matches the keyword, so
+     * the caller should ask the remote service.
+     */
+    public Optional<List<JSRResultJSONMapping>> search(String keyword) {
+        Snapshot current = freshSnapshot();
+        List<JSRResultJSONMapping> found = current == null ? Collections.emptyList() : current.index.search(keyword);
+        if (found.isEmpty()) {
+            fallbacks.increment();
+            return Optional.empty();
+        }
+        localHits.increment();
+        return Optional.of(found);
+    }
+
+    private Snapshot freshSnapshot() {
+        Snapshot current = snapshot;
+        if (current == null || clock.getAsLong() - current.loadedAt > ttlMillis) {
+            return null;
+        }
+        return current;
+    }
+
+    /**
+     * JSR number of the JSR. The ID of the JSR-Confirm-Service is the key of
+     * the record, not the JSR number.
+     *
+     * @param jsr JSR
+     * @return JSR number, or null if the JSR doesn't have it
+     */
+    static Integer numberOf(JSRResultJSONMapping jsr) {
+        return jsr.getJsrId();
+    }
+
+    private static class Snapshot {
+
+        private final NGramIndex index;
+        private final Map<Integer, JSRResultJSONMapping> byNumber;
+        private final long loadedAt;
+
+        Snapshot(List<JSRResultJSONMapping> jsrs, long loadedAt) {
+            this.index = new NGramIndex(jsrs);
+            Map<Integer, JSRResultJSONMapping> numbers = new HashMap<>(jsrs.size() * 2);
+            for (JSRResultJSONMapping jsr : jsrs) {
+                Integer number = numberOf(jsr);
+                if (number != null) {
+                    numbers.put(number, jsr);
+                }
+            }
+            this.byNumber = numbers;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
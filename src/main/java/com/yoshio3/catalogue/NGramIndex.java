@@ -0,0 +1,160 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.catalogue;
+
+import com.yoshio3.JSRResultJSONMapping;
+import com.yoshio3.intent.Utterances;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory inverted index over the name and the description of the JSRs.
+ *
+ * The text is split into character bigrams, so both of the Japanese and the
+ * English keywords can be searched without the word segmentation. The
+ * candidates from the index are verified by the substring match, so the
+ * result is same as "contains the keyword". The JSRs whose name contains the
+ * keyword come first.
+ *
+ * This class is immutable and thread safe.
+ *
+ * @author Yoshio Terada
+ */
+public class NGramIndex {
+
+    private final static int N = 2;
+    private final static int[] NO_POSTINGS = new int[0];
+
+    private final List<JSRResultJSONMapping> documents;
+    private final String[] names;
+    private final String[] descriptions;
+    private final Map<String, int[]> postings;
+
+    /**
+     * @param jsrs the JSRs to index. The order is kept in the search result.
+     */
+    public NGramIndex(List<JSRResultJSONMapping> jsrs) {
+        this.documents = Collections.unmodifiableList(new ArrayList<>(jsrs));
+        this.names = new String[documents.size()];
+        this.descriptions = new String[documents.size()];
+
+        Map<String, List<Integer>> building = new HashMap<>();
+        for (int doc = 0; doc < documents.size(); doc++) {
+            JSRResultJSONMapping jsr = documents.get(doc);
+            names[doc] = Utterances.normalize(jsr.getNameOfJsr());
+            descriptions[doc] = Utterances.normalize(jsr.getDescription());
+            Set<String> grams = new LinkedHashSet<>();
+            grams.addAll(ngrams(names[doc]));
+            grams.addAll(ngrams(descriptions[doc]));
+            for (String gram : grams) {
+                building.computeIfAbsent(gram, key -> new ArrayList<>()).add(doc);
+            }
+        }
+        Map<String, int[]> built = new HashMap<>(building.size() * 2);
+        building.forEach((gram, docs) -> built.put(gram, docs.stream().mapToInt(Integer::intValue).toArray()));
+        this.postings = built;
+    }
+
+    /**
+     * Search the JSRs whose name or description contains the keyword.
+     *
+     * @param keyword keyword of the JSR
+     * @return matched JSRs
+     */
+    public List<JSRResultJSONMapping> search(String keyword) {
+        String normalized = Utterances.normalize(keyword);
+        if (normalized.isEmpty()) {
+            return Collections.emptyList();
+        }
+        int[] candidates = candidatesOf(normalized);
+
+        List<JSRResultJSONMapping> byName = new ArrayList<>();
+        List<JSRResultJSONMapping> byDescription = new ArrayList<>();
+        for (int doc : candidates) {
+            if (names[doc].contains(normalized)) {
+                byName.add(documents.get(doc));
+            } else if (descriptions[doc].contains(normalized)) {
+                byDescription.add(documents.get(doc));
+            }
+        }
+        byName.addAll(byDescription);
+        return byName;
+    }
+
+    /**
+     * @return the number of the indexed JSRs
+     */
+    public int size() {
+        return documents.size();
+    }
+
+    /**
+     * @return the indexed JSRs
+     */
+    public List<JSRResultJSONMapping> getDocuments() {
+        return documents;
+    }
+
+    private int[] candidatesOf(String normalized) {
+        if (normalized.length() < N) {
+            // Too short for the index, check all of the documents.
+            int[] all = new int[documents.size()];
+            Arrays.setAll(all, i -> i);
+            return all;
+        }
+        List<int[]> lists = new ArrayList<>();
+        for (String gram : ngrams(normalized)) {
+            lists.add(postings.getOrDefault(gram, NO_POSTINGS));
+        }
+        lists.sort((a, b) -> Integer.compare(a.length, b.length));
+        int[] result = lists.get(0);
+        for (int i = 1; i < lists.size() && result.length > 0; i++) {
+            result = intersect(result, lists.get(i));
+        }
+        return result;
+    }
+
+    private static Set<String> ngrams(String text) {
+        Set<String> grams = new LinkedHashSet<>();
+        for (int i = 0; i + N <= text.length(); i++) {
+            grams.add(text.substring(i, i + N));
+        }
+        return grams;
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int i = 0, j = 0, k = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] == b[j]) {
+                result[k++] = a[i];
+                i++;
+                j++;
+            } else if (a[i] < b[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, k);
+    }
+}
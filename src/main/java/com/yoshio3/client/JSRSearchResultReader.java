@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.client;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Streaming reader of the search result of the JSR-Confirm-Service.
+ *
+ * The JSON array is read token by token, and only "id" and "nameOfJsr" of
+ * each element are bound. The other fields (the description, the spec leads,
+ * the dates and so on) are skipped without creating the objects, and each
+ * element is passed to the mapper as soon as it is read.
+ *
+ * @author Yoshio Terada
+ */
+public class JSRSearchResultReader {
+
+    // JsonFactory is thread safe and expensive to create, so it is shared.
+    private final static JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private JSRSearchResultReader() {
+    }
+
+    /**
+     * Read the search result.
+     *
+     * @param <T> type of the mapped element
+     * @param in the response body. It is not closed by this method.
+     * @param mapper called for each element in the order of the array
+     * @return the mapped elements
+     * @throws IOException if the body could not be read or is not the array
+     * of the JSRs
+     */
+    public static <T> List<T> read(InputStream in, Function<JSRSummary, T> mapper) throws IOException {
+        List<T> results = new ArrayList<>();
+        try (JsonParser parser = JSON_FACTORY.createParser(in)) {
+            JsonToken token = parser.nextToken();
+            if (token == null || token == JsonToken.VALUE_NULL) {
+                return results;
+            }
+            if (token != JsonToken.START_ARRAY) {
+                throw new JsonParseException(parser, "The search result is not an array : " + token);
+            }
+            while ((token = parser.nextToken()) == JsonToken.START_OBJECT) {
+                results.add(mapper.apply(readElement(parser)));
+            }
+            if (token != JsonToken.END_ARRAY) {
+                throw new JsonParseException(parser, "Unexpected element of the search result : " + token);
+            }
+        }
+        return results;
+    }
+
+    private static JSRSummary readElement(JsonParser parser) throws IOException {
+        Long id = null;
+        String nameOfJsr = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("id".equals(field) && value == JsonToken.VALUE_NUMBER_INT) {
+                id = parser.getLongValue();
+            } else if ("nameOfJsr".equals(field) && value == JsonToken.VALUE_STRING) {
+                nameOfJsr = parser.getText();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return new JSRSummary(id, nameOfJsr);
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.client;
+
+import com.yoshio3.JSRResultJSONMapping;
+import com.yoshio3.concurrent.Lazy;
+import com.yoshio3.config.BotConfig;
+import com.yoshio3.metrics.MetricsRegistry;
+import com.yoshio3.resilience.Dependencies;
+import com.yoshio3.resilience.Dependencies.Dependency;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.client.InvocationCallback;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.glassfish.jersey.apache.connector.ApacheClientProperties;
+import org.glassfish.jersey.apache.connector.ApacheConnectorProvider;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.jackson.JacksonFeature;
+
+/**
+ * Client for the JSR-Confirm-Service.
+ *
+ * All of the JSR lookups go through this class. It holds only one JAX-RS
+ * client for the application, and the connections to the service are kept
+ * alive in the bounded connection pool. Each response is closed after reading
+ * the entity, so the connection is returned to the pool. The calls go through
+ * the circuit breaker and the bulkhead of the service. The endpoint can be
+ * changed by "endpoint.jsr" (e.g. to the local stub).
+ *
+ * Note that the Apache connector is a blocking connector. The asynchronous
+ * request of JAX-RS doesn't wait on the caller thread, but it still occupies
+ * one thread of the async pool of Jersey until the response is read. So the
+ * async pool ("jsr.client.asyncThreads") is sized to the connections per
+ * route by default; if the pool is smaller, the requests wait for the thread
+ * even if the connection is available.
+ *
+ * @author Yoshio Terada
+ */
+@ApplicationScoped
+public class JSRServiceClient {
+
+    private final static Logger LOGGER = Logger.getLogger(JSRServiceClient.class.getName());
+
+    private final static String DEFAULT_ENTRYPOINT_OF_JSR_SERVICE = "http://jsr-confim-msa.52.175.149.226.nip.io/JSR-Confirm-Service-MSA-1.0-SNAPSHOT/rest/jsr/";
+
+    /**
+     * Routes of the JSR-Confirm-Service. The timeouts can be configured for
+     * each route like "jsr.client.number.readTimeout".
+     */
+    private enum Route {
+        NUMBER("number", 2_000, 5_000),
+        SEARCH("search", 2_000, 10_000);
+
+        private final int connectTimeout;
+        private final int readTimeout;
+
+        Route(String name, int defaultConnectTimeout, int defaultReadTimeout) {
+            this.connectTimeout = BotConfig.getInt("jsr.client." + name + ".connectTimeout", defaultConnectTimeout);
+            this.readTimeout = BotConfig.getInt("jsr.client." + name + ".readTimeout", defaultReadTimeout);
+        }
+    }
+
+    @Inject
+    MetricsRegistry metrics;
+
+    @Inject
+    Dependencies dependencies;
+
+    private String entrypoint;
+    private PoolingHttpClientConnectionManager connectionManager;
+    private Lazy<Client> client;
+
+    @PostConstruct
+    void init() {
+        entrypoint = BotConfig.get("endpoint.jsr", DEFAULT_ENTRYPOINT_OF_JSR_SERVICE);
+        connectionManager = new PoolingHttpClientConnectionManager(
+                BotConfig.getLong("jsr.client.pool.keepAlive", 60_000), TimeUnit.MILLISECONDS);
+        int maxPerRoute = BotConfig.getInt("jsr.client.pool.maxPerRoute", 50);
+        connectionManager.setMaxTotal(BotConfig.getInt("jsr.client.pool.maxTotal", 50));
+        connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+        connectionManager.setValidateAfterInactivity(BotConfig.getInt("jsr.client.pool.validateAfterInactivity", 2_000));
+
+        // Each request holds one async thread until the response is read
+        // (see the class comment), so there are as many threads as the connections.
+        int asyncThreads = BotConfig.getInt("jsr.client.asyncThreads", maxPerRoute);
+
+        // The Jersey client is created on the first call or by the prewarm.
+        client = Lazy.of(() -> ClientBuilder.newClient(new ClientConfig()
+                .connectorProvider(new ApacheConnectorProvider())
+                .property(ApacheClientProperties.CONNECTION_MANAGER, connectionManager)
+                .property(ClientProperties.ASYNC_THREADPOOL_SIZE, asyncThreads)
+                .register(JacksonFeature.class)));
+
+        metrics.gauge("jsr_client_pool_leased", () -> connectionManager.getTotalStats().getLeased());
+        metrics.gauge("jsr_client_pool_available", () -> connectionManager.getTotalStats().getAvailable());
+        metrics.gauge("jsr_client_pool_pending", () -> connectionManager.getTotalStats().getPending());
+        metrics.gauge("jsr_client_pool_max", () -> connectionManager.getTotalStats().getMax());
+        metrics.gauge("jsr_client_async_threads", () -> asyncThreads);
+    }
+
+    @PreDestroy
+    void close() {
+        client.ifCreated(Client::close);
+    }
+
+    /**
+     * Create the client before the first call.
+     */
+    public void prewarm() {
+        client.get();
+    }
+
+    /**
+     * Get a JSR contents from the JSR-Number.
+     *
+     * The request is sent asynchronously, so the caller thread doesn't wait
+     * for the response. It is the idempotent read, so the slow request is
+     * hedged if it is enabled by "resilience.jsr.hedge.enabled".
+     *
+     * @param jsrNumber JSR number
+     * @return {@code CompletableFuture} of the JSR. It is empty if the JSR is
+     * not found, and it fails with {@code JSRServiceException} if the service
+     * could not answer the request.
+     */
+    public CompletableFuture<Optional<JSRResultJSONMapping>> findByNumber(Integer jsrNumber) {
+        LOGGER.log(Level.INFO, entrypoint + "{0}", jsrNumber);
+        Invocation.Builder request = request(Route.NUMBER, client.get().target(entrypoint)
+                .path(String.valueOf(jsrNumber))
+                .request(MediaType.APPLICATION_JSON));
+        return dependencies.hedging(Dependency.JSR_SERVICE).call(
+                () -> send(request, response -> response.readEntity(JSRResultJSONMapping.class)));
+    }
+
+    /**
+     * Get the result of Ambiguous search by keyword.
+     *
+     * @param keyword keyword of the JSR name
+     * @return {@code CompletableFuture} of the JSR list. It is empty if no JSR
+     * is found, and it fails with {@code JSRServiceException} if the service
+     * could not answer the request.
+     */
+    public CompletableFuture<Optional<List<JSRResultJSONMapping>>> searchByName(String keyword) {
+        LOGGER.log(Level.INFO, entrypoint + "search?name={0}", keyword);
+        Invocation.Builder request = request(Route.SEARCH, client.get().target(entrypoint)
+                .path("search")
+                .queryParam("name", keyword)
+                .request(MediaType.APPLICATION_JSON));
+        return invoke(request, response -> response.readEntity(new GenericType<List<JSRResultJSONMapping>>() {}));
+    }
+
+    /**
+     * Get the result of Ambiguous search by keyword without binding all of
+     * the fields.
+     *
+     * The response is read by {@link JSRSearchResultReader}, so only the id
+     * and the name of each JSR are read, and they are mapped while the rest of
+     * the response is still read.
+     *
+     * @param <T> type of the mapped element
+     * @param keyword keyword of the JSR name
+     * @param mapper called for each JSR in the result
+     * @return {@code CompletableFuture} of the mapped JSRs. It is empty if no
+     * JSR is found, and it fails with {@code JSRServiceException} if the
+     * service could not answer the request.
+     */
+    public <T> CompletableFuture<Optional<List<T>>> searchByName(String keyword, Function<JSRSummary, T> mapper) {
+        LOGGER.log(Level.INFO, entrypoint + "search?name={0}", keyword);
+        Invocation.Builder request = request(Route.SEARCH, client.get().target(entrypoint)
+                .path("search")
+                .queryParam("name", keyword)
+                .request(MediaType.APPLICATION_JSON));
+        return invoke(request, response -> {
+            try (InputStream body = response.readEntity(InputStream.class)) {
+                List<T> results = JSRSearchResultReader.read(body, mapper);
+                return results.isEmpty() ? null : results;
+            } catch (IOException e) {
+                throw new JSRServiceException("Could not read the search result of JSR-Confirm-Service", e);
+            }
+        });
+    }
+
+    private Invocation.Builder request(Route route, Invocation.Builder builder) {
+        return builder
+                .accept(MediaType.APPLICATION_JSON)
+                .property(ClientProperties.CONNECT_TIMEOUT, route.connectTimeout)
+                .property(ClientProperties.READ_TIMEOUT, route.readTimeout);
+    }
+
+    private <T> CompletableFuture<Optional<T>> invoke(Invocation.Builder request, Function<Response, T> reader) {
+        return dependencies.get(Dependency.JSR_SERVICE).call(() -> send(request, reader));
+    }
+
+    private <T> CompletableFuture<Optional<T>> send(Invocation.Builder request, Function<Response, T> reader) {
+        CompletableFuture<Optional<T>> future = new CompletableFuture<>();
+        try {
+            request.async().get(new InvocationCallback<Response>() {
+                @Override
+                public void completed(Response response) {
+                    try {
+                        future.complete(read(response, reader));
+                    } catch (RuntimeException e) {
+                        future.completeExceptionally(e);
+                    }
+                }
+
+                @Override
+                public void failed(Throwable throwable) {
+                    future.completeExceptionally(new JSRServiceException("JSR-Confirm-Service is not available", throwable));
+                }
+            });
+        } catch (ProcessingException e) {
+            future.completeExceptionally(new JSRServiceException("JSR-Confirm-Service is not available", e));
+        }
+        return future;
+    }
+
+    private <T> Optional<T> read(Response response, Function<Response, T> reader) {
+        try {
+            if (response.getStatus() == Response.Status.NOT_FOUND.getStatusCode()) {
+                return Optional.empty();
+            }
+            if (!isRequestSuccess(response)) {
+                String error = response.readEntity(String.class);
+                throw new JSRServiceException("JSR-Confirm-Service returned " + response.getStatus() + " : " + error);
+            }
+            return Optional.ofNullable(reader.apply(response));
+        } catch (ProcessingException e) {
+            throw new JSRServiceException("Could not read the response of JSR-Confirm-Service", e);
+        } finally {
+            response.close();
+        }
+    }
+
+    private boolean isRequestSuccess(Response response) {
+        Response.StatusType statusInfo = response.getStatusInfo();
+        Response.Status.Family family = statusInfo.getFamily();
+        return family != null && family == Response.Status.Family.SUCCESSFUL;
+    }
+}
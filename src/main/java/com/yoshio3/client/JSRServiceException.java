@@ -0,0 +1,35 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.client;
+
+/**
+ * It will be thrown when the JSR-Confirm-Service could not answer the request.
+ * (Not only the error response but also the timeout or connection failure.)
+ *
+ * @author Yoshio Terada
+ */
+public class JSRServiceException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public JSRServiceException(String message) {
+        super(message);
+    }
+
+    public JSRServiceException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.client;
+
+import com.yoshio3.JSRResultJSONMapping;
+
+/**
+ * Only the fields of the JSR which are shown in the search result.
+ *
+ * @author Yoshio Terada
+ */
+public class JSRSummary {
+
+    private final Long id;
+    private final String nameOfJsr;
+
+    public JSRSummary(Long id, String nameOfJsr) {
+        this.id = id;
+        this.nameOfJsr = nameOfJsr;
+    }
+
+    /**
+     * @param jsr the JSR
+     * @return the summary of the JSR
+     */
+    public static JSRSummary of(JSRResultJSONMapping jsr) {
+        return new JSRSummary(jsr.getId(), jsr.getNameOfJsr());
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getNameOfJsr() {
+        return nameOfJsr;
+    }
+
+    @Override
+    public String toString() {
+        return "JSRSummary{" + "id=" + id + ", nameOfJsr=" + nameOfJsr + '}';
+    }
+}
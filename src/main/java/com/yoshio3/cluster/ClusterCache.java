@@ -0,0 +1,267 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.cluster;
+
+import com.hazelcast.config.InMemoryFormat;
+import com.hazelcast.config.MapConfig;
+import com.hazelcast.config.NearCacheConfig;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
+import com.yoshio3.concurrent.BotExecutors;
+import com.yoshio3.config.BotConfig;
+import com.yoshio3.metrics.Counter;
+import com.yoshio3.metrics.MetricsRegistry;
+import com.yoshio3.token.IssuedToken;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+
+/**
+ * Cache which is shared by all of the instances of the bot in the cluster.
+ *
+ * It uses the Hazelcast instance which is bundled in Payara Micro (looked up
+ * by JNDI "payara/Hazelcast"). The maps except the tokens have the near
+ * cache, so the entries which were read once are read locally until they are
+ * changed. The JSR details and the translations are shared, so only one
+ * instance calls the remote service for them.
+ *
+ * The cluster is opt-in: it is used only if "cluster.enabled" is true. If it
+ * is false (the default) or Hazelcast is not available, all of the reads miss
+ * and the writes are ignored, so each instance works alone. The failures of
+ * the cluster are also treated as the miss.
+ *
+ * The access tokens of the Bot Framework and the Translator are shared only
+ * if "cluster.shareTokens" is also true. They are credentials, and the
+ * entries of the map are stored in plain form on every member and can be
+ * read by any process which joins the cluster. Payara Micro joins the cluster
+ * by multicast with the default group by default, so enable it only on an
+ * isolated network, and set the group name and password (and TLS if the
+ * network is shared) of Payara Micro.
+ *
+ * Several instances can be run on one machine, and they join the same
+ * cluster by the default discovery of Payara Micro:
+ *
+ * <pre>
+ * java -Dcluster.enabled=true -jar target/java-jsr-bot-MSA-1.0-SNAPSHOT.jar --autoBindHttp
+ * java -Dcluster.enabled=true -jar target/java-jsr-bot-MSA-1.0-SNAPSHOT.jar --autoBindHttp
+ * </pre>
+ *
+ * @author Yoshio Terada
+ */
+@ApplicationScoped
+public class ClusterCache {
+
+    private final static Logger LOGGER = Logger.getLogger(ClusterCache.class.getName());
+
+    public final static String JSR_DETAILS = "jsr-details";
+    public final static String TRANSLATIONS = "translations";
+    public final static String TOKENS = "tokens";
+
+    private final static String[] MAPS = {JSR_DETAILS, TRANSLATIONS, TOKENS};
+    // The tokens are read remotely, so the token which was invalidated by the
+    // other member is never read from the stale near cache.
+    private final static String[] NEAR_CACHED_MAPS = {JSR_DETAILS, TRANSLATIONS};
+
+    @Inject
+    BotExecutors executors;
+
+    @Inject
+    MetricsRegistry metrics;
+
+    private HazelcastInstance hazelcast;
+    private boolean shareTokens;
+    private final Map<String, Counter> hits = new HashMap<>();
+    private final Map<String, Counter> misses = new HashMap<>();
+
+    @PostConstruct
+    void init() {
+        HazelcastInstance instance = null;
+        if (BotConfig.getBoolean("cluster.enabled", false)) {
+            instance = lookup(BotConfig.get("cluster.hazelcast.jndi", "payara/Hazelcast"));
+        }
+        start(instance);
+    }
+
+    // Package-private for the tests, which use the embedded members.
+    void start(HazelcastInstance instance) {
+        hazelcast = instance;
+        shareTokens = BotConfig.getBoolean("cluster.shareTokens", false);
+        if (hazelcast != null) {
+            configureNearCaches();
+        }
+        for (String map : MAPS) {
+            hits.put(map, metrics.counter("cluster_cache_hits_total", "map", map));
+            misses.put(map, metrics.counter("cluster_cache_misses_total", "map", map));
+            metrics.counter("cluster_near_cache_hits_total", () -> nearCacheHits(map), "map", map);
+        }
+        metrics.gauge("cluster_members", () -> hazelcast == null ? 0 : hazelcast.getCluster().getMembers().size());
+    }
+
+    /**
+     * @return true if the cache is shared with the other instances
+     */
+    public boolean isEnabled() {
+        return hazelcast != null;
+    }
+
+    /**
+     * Get the value from the cluster on the executor of the blocking calls.
+     * The value in the near cache is returned without the remote call.
+     *
+     * @param <V> type of the value
+     * @param mapName name of the map
+     * @param key the key
+     * @return {@code CompletableFuture} of the value. It is empty if the
+     * value is not in the cluster or the cluster is not available.
+     */
+    public <V extends Serializable> CompletableFuture<Optional<V>> get(String mapName, String key) {
+        if (hazelcast == null) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                IMap<String, V> map = hazelcast.getMap(mapName);
+                Optional<V> value = Optional.ofNullable(map.get(key));
+                (value.isPresent() ? hits : misses).get(mapName).increment();
+                return value;
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Could not read " + key + " from the cluster", e);
+                return Optional.<V>empty();
+            }
+        }, executors.blocking());
+    }
+
+    /**
+     * Put the value to the cluster. It doesn't wait for the cluster.
+     *
+     * @param mapName name of the map
+     * @param key the key
+     * @param value the value
+     * @param ttlMillis how long the value is kept
+     */
+    public void put(String mapName, String key, Serializable value, long ttlMillis) {
+        if (hazelcast == null) {
+            return;
+        }
+        try {
+            hazelcast.<String, Serializable>getMap(mapName).putAsync(key, value, ttlMillis, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Could not write " + key + " to the cluster", e);
+        }
+    }
+
+    /**
+     * Remove the value from the cluster. It doesn't wait for the cluster.
+     *
+     * @param mapName name of the map
+     * @param key the key
+     */
+    public void remove(String mapName, String key) {
+        if (hazelcast == null) {
+            return;
+        }
+        try {
+            hazelcast.getMap(mapName).removeAsync(key);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Could not remove " + key + " from the cluster", e);
+        }
+    }
+
+    /**
+     * Remove all of the values of the map from the cluster.
+     *
+     * @param mapName name of the map
+     */
+    public void clear(String mapName) {
+        if (hazelcast == null) {
+            return;
+        }
+        try {
+            hazelcast.getMap(mapName).clear();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Could not clear " + mapName + " in the cluster", e);
+        }
+    }
+
+    /**
+     * Create the source of the access token which is shared in the cluster.
+     * If the cluster is not available or "cluster.shareTokens" is false, the
+     * token is fetched by this instance.
+     *
+     * @param name name of the token
+     * @param tokenSource fetch the new token from the remote service
+     * @param validityMillis how long the token is valid
+     * @param refreshAheadMillis how long before the expiration the token is
+     * refreshed
+     * @return the source of the token
+     */
+    public SharedTokenSource sharedToken(String name, Supplier<Optional<String>> tokenSource,
+            long validityMillis, long refreshAheadMillis) {
+        IMap<String, IssuedToken> tokens = hazelcast == null || !shareTokens ? null : hazelcast.getMap(TOKENS);
+        return new SharedTokenSource(name, tokenSource, tokens, validityMillis, refreshAheadMillis,
+                BotConfig.getLong("cluster.token.lockWait", 5_000));
+    }
+
+    private void configureNearCaches() {
+        int ttl = BotConfig.getInt("cluster.nearCache.ttlSeconds", 10 * 60);
+        try {
+            for (String map : NEAR_CACHED_MAPS) {
+                // The near cache is local to each member, so it takes effect
+                // for the maps created after this.
+                hazelcast.getConfig().addMapConfig(new MapConfig(map)
+                        .setNearCacheConfig(new NearCacheConfig(map)
+                                .setInMemoryFormat(InMemoryFormat.OBJECT)
+                                .setInvalidateOnChange(true)
+                                .setTimeToLiveSeconds(ttl)));
+            }
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Could not configure the near cache, the cluster is read remotely", e);
+        }
+    }
+
+    private long nearCacheHits(String map) {
+        if (hazelcast == null) {
+            return 0;
+        }
+        try {
+            return hazelcast.getMap(map).getLocalMapStats().getNearCacheStats().getHits();
+        } catch (RuntimeException e) {
+            return 0;
+        }
+    }
+
+    private static HazelcastInstance lookup(String jndiName) {
+        try {
+            HazelcastInstance instance = (HazelcastInstance) new InitialContext().lookup(jndiName);
+            LOGGER.log(Level.INFO, "Cluster cache is enabled : {0}", jndiName);
+            return instance;
+        } catch (NamingException | ClassCastException e) {
+            LOGGER.log(Level.INFO, "Hazelcast is not available, cluster cache is disabled : {0}", e.toString());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.cluster;
+
+import com.hazelcast.core.IMap;
+import com.yoshio3.token.IssuedToken;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Source of the access token which is shared in the cluster.
+ *
+ * The token in the cluster is used while it is fresh. Only the instance which
+ * got the lock of the token fetches the new one, and the other instances wait
+ * for it and use it (single writer). If the lock could not be got in time,
+ * the token is fetched by this instance.
+ *
+ * @author Yoshio Terada
+ */
+public class SharedTokenSource implements Supplier<Optional<IssuedToken>> {
+
+    private final static Logger LOGGER = Logger.getLogger(SharedTokenSource.class.getName());
+
+    private final String name;
+    private final Supplier<Optional<String>> tokenSource;
+    private final IMap<String, IssuedToken> tokens;
+    private final long validityMillis;
+    private final long refreshAheadMillis;
+    private final long lockWaitMillis;
+
+    SharedTokenSource(String name, Supplier<Optional<String>> tokenSource, IMap<String, IssuedToken> tokens,
+            long validityMillis, long refreshAheadMillis, long lockWaitMillis) {
+        this.name = name;
+        this.tokenSource = tokenSource;
+        this.tokens = tokens;
+        this.validityMillis = validityMillis;
+        this.refreshAheadMillis = Math.min(refreshAheadMillis, validityMillis / 2);
+        this.lockWaitMillis = lockWaitMillis;
+    }
+
+    @Override
+    public Optional<IssuedToken> get() {
+        if (tokens == null) {
+            return fetch();
+        }
+        try {
+            IssuedToken shared = tokens.get(name);
+            if (isFresh(shared)) {
+                return Optional.of(shared);
+            }
+            if (!tokens.tryLock(name, lockWaitMillis, TimeUnit.MILLISECONDS)) {
+                LOGGER.log(Level.WARNING, "Could not lock the token of {0}, fetch it locally", name);
+                return fetch();
+            }
+            try {
+                shared = tokens.get(name);
+                if (isFresh(shared)) {
+                    return Optional.of(shared);
+                }
+                Optional<IssuedToken> fetched = fetch();
+                fetched.ifPresent(token -> tokens.put(name, token, validityMillis, TimeUnit.MILLISECONDS));
+                return fetched;
+            } finally {
+                tokens.unlock(name);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Optional.empty();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Could not use the shared token of " + name + ", fetch it locally", e);
+            return fetch();
+        }
+    }
+
+    /**
+     * Remove the token which was rejected by the service from the cluster, so
+     * the next {@link #get()} fetches the new one.
+     *
+     * @param rejectedToken the token which was rejected
+     */
+    public void invalidate(String rejectedToken) {
+        if (tokens == null) {
+            return;
+        }
+        try {
+            IssuedToken shared = tokens.get(name);
+            if (shared != null && shared.getValue().equals(rejectedToken)) {
+                tokens.remove(name, shared);
+            }
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Could not invalidate the shared token of " + name, e);
+        }
+    }
+
+    private boolean isFresh(IssuedToken token) {
+        return token != null
+                && System.currentTimeMillis() < token.getIssuedAt() + validityMillis - refreshAheadMillis;
+    }
+
+    private Optional<IssuedToken> fetch() {
+        return tokenSource.get().map(IssuedToken::now);
+    }
+}
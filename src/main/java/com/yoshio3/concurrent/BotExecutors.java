@@ -0,0 +1,141 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.concurrent;
+
+import com.yoshio3.config.BotConfig;
+import com.yoshio3.metrics.MetricsRegistry;
+import java.lang.reflect.Method;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+/**
+ * Executor of the blocking calls to the remote services.
+ *
+ * By default the calls run on the {@code ManagedExecutorService} of the
+ * container, and its pool size limits the number of the conversations which
+ * wait for the remote services at the same time. If "bot.executor.mode" is
+ * "virtual" and the JDK supports the virtual threads (Java 21 or later), each
+ * call runs on its own virtual thread instead, so the blocking code stays as
+ * it is without the limit of the pool. The virtual thread executor is created
+ * by the reflection, so the application is still built for Java 8.
+ *
+ * Note that the virtual threads don't have the context of the container
+ * (e.g. JNDI), so only the calls which don't need it must be run on this
+ * executor.
+ *
+ * @author Yoshio Terada
+ */
+@ApplicationScoped
+public class BotExecutors {
+
+    private final static Logger LOGGER = Logger.getLogger(BotExecutors.class.getName());
+
+    /**
+     * Execution mode of the blocking calls.
+     */
+    public enum Mode {
+        MANAGED,
+        VIRTUAL
+    }
+
+    @Resource
+    ManagedExecutorService managedExecutor;
+
+    @Inject
+    MetricsRegistry metrics;
+
+    private Mode mode;
+    private ExecutorService virtualExecutor;
+
+    @PostConstruct
+    void init() {
+        mode = modeOf(BotConfig.get("bot.executor.mode", "managed"));
+        if (mode == Mode.VIRTUAL) {
+            Optional<ExecutorService> created = newVirtualThreadPerTaskExecutor();
+            if (created.isPresent()) {
+                virtualExecutor = created.get();
+            } else {
+                LOGGER.log(Level.WARNING, "Virtual threads are not supported by Java {0}, use the managed executor",
+                        System.getProperty("java.version"));
+                mode = Mode.MANAGED;
+            }
+        }
+        LOGGER.log(Level.INFO, "Executor mode of the blocking calls : {0}", mode);
+        metrics.gauge("bot_executor_virtual", () -> mode == Mode.VIRTUAL ? 1 : 0);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (virtualExecutor != null) {
+            virtualExecutor.shutdown();
+        }
+    }
+
+    /**
+     * @return the executor of the blocking calls
+     */
+    public Executor blocking() {
+        return mode == Mode.VIRTUAL ? virtualExecutor : managedExecutor;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Parse "bot.executor.mode". The unknown mode must not fail the
+     * deployment, so the managed executor is used instead.
+     *
+     * @param value the configured mode
+     * @return the mode, or {@code MANAGED} if the value is unknown
+     */
+    static Mode modeOf(String value) {
+        try {
+            return Mode.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            LOGGER.log(Level.WARNING, "Unknown bot.executor.mode {0}, use the managed executor", value);
+            return Mode.MANAGED;
+        }
+    }
+
+    /**
+     * Create {@code Executors.newVirtualThreadPerTaskExecutor()} if the JDK
+     * has it.
+     *
+     * @return {@code Optional} of the executor. It is empty on the JDK
+     * without the virtual threads.
+     */
+    static Optional<ExecutorService> newVirtualThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return Optional.of((ExecutorService) factory.invoke(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.log(Level.FINE, "Could not create the virtual thread executor", e);
+            return Optional.empty();
+        }
+    }
+}
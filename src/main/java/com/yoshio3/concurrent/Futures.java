@@ -0,0 +1,97 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.concurrent;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Utility for {@code CompletableFuture}.
+ *
+ * @author Yoshio Terada
+ */
+public final class Futures {
+
+    private Futures() {
+    }
+
+    /**
+     * Create the future which is completed exceptionally.
+     *
+     * @param <T> type of the value
+     * @param error the cause of the failure
+     * @return failed {@code CompletableFuture}
+     */
+    public static <T> CompletableFuture<T> failed(Throwable error) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(error);
+        return future;
+    }
+
+    /**
+     * Limit the time to wait for the future.
+     *
+     * If the future is not completed in time, the returned future fails with
+     * {@code TimeoutException}. The original future is not cancelled, so the
+     * other waiters (e.g. of the cache) still get the result.
+     *
+     * @param <T> type of the value
+     * @param future the future to wait for
+     * @param timeoutMillis timeout in milliseconds
+     * @param scheduler scheduler of the timeout
+     * @param stage name of the stage (for the error message)
+     * @return {@code CompletableFuture} which is completed within the timeout
+     */
+    public static <T> CompletableFuture<T> within(CompletableFuture<T> future, long timeoutMillis,
+            ScheduledExecutorService scheduler, String stage) {
+        if (future.isDone()) {
+            return future;
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        ScheduledFuture<?> timeout = scheduler.schedule(
+                () -> result.completeExceptionally(new TimeoutException(stage + " timed out after " + timeoutMillis + "ms")),
+                timeoutMillis, TimeUnit.MILLISECONDS);
+        future.whenComplete((value, error) -> {
+            timeout.cancel(false);
+            if (error == null) {
+                result.complete(value);
+            } else {
+                result.completeExceptionally(error);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Get the original cause from the wrapped exception.
+     *
+     * @param error exception from the future
+     * @return the cause of the failure
+     */
+    public static Throwable unwrap(Throwable error) {
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException)
+                && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.concurrent;
+
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * The value which is created on the first use.
+ *
+ * It is used for the clients of the remote services, because creating them
+ * (e.g. the Jersey client runtime) takes time. The startup doesn't wait for
+ * them, and the prewarm creates them in the background before the first
+ * message.
+ *
+ * @param <T> type of the value
+ * @author Yoshio Terada
+ */
+public final class Lazy<T> implements Supplier<T> {
+
+    private final Supplier<? extends T> factory;
+    private volatile T value;
+
+    private Lazy(Supplier<? extends T> factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * @param <T> type of the value
+     * @param factory creates the value. It is called only once.
+     * @return the value which is not created yet
+     */
+    public static <T> Lazy<T> of(Supplier<? extends T> factory) {
+        return new Lazy<>(Objects.requireNonNull(factory));
+    }
+
+    @Override
+    public T get() {
+        T result = value;
+        if (result == null) {
+            synchronized (this) {
+                result = value;
+                if (result == null) {
+                    result = Objects.requireNonNull(factory.get());
+                    value = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return true if the value was already created
+     */
+    public boolean isCreated() {
+        return value != null;
+    }
+
+    /**
+     * Call the action only if the value was already created (e.g. to close
+     * it), without creating the value.
+     *
+     * @param action the action for the value
+     */
+    public void ifCreated(Consumer<? super T> action) {
+        T result = value;
+        if (result != null) {
+            action.accept(result);
+        }
+    }
+}
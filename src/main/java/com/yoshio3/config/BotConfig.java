@@ -0,0 +1,70 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.config;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Configuration lookup for the bot.
+ *
+ * A value is read from the system property first (e.g. -Djsr.client.pool.maxTotal=50),
+ * and then from the environment variable which has the same name in upper case
+ * with "." replaced by "_" (e.g. JSR_CLIENT_POOL_MAXTOTAL=50). If neither is
+ * set, the default value is used.
+ *
+ * @author Yoshio Terada
+ */
+public final class BotConfig {
+
+    private final static Logger LOGGER = Logger.getLogger(BotConfig.class.getName());
+
+    private BotConfig() {
+    }
+
+    public static String get(String key, String defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null) {
+            value = System.getenv(key.toUpperCase().replace('.', '_'));
+        }
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        return value.trim();
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        return (int) getLong(key, defaultValue);
+    }
+
+    public static long getLong(String key, long defaultValue) {
+        String value = get(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            LOGGER.log(Level.WARNING, "Invalid number for {0} : {1}", new Object[]{key, value});
+            return defaultValue;
+        }
+    }
+
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = get(key, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+}
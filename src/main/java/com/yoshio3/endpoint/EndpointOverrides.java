@@ -0,0 +1,259 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.endpoint;
+
+import com.yoshio3.concurrent.Lazy;
+import com.yoshio3.config.BotConfig;
+import com.yoshio3.rest.entities.luis.ResponseFromLUIS;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.Form;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.glassfish.jersey.apache.connector.ApacheClientProperties;
+import org.glassfish.jersey.apache.connector.ApacheConnectorProvider;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.jackson.JacksonFeature;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * HTTP clients of LUIS, the Translator and the Bot Framework which are used
+ * instead of Bot-Luis-Translator-Util if the endpoint is configured.
+ *
+ * The endpoints of the library are fixed to the Azure services, so the bot
+ * can't be pointed to the local stubs (e.g. of the load test) by the library.
+ * If the following endpoint is configured, the service is called by this
+ * class instead:
+ *
+ * <ul>
+ * <li>endpoint.luis : GET {endpoint}?q={text}, the response of LUIS</li>
+ * <li>endpoint.translator : POST {endpoint}/issueToken for the token, and
+ * GET {endpoint}/Translate?text={text}&amp;to=ja for the translation</li>
+ * <li>endpoint.botFramework : POST {endpoint}/token for the token (OAuth
+ * response)</li>
+ * </ul>
+ *
+ * The replies are always sent by {@code BotConnectorClient} to the service
+ * URL of the message, so the stubs receive them if the service URL of the
+ * messages points to them.
+ *
+ * The endpoint of the JSR-Confirm-Service is "endpoint.jsr" (see
+ * {@code JSRServiceClient}). The connections are pooled and kept alive.
+ *
+ * Note that these clients are not the production clients. They send the same
+ * requests as the library, but the HTTP client, the connection handling and
+ * the parsing of the responses are different, so the load test which uses
+ * the overrides measures this class instead of the library for these calls.
+ * The rest of the bot (the queues, the caches, the resilience, the JSR
+ * client and the reply client) is the production code. The library doesn't
+ * expose the endpoints, so it can't be pointed to the stubs.
+ *
+ * @author Yoshio Terada
+ */
+@ApplicationScoped
+public class EndpointOverrides {
+
+    private final static Logger LOGGER = Logger.getLogger(EndpointOverrides.class.getName());
+
+    private String luisEndpoint;
+    private String translatorEndpoint;
+    private String botFrameworkEndpoint;
+    private Lazy<Client> client;
+
+    @PostConstruct
+    void init() {
+        luisEndpoint = BotConfig.get("endpoint.luis", null);
+        translatorEndpoint = BotConfig.get("endpoint.translator", null);
+        botFrameworkEndpoint = BotConfig.get("endpoint.botFramework", null);
+        if (hasLUIS() || hasTranslator() || hasBotFramework()) {
+            client = Lazy.of(this::createClient);
+            LOGGER.log(Level.INFO, "Endpoint overrides : luis={0}, translator={1}, botFramework={2}",
+                    new Object[]{luisEndpoint, translatorEndpoint, botFrameworkEndpoint});
+        }
+    }
+
+    private Client createClient() {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(
+                BotConfig.getLong("endpoint.pool.keepAlive", 60_000), TimeUnit.MILLISECONDS);
+        connectionManager.setMaxTotal(BotConfig.getInt("endpoint.pool.maxTotal", 100));
+        connectionManager.setDefaultMaxPerRoute(BotConfig.getInt("endpoint.pool.maxPerRoute", 50));
+        ClientConfig clientConfig = new ClientConfig()
+                .connectorProvider(new ApacheConnectorProvider())
+                .property(ApacheClientProperties.CONNECTION_MANAGER, connectionManager)
+                .property(ClientProperties.CONNECT_TIMEOUT, BotConfig.getInt("endpoint.connectTimeout", 2_000))
+                .property(ClientProperties.READ_TIMEOUT, BotConfig.getInt("endpoint.readTimeout", 10_000))
+                .register(JacksonFeature.class);
+        return ClientBuilder.newClient(clientConfig);
+    }
+
+    @PreDestroy
+    void close() {
+        if (client != null) {
+            client.ifCreated(Client::close);
+        }
+    }
+
+    /**
+     * Create the client before the first call if any endpoint is configured.
+     */
+    public void prewarm() {
+        if (client != null) {
+            client.get();
+        }
+    }
+
+    public boolean hasLUIS() {
+        return luisEndpoint != null;
+    }
+
+    public boolean hasTranslator() {
+        return translatorEndpoint != null;
+    }
+
+    public boolean hasBotFramework() {
+        return botFrameworkEndpoint != null;
+    }
+
+    /**
+     * Same as {@code LUISService#getResponseFromLUIS(String)}.
+     *
+     * @param text inputed message from User.
+     * @return {@code Optional} of the response. It is empty if LUIS could not
+     * answer.
+     */
+    public Optional<ResponseFromLUIS> getResponseFromLUIS(String text) {
+        try {
+            Response response = client.get().target(luisEndpoint)
+                    .queryParam("q", text)
+                    .request(MediaType.APPLICATION_JSON)
+                    .get();
+            try {
+                if (response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL) {
+                    LOGGER.log(Level.WARNING, "LUIS returned {0}", response.getStatus());
+                    return Optional.empty();
+                }
+                return Optional.ofNullable(response.readEntity(ResponseFromLUIS.class));
+            } finally {
+                response.close();
+            }
+        } catch (ProcessingException e) {
+            LOGGER.log(Level.WARNING, "Could not call LUIS", e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Same as {@code TranslatorTextServices#getAccessTokenForTranslator()}.
+     *
+     * @return {@code Optional} of the access token
+     */
+    public Optional<String> getAccessTokenForTranslator() {
+        try {
+            return Optional.ofNullable(client.get().target(translatorEndpoint).path("issueToken")
+                    .request(MediaType.TEXT_PLAIN)
+                    .post(Entity.text(""), String.class));
+        } catch (WebApplicationException | ProcessingException e) {
+            LOGGER.log(Level.WARNING, "Could not get the access token of the Translator", e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Same as {@code TranslatorTextServices#translateEnglish(String, String)}.
+     *
+     * @param text English text
+     * @param token access token of the Translator
+     * @return translated text, or null if it could not be translated
+     */
+    public String translateEnglish(String text, String token) {
+        try {
+            String xml = client.get().target(translatorEndpoint).path("Translate")
+                    .queryParam("text", text)
+                    .queryParam("from", "en")
+                    .queryParam("to", "ja")
+                    .request(MediaType.APPLICATION_XML)
+                    .header("Authorization", "Bearer " + token)
+                    .get(String.class);
+            return textOf(xml);
+        } catch (WebApplicationException | ProcessingException e) {
+            LOGGER.log(Level.WARNING, "Could not translate the text", e);
+            return null;
+        } catch (ParserConfigurationException | SAXException | IOException e) {
+            LOGGER.log(Level.WARNING, "Could not read the translation", e);
+            return null;
+        }
+    }
+
+    /**
+     * Read the text of the response of the Translator, e.g.
+     * {@code <string xmlns="...">translated &amp;lt;text&amp;gt;</string>}.
+     * The entities are unescaped by the XML parser. The DTD is not allowed,
+     * so the response can't refer to the external entities.
+     */
+    static String textOf(String xml) throws ParserConfigurationException, SAXException, IOException {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+        factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        factory.setXIncludeAware(false);
+        factory.setExpandEntityReferences(false);
+        factory.setNamespaceAware(true);
+        DocumentBuilder builder = factory.newDocumentBuilder();
+        return builder.parse(new InputSource(new StringReader(xml))).getDocumentElement().getTextContent();
+    }
+
+    /**
+     * Same as {@code AccessTokenForBotService#getAccesToken()}.
+     *
+     * @return the access token, or null if it could not be got
+     */
+    public String getBotAccessToken() {
+        try {
+            Form form = new Form()
+                    .param("grant_type", "client_credentials")
+                    .param("client_id", BotConfig.get("bot.appId", "stub"))
+                    .param("client_secret", BotConfig.get("bot.appPassword", "stub"))
+                    .param("scope", "https://api.botframework.com/.default");
+            Map<?, ?> token = client.get().target(botFrameworkEndpoint).path("token")
+                    .request(MediaType.APPLICATION_JSON)
+                    .post(Entity.form(form), Map.class);
+            Object accessToken = token.get("access_token");
+            return accessToken == null ? null : accessToken.toString();
+        } catch (WebApplicationException | ProcessingException e) {
+            LOGGER.log(Level.WARNING, "Could not get the access token of the Bot Framework", e);
+            return null;
+        }
+    }
+}
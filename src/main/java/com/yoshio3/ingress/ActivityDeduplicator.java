@@ -0,0 +1,126 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.ingress;
+
+import com.yoshio3.config.BotConfig;
+import com.yoshio3.metrics.Counter;
+import com.yoshio3.metrics.MetricsRegistry;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+/**
+ * Detect the activities which are redelivered by the Bot Framework.
+ *
+ * The Bot Framework retries the POST if the response is slow, with the same
+ * activity ID. The IDs which were seen in the window are kept in the order of
+ * arrival, so the expired IDs are removed from the head. The number of the
+ * IDs is also bounded, and the oldest ID is removed if it is over.
+ *
+ * @author Yoshio Terada
+ */
+@ApplicationScoped
+public class ActivityDeduplicator {
+
+    @Inject
+    MetricsRegistry metrics;
+
+    private long windowMillis;
+    private int maxSize;
+    private LongSupplier clock;
+
+    // Activity ID -> the time when it was seen first, in the order of arrival.
+    private final LinkedHashMap<String, Long> seen = new LinkedHashMap<>();
+
+    private Counter duplicates;
+    private Counter evicted;
+
+    @PostConstruct
+    void init() {
+        configure(BotConfig.getLong("ingress.dedup.window", 10 * 60 * 1000L),
+                BotConfig.getInt("ingress.dedup.maxSize", 100_000),
+                System::currentTimeMillis);
+    }
+
+    // Package-private for the tests, which use the fake clock.
+    void configure(long windowMillis, int maxSize, LongSupplier clock) {
+        this.windowMillis = windowMillis;
+        this.maxSize = maxSize;
+        this.clock = clock;
+
+        duplicates = metrics.counter("ingress_duplicates_dropped_total");
+        evicted = metrics.counter("ingress_dedup_evictions_total");
+        metrics.gauge("ingress_dedup_size", this::size);
+    }
+
+    /**
+     * Record the activity.
+     *
+     * @param activityId ID of the activity
+     * @return true if the activity is seen first in the window, false if it
+     * is the redelivery
+     */
+    public boolean firstSeen(String activityId) {
+        long now = clock.getAsLong();
+        synchronized (seen) {
+            expire(now);
+            if (seen.containsKey(activityId)) {
+                duplicates.increment();
+                return false;
+            }
+            seen.put(activityId, now);
+            if (seen.size() > maxSize) {
+                Iterator<String> oldest = seen.keySet().iterator();
+                oldest.next();
+                oldest.remove();
+                evicted.increment();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Forget the activity which was not accepted (e.g. rejected by the full
+     * queue), so the redelivery of it is handled.
+     *
+     * @param activityId ID of the activity
+     */
+    public void forget(String activityId) {
+        synchronized (seen) {
+            seen.remove(activityId);
+        }
+    }
+
+    /**
+     * @return the number of the activity IDs in the window
+     */
+    public int size() {
+        synchronized (seen) {
+            return seen.size();
+        }
+    }
+
+    private void expire(long now) {
+        Iterator<Map.Entry<String, Long>> entries = seen.entrySet().iterator();
+        while (entries.hasNext() && now - entries.next().getValue() >= windowMillis) {
+            entries.remove();
+        }
+    }
+}
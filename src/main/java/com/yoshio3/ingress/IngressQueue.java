@@ -0,0 +1,224 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.ingress;
+
+import com.yoshio3.concurrent.BotExecutors;
+import com.yoshio3.config.BotConfig;
+import com.yoshio3.metrics.Counter;
+import com.yoshio3.metrics.Histogram;
+import com.yoshio3.metrics.MetricsRegistry;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+/**
+ * Bounded work queue of the incoming messages.
+ *
+ * The messages of the same conversation are handled one by one in the order
+ * of arrival, and the number of the messages which are handled at the same
+ * time is limited. If the queue is full, the new message is rejected, so the
+ * caller can answer "503 Service Unavailable" instead of accepting the work
+ * which can't be finished in time.
+ *
+ * Each work is started on {@code BotExecutors#blocking()}, so neither the
+ * request thread nor the thread which completed the previous work of the
+ * conversation runs the next one. The message which waited longer than
+ * "ingress.queue.maxWait" is dropped. It has already been accepted with
+ * "202 Accepted", so it is counted by "ingress_expired_total" separately
+ * from the rejected messages.
+ *
+ * @author Yoshio Terada
+ */
+@ApplicationScoped
+public class IngressQueue {
+
+    private final static Logger LOGGER = Logger.getLogger(IngressQueue.class.getName());
+
+    @Inject
+    MetricsRegistry metrics;
+
+    @Inject
+    BotExecutors executors;
+
+    private int capacity;
+    private int maxConcurrency;
+    private long maxWaitMillis;
+    private Executor executor;
+
+    private final Object lock = new Object();
+    private final Map<String, Deque<Task>> pending = new HashMap<>();
+    private final Deque<String> ready = new ArrayDeque<>();
+    private final Set<String> active = new HashSet<>();
+    private int queued;
+    private int running;
+
+    private Counter accepted;
+    private Counter rejected;
+    private Counter expired;
+    private Counter dequeued;
+    private Histogram waitTime;
+
+    @PostConstruct
+    void init() {
+        configure(BotConfig.getInt("ingress.queue.capacity", 1_000),
+                BotConfig.getInt("ingress.maxConcurrency", 64),
+                BotConfig.getLong("ingress.queue.maxWait", 30_000),
+                executors.blocking());
+    }
+
+    // Package-private for the tests.
+    void configure(int capacity, int maxConcurrency, long maxWaitMillis, Executor executor) {
+        this.capacity = capacity;
+        this.maxConcurrency = maxConcurrency;
+        this.maxWaitMillis = maxWaitMillis;
+        this.executor = executor;
+
+        accepted = metrics.counter("ingress_accepted_total");
+        rejected = metrics.counter("ingress_rejected_total");
+        expired = metrics.counter("ingress_expired_total");
+        dequeued = metrics.counter("ingress_dequeued_total");
+        waitTime = metrics.histogram("ingress_wait_seconds");
+        metrics.gauge("ingress_queue_depth", this::getQueued);
+        metrics.gauge("ingress_running", this::getRunning);
+    }
+
+    /**
+     * Put the work into the queue.
+     *
+     * @param conversationId the works which have the same ID are handled in
+     * order
+     * @param work the work which returns {@code CompletionStage}. The next
+     * work of the conversation starts after it is completed.
+     * @return false if the queue is full and the work is rejected
+     */
+    public boolean offer(String conversationId, Supplier<? extends CompletionStage<?>> work) {
+        List<Task> toStart;
+        synchronized (lock) {
+            if (queued >= capacity) {
+                rejected.increment();
+                return false;
+            }
+            Deque<Task> tasks = pending.computeIfAbsent(conversationId, key -> new ArrayDeque<>());
+            tasks.add(new Task(conversationId, work));
+            queued++;
+            accepted.increment();
+            if (tasks.size() == 1 && !active.contains(conversationId)) {
+                ready.add(conversationId);
+            }
+            toStart = drain();
+        }
+        toStart.forEach(this::dispatch);
+        return true;
+    }
+
+    public int getQueued() {
+        synchronized (lock) {
+            return queued;
+        }
+    }
+
+    public int getRunning() {
+        synchronized (lock) {
+            return running;
+        }
+    }
+
+    // Must be called with the lock.
+    private List<Task> drain() {
+        List<Task> toStart = new ArrayList<>();
+        while (running < maxConcurrency && !ready.isEmpty()) {
+            String conversationId = ready.poll();
+            Deque<Task> tasks = pending.get(conversationId);
+            Task task = tasks.poll();
+            if (tasks.isEmpty()) {
+                pending.remove(conversationId);
+            }
+            queued--;
+            running++;
+            active.add(conversationId);
+            toStart.add(task);
+        }
+        return toStart;
+    }
+
+    private void start(Task task) {
+        long waitedNanos = System.nanoTime() - task.enqueuedAt;
+        long waited = TimeUnit.NANOSECONDS.toMillis(waitedNanos);
+        dequeued.increment();
+        waitTime.record(TimeUnit.NANOSECONDS.toMicros(waitedNanos));
+        if (waited > maxWaitMillis) {
+            expired.increment();
+            LOGGER.log(Level.WARNING, "Drop the accepted message which waited {0}ms in the queue", waited);
+            complete(task);
+            return;
+        }
+        try {
+            task.work.get().whenComplete((result, error) -> complete(task));
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Could not start the work", e);
+            complete(task);
+        }
+    }
+
+    private void complete(Task task) {
+        List<Task> toStart;
+        synchronized (lock) {
+            running--;
+            active.remove(task.conversationId);
+            if (pending.containsKey(task.conversationId)) {
+                ready.add(task.conversationId);
+            }
+            toStart = drain();
+        }
+        toStart.forEach(this::dispatch);
+    }
+
+    private void dispatch(Task task) {
+        try {
+            executor.execute(() -> start(task));
+        } catch (RejectedExecutionException e) {
+            LOGGER.log(Level.SEVERE, "Could not start the work", e);
+            complete(task);
+        }
+    }
+
+    private static class Task {
+
+        private final String conversationId;
+        private final Supplier<? extends CompletionStage<?>> work;
+        private final long enqueuedAt = System.nanoTime();
+
+        Task(String conversationId, Supplier<? extends CompletionStage<?>> work) {
+            this.conversationId = conversationId;
+            this.work = work;
+        }
+    }
+}
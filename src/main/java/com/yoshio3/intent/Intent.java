@@ -0,0 +1,53 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.intent;
+
+import java.util.Arrays;
+
+/**
+ * Intents of the user which this bot can handle. The label is the name of the
+ * intent in LUIS.
+ *
+ * @author Yoshio Terada
+ */
+public enum Intent {
+
+    JSR_DETAIL("JSR 番号の詳細"),
+    AMBIGUOUS_SEARCH("JSRあいまい検索"),
+    TRANSLATE("JSR-Translate"),
+    NONE("None");
+
+    private final String label;
+
+    Intent(String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * @param label name of the intent in LUIS
+     * @return {@code Intent} of the label. {@code NONE} if it is unknown.
+     */
+    public static Intent fromLabel(String label) {
+        return Arrays.stream(values())
+                .filter(intent -> intent.label.equals(label))
+                .findFirst()
+                .orElse(NONE);
+    }
+}
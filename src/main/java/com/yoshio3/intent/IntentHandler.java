@@ -0,0 +1,65 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.intent;
+
+/**
+ * Handlers of the recognized intents.
+ *
+ * {@link #dispatch(Object, RecognizedIntent)} chooses the handler from the
+ * intent, so the same dispatch is used by {@code BotMessageReceiver} and the
+ * benchmarks.
+ *
+ * @param <C> type of the context of the message (e.g. the request message)
+ * @param <R> type of the result of the handler
+ * @author Yoshio Terada
+ */
+public interface IntentHandler<C, R> {
+
+    R onJSRDetail(C context, RecognizedIntent intent);
+
+    R onAmbiguousSearch(C context, RecognizedIntent intent);
+
+    R onTranslate(C context, RecognizedIntent intent);
+
+    /**
+     * Handle the message which has no intent this bot can handle.
+     *
+     * @param context context of the message
+     * @param intent the intent of the message
+     * @return result of the handler
+     */
+    R onNothing(C context, RecognizedIntent intent);
+
+    /**
+     * Call the handler of the intent.
+     *
+     * @param context context of the message
+     * @param intent the intent of the message
+     * @return result of the handler
+     */
+    default R dispatch(C context, RecognizedIntent intent) {
+        switch (intent.getIntent()) {
+            case JSR_DETAIL:
+                return onJSRDetail(context, intent);
+            case AMBIGUOUS_SEARCH:
+                return onAmbiguousSearch(context, intent);
+            case TRANSLATE:
+                return onTranslate(context, intent);
+            default:
+                return onNothing(context, intent);
+        }
+    }
+}
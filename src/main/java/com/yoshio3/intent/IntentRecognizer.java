@@ -0,0 +1,152 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.intent;
+
+import com.yoshio3.cache.ExpiringLruCache;
+import com.yoshio3.concurrent.BotExecutors;
+import com.yoshio3.concurrent.Lazy;
+import com.yoshio3.config.BotConfig;
+import com.yoshio3.endpoint.EndpointOverrides;
+import com.yoshio3.metrics.Counter;
+import com.yoshio3.metrics.MetricsRegistry;
+import com.yoshio3.resilience.Dependencies;
+import com.yoshio3.resilience.Dependencies.Dependency;
+import com.yoshio3.rest.entities.luis.ResponseFromLUIS;
+import com.yoshio3.services.LUISService;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+/**
+ * Recognize the intent of the user.
+ *
+ * At first the obvious inputs are recognized locally by
+ * {@link LocalIntentRecognizer}. The other inputs are passed to LUIS, and the
+ * result is cached by the normalized input.
+ *
+ * @author Yoshio Terada
+ */
+@ApplicationScoped
+public class IntentRecognizer {
+
+    private final static Logger LOGGER = Logger.getLogger(IntentRecognizer.class.getName());
+
+    @Inject
+    BotExecutors executors;
+
+    @Inject
+    MetricsRegistry metrics;
+
+    @Inject
+    Dependencies dependencies;
+
+    @Inject
+    EndpointOverrides endpointOverrides;
+
+    private final LocalIntentRecognizer localRecognizer = new LocalIntentRecognizer();
+    private final Lazy<LUISService> luisService = Lazy.of(LUISService::new);
+
+    private ExpiringLruCache<String, RecognizedIntent> cache;
+    private boolean fastPathEnabled;
+
+    private Counter requests;
+    private Counter fastPathHits;
+    private Counter luisCalls;
+    private Counter luisLatency;
+
+    @PostConstruct
+    void init() {
+        fastPathEnabled = BotConfig.getBoolean("intent.fastPath.enabled", true);
+        long ttl = BotConfig.getLong("intent.cache.ttl", 60 * 60 * 1000L);
+        cache = new ExpiringLruCache<>(BotConfig.getInt("intent.cache.maxSize", 10_000), value -> ttl);
+
+        requests = metrics.counter("intent_requests_total");
+        fastPathHits = metrics.counter("intent_fastpath_hits_total");
+        luisCalls = metrics.counter("luis_calls_total");
+        luisLatency = metrics.counter("luis_latency_ms_total");
+        metrics.counter("intent_cache_hits_total", cache::getHitCount);
+        metrics.gauge("intent_cache_size", cache::size);
+        metrics.gauge("intent_fastpath_ratio", () -> ratio(fastPathHits.get(), requests.get()));
+        metrics.gauge("luis_latency_saved_ms", this::estimateSavedLatency);
+    }
+
+    /**
+     * Recognize the intent of the input.
+     *
+     * LUIS is called on the executor of the blocking calls, so the caller
+     * thread doesn't wait for it. The slow call of LUIS is hedged if it is
+     * enabled by "resilience.luis.hedge.enabled".
+     *
+     * @param inputMessage inputed message from User.
+     * @return {@code CompletableFuture} of the intent. It is empty if LUIS
+     * could not answer.
+     */
+    public CompletableFuture<Optional<RecognizedIntent>> recognize(String inputMessage) {
+        requests.increment();
+        String utterance = Utterances.normalize(inputMessage);
+        if (fastPathEnabled) {
+            Optional<RecognizedIntent> local = localRecognizer.recognize(utterance);
+            if (local.isPresent()) {
+                fastPathHits.increment();
+                LOGGER.log(Level.FINE, "Recognized locally : {0}", local.get());
+                return CompletableFuture.completedFuture(local);
+            }
+        }
+        return cache.get(utterance, key -> dependencies.hedging(Dependency.LUIS).call(() -> CompletableFuture.supplyAsync(
+                () -> invokeLUIS(inputMessage).orElse(null), executors.blocking()), result -> result == null))
+                .thenApply(Optional::ofNullable);
+    }
+
+    /**
+     * Create the client of LUIS before the first call.
+     */
+    public void prewarm() {
+        if (!endpointOverrides.hasLUIS()) {
+            luisService.get();
+        }
+    }
+
+    private Optional<RecognizedIntent> invokeLUIS(String inputMessage) {
+        long start = System.nanoTime();
+        try {
+            Optional<ResponseFromLUIS> responseFromLUIS = endpointOverrides.hasLUIS()
+                    ? endpointOverrides.getResponseFromLUIS(inputMessage)
+                    : luisService.get().getResponseFromLUIS(inputMessage);
+            return responseFromLUIS.map(RecognizedIntent::fromLUIS);
+        } finally {
+            luisCalls.increment();
+            luisLatency.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    private long estimateSavedLatency() {
+        long calls = luisCalls.get();
+        if (calls == 0) {
+            return 0;
+        }
+        long averageLatency = luisLatency.get() / calls;
+        return averageLatency * (fastPathHits.get() + cache.getHitCount());
+    }
+
+    private static double ratio(long part, long total) {
+        return total == 0 ? 0.0 : (double) part / total;
+    }
+}
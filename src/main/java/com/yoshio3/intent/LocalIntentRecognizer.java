@@ -0,0 +1,64 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.intent;
+
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Pattern based recognizer for the obvious inputs like "JSR 299 は何ですか？".
+ *
+ * It only handles the inputs which contain one JSR number and the clear
+ * words of the intent (e.g. "とは", "は何ですか", "について教えて"). The other
+ * inputs, like "JSR 352 はいつ出ますか?", are passed to LUIS.
+ *
+ * @author Yoshio Terada
+ */
+public class LocalIntentRecognizer {
+
+    private final static Pattern JSR_NUMBER = Pattern.compile("jsr\\s*-?\\s*(\\d{1,4})(?!\\d)");
+    private final static Pattern TRANSLATE = Pattern.compile("翻訳|訳して|日本語訳|日本語で|translate");
+    // Only the explicit questions of the detail. The input is normalized by
+    // NFKC, so "？" is already "?".
+    private final static Pattern DETAIL = Pattern.compile(
+            "とは|(は|って)\\s*(何|なに|なん)\\s*(です|でしょう|\\?|$)|について教えて|の詳細|^what\\s+is\\s|^jsr\\s*-?\\s*\\d{1,4}$");
+
+    /**
+     * @param normalizedText the input which is normalized by
+     * {@link Utterances#normalize(String)}
+     * @return {@code Optional} of the intent. It is empty if the input is not
+     * obvious.
+     */
+    public Optional<RecognizedIntent> recognize(String normalizedText) {
+        Matcher matcher = JSR_NUMBER.matcher(normalizedText);
+        if (!matcher.find()) {
+            return Optional.empty();
+        }
+        Integer jsrNumber = Integer.valueOf(matcher.group(1));
+        if (matcher.find()) {
+            // More than one JSR number, leave it to LUIS.
+            return Optional.empty();
+        }
+        if (TRANSLATE.matcher(normalizedText).find()) {
+            return Optional.of(new RecognizedIntent(Intent.TRANSLATE, jsrNumber, null));
+        }
+        if (DETAIL.matcher(normalizedText).find()) {
+            return Optional.of(new RecognizedIntent(Intent.JSR_DETAIL, jsrNumber, null));
+        }
+        return Optional.empty();
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.intent;
+
+import com.yoshio3.rest.entities.luis.ResponseFromLUIS;
+import com.yoshio3.rest.entities.luis.childelements.Entity;
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * The intent of the user and the entities which are needed to handle it.
+ *
+ * @author Yoshio Terada
+ */
+public class RecognizedIntent {
+
+    private final static String ENTITY_JSR_NUMBER = "JSR_NUMBER";
+    private final static String ENTITY_JSR_NAME_KEYWORD = "JSR-NAME-KEYWARD";
+
+    private final Intent intent;
+    private final Integer jsrNumber;
+    private final String keyword;
+
+    public RecognizedIntent(Intent intent, Integer jsrNumber, String keyword) {
+        this.intent = intent;
+        this.jsrNumber = jsrNumber;
+        this.keyword = keyword;
+    }
+
+    /**
+     * Create from the response of LUIS.
+     *
+     * @param luis Response object from LUIS.
+     * @return {@code RecognizedIntent}
+     */
+    public static RecognizedIntent fromLUIS(ResponseFromLUIS luis) {
+        Intent intent = Intent.fromLabel(luis.getTopScoringIntent().getIntent());
+        Entity[] entities = luis.getEntities() == null ? new Entity[0] : luis.getEntities();
+        Integer jsrNumber = Arrays.stream(entities)
+                .filter(ent -> ENTITY_JSR_NUMBER.equals(ent.getType()))
+                .map(Entity::getEntity)
+                .findFirst()
+                .flatMap(RecognizedIntent::parseJSRNumber)
+                .orElse(null);
+        String keyword = Arrays.stream(entities)
+                .filter(ent -> ENTITY_JSR_NAME_KEYWORD.equals(ent.getType()))
+                .map(Entity::getEntity)
+                .findAny()
+                .orElse(null);
+        return new RecognizedIntent(intent, jsrNumber, keyword);
+    }
+
+    /**
+     * Get the JSR number from the entity like "299", "jsr299" or "JSR 299".
+     *
+     * @param jsrString JSR_NUMBER entity
+     * @return {@code Optional} of the JSR number
+     */
+    public static Optional<Integer> parseJSRNumber(String jsrString) {
+        if (jsrString == null) {
+            return Optional.empty();
+        }
+        String digits = Normalizer.normalize(jsrString, Normalizer.Form.NFKC).replaceAll("[^0-9]", "");
+        if (digits.isEmpty() || digits.length() > 9) {
+            return Optional.empty();
+        }
+        return Optional.of(Integer.valueOf(digits));
+    }
+
+    public Intent getIntent() {
+        return intent;
+    }
+
+    public Optional<Integer> getJsrNumber() {
+        return Optional.ofNullable(jsrNumber);
+    }
+
+    public Optional<String> getKeyword() {
+        return Optional.ofNullable(keyword);
+    }
+
+    @Override
+    public String toString() {
+        return "RecognizedIntent{" + "intent=" + intent + ", jsrNumber=" + jsrNumber + ", keyword=" + keyword + '}';
+    }
+}
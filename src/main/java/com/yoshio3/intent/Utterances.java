@@ -0,0 +1,48 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.intent;
+
+import java.text.Normalizer;
+import java.util.Locale;
+
+/**
+ * Utility for the input text of the user.
+ *
+ * @author Yoshio Terada
+ */
+public final class Utterances {
+
+    private Utterances() {
+    }
+
+    /**
+     * Normalize the input, so the same question is handled as the same
+     * utterance. (Full width characters, upper case and extra white spaces
+     * are normalized.)
+     *
+     * @param text input text from the user
+     * @return normalized text
+     */
+    public static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        return Normalizer.normalize(text, Normalizer.Form.NFKC)
+                .toLowerCase(Locale.ROOT)
+                .replaceAll("\\s+", " ")
+                .trim();
+    }
+}
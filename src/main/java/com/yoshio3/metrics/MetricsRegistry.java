@@ -0,0 +1,203 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Supplier;
+import javax.enterprise.context.ApplicationScoped;
+
+/**
+ * Application wide registry of the counters, gauges and histograms.
+ *
+ * Each component registers its own metrics by name and optional labels
+ * (e.g. {@code counter("stage_errors_total", "stage", "luis")}), and the
+ * registered values are published by {@code MetricsResource}. The lookup
+ * creates the key string, so the components should keep the metrics they use
+ * on the hot path instead of looking them up for every call.
+ *
+ * The values which only increase (e.g. the hit count of a cache) are
+ * registered as the counters, and their names must end with "_total" like
+ * the Prometheus convention. The gauges are only for the values which can go
+ * down.
+ *
+ * @author Yoshio Terada
+ */
+@ApplicationScoped
+public class MetricsRegistry {
+
+    private final static double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private final static String[] QUANTILE_SUFFIXES = {"_p50", "_p90", "_p99", "_p999"};
+
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<String, Supplier<? extends Number>> counterFunctions = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<String, Supplier<? extends Number>> gauges = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentSkipListMap<>();
+
+    /**
+     * Get the counter which has the name. It will be created at the first call.
+     *
+     * @param name name of the counter. It must end with "_total".
+     * @param labels pairs of the label name and value
+     * @return {@code Counter}
+     */
+    public Counter counter(String name, String... labels) {
+        return counters.computeIfAbsent(key(counterName(name), labels), key -> new Counter());
+    }
+
+    /**
+     * Register the counter whose value is kept by the other object (e.g. the
+     * hit count of a cache). The supplier must return the value which never
+     * goes down, and it is evaluated every time the metrics are read.
+     *
+     * @param name name of the counter. It must end with "_total".
+     * @param supplier current value of the counter
+     * @param labels pairs of the label name and value
+     */
+    public void counter(String name, Supplier<? extends Number> supplier, String... labels) {
+        counterFunctions.put(key(counterName(name), labels), supplier);
+    }
+
+    /**
+     * Register the gauge. The supplier is evaluated every time the metrics
+     * are read, so it must be cheap and thread safe.
+     *
+     * @param name name of the gauge
+     * @param supplier current value of the gauge
+     * @param labels pairs of the label name and value
+     */
+    public void gauge(String name, Supplier<? extends Number> supplier, String... labels) {
+        gauges.put(key(name, labels), supplier);
+    }
+
+    /**
+     * Get the histogram which has the name. It will be created at the first
+     * call. The values are recorded in microseconds, and published in
+     * seconds.
+     *
+     * @param name name of the histogram
+     * @param labels pairs of the label name and value
+     * @return {@code Histogram}
+     */
+    public Histogram histogram(String name, String... labels) {
+        return histograms.computeIfAbsent(key(name, labels), key -> new Histogram());
+    }
+
+    /**
+     * Current values of all of the metrics.
+     *
+     * @return metrics name and its value
+     */
+    public Map<String, Number> snapshot() {
+        Map<String, Number> values = new LinkedHashMap<>();
+        counters.forEach((name, counter) -> values.put(name, counter.get()));
+        counterFunctions.forEach((name, counter) -> values.put(name, counter.get()));
+        gauges.forEach((name, gauge) -> values.put(name, gauge.get()));
+        histograms.forEach((key, histogram) -> {
+            String family = familyOf(key);
+            String labels = key.substring(family.length());
+            values.put(family + "_count" + labels, histogram.getCount());
+            for (int i = 0; i < QUANTILES.length; i++) {
+                values.put(family + QUANTILE_SUFFIXES[i] + labels, histogram.getValueAtQuantile(QUANTILES[i]) / 1_000_000.0);
+            }
+        });
+        return values;
+    }
+
+    /**
+     * Current values of all of the metrics in the Prometheus text format.
+     *
+     * @return metrics in the Prometheus text format (version 0.0.4)
+     */
+    public String toPrometheus() {
+        StringBuilder builder = new StringBuilder();
+        String[] lastFamily = {null};
+        // Both kinds of the counters are sorted together, so each family is written once.
+        Map<String, Number> allCounters = new TreeMap<>();
+        counters.forEach((key, counter) -> allCounters.put(key, counter.get()));
+        counterFunctions.forEach((key, counter) -> allCounters.put(key, counter.get()));
+        allCounters.forEach((key, value) -> {
+            typeLine(builder, lastFamily, key, "counter");
+            builder.append(key).append(' ').append(value).append('\n');
+        });
+        gauges.forEach((key, gauge) -> {
+            typeLine(builder, lastFamily, key, "gauge");
+            builder.append(key).append(' ').append(gauge.get()).append('\n');
+        });
+        histograms.forEach((key, histogram) -> {
+            typeLine(builder, lastFamily, key, "summary");
+            String family = familyOf(key);
+            String labels = key.substring(family.length());
+            for (double quantile : QUANTILES) {
+                builder.append(family).append(withLabel(labels, "quantile", String.valueOf(quantile)))
+                        .append(' ').append(histogram.getValueAtQuantile(quantile) / 1_000_000.0).append('\n');
+            }
+            builder.append(family).append("_sum").append(labels).append(' ').append(histogram.getSum() / 1_000_000.0).append('\n');
+            builder.append(family).append("_count").append(labels).append(' ').append(histogram.getCount()).append('\n');
+        });
+        return builder.toString();
+    }
+
+    private static void typeLine(StringBuilder builder, String[] lastFamily, String key, String type) {
+        String family = familyOf(key);
+        if (!family.equals(lastFamily[0])) {
+            builder.append("# TYPE ").append(family).append(' ').append(type).append('\n');
+            lastFamily[0] = family;
+        }
+    }
+
+    private static String counterName(String name) {
+        if (!name.endsWith("_total")) {
+            throw new IllegalArgumentException("Name of the counter must end with \"_total\" : " + name);
+        }
+        return name;
+    }
+
+    private static String familyOf(String key) {
+        int index = key.indexOf('{');
+        return index < 0 ? key : key.substring(0, index);
+    }
+
+    private static String withLabel(String labels, String name, String value) {
+        String label = name + "=\"" + value + "\"";
+        if (labels.isEmpty()) {
+            return "{" + label + "}";
+        }
+        return labels.substring(0, labels.length() - 1) + "," + label + "}";
+    }
+
+    private static String key(String name, String... labels) {
+        if (labels.length == 0) {
+            return name;
+        }
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be pairs of the name and value : " + name);
+        }
+        StringBuilder builder = new StringBuilder(name).append('{');
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(labels[i]).append("=\"")
+                    .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                    .append('"');
+        }
+        return builder.append('}').toString();
+    }
+}
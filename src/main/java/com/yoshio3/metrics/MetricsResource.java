@@ -0,0 +1,53 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.metrics;
+
+import java.util.Map;
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * Publish the metrics of this bot.
+ *
+ * @author Yoshio Terada
+ */
+@Path("metrics")
+public class MetricsResource {
+
+    @Inject
+    MetricsRegistry metrics;
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, Number> getMetrics() {
+        return metrics.snapshot();
+    }
+
+    /**
+     * Publish the metrics for Prometheus.
+     *
+     * @return metrics in the Prometheus text format
+     */
+    @GET
+    @Path("prometheus")
+    @Produces("text/plain; version=0.0.4; charset=utf-8")
+    public String getPrometheusMetrics() {
+        return metrics.toPrometheus();
+    }
+}
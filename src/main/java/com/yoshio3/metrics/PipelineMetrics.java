@@ -0,0 +1,168 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.metrics;
+
+import com.yoshio3.intent.Intent;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+/**
+ * Latency, errors and in-flight requests of each stage of the message
+ * handling, tagged by the intent.
+ *
+ * All of the histograms and counters are created at the initialization and
+ * indexed by the stage and the intent, so recording the stage doesn't look up
+ * the registry nor allocate the object of the running stage: the caller keeps
+ * the start time. The stages which start before the intent is recognized
+ * (e.g. LUIS) are counted as in-flight under the intent "none" until
+ * {@link #tag(Stage, Intent, Intent)} is called.
+ *
+ * @author Yoshio Terada
+ */
+@ApplicationScoped
+public class PipelineMetrics {
+
+    /**
+     * Stages of the message handling.
+     */
+    public enum Stage {
+        LUIS,
+        JSR_SERVICE,
+        JSR_SEARCH,
+        TRANSLATOR,
+        BOT_FRAMEWORK,
+        TOTAL;
+
+        private final String label = name().toLowerCase(Locale.ROOT);
+    }
+
+    @Inject
+    MetricsRegistry metrics;
+
+    private Histogram[][] latencies;
+    private Counter[][] errors;
+    private AtomicInteger[][] inFlight;
+    private Counter[] budgetExceeded;
+
+    @PostConstruct
+    void init() {
+        Stage[] stages = Stage.values();
+        Intent[] intents = Intent.values();
+        latencies = new Histogram[stages.length][intents.length];
+        errors = new Counter[stages.length][intents.length];
+        inFlight = new AtomicInteger[stages.length][intents.length];
+        budgetExceeded = new Counter[intents.length];
+        for (Intent intent : intents) {
+            budgetExceeded[intent.ordinal()] = metrics.counter("bot_budget_exceeded_total",
+                    "intent", intent.name().toLowerCase(Locale.ROOT));
+        }
+        for (Stage stage : stages) {
+            for (Intent intent : intents) {
+                String intentLabel = intent.name().toLowerCase(Locale.ROOT);
+                latencies[stage.ordinal()][intent.ordinal()] = metrics.histogram("bot_stage_latency_seconds",
+                        "stage", stage.label, "intent", intentLabel);
+                errors[stage.ordinal()][intent.ordinal()] = metrics.counter("bot_stage_errors_total",
+                        "stage", stage.label, "intent", intentLabel);
+                AtomicInteger counter = new AtomicInteger();
+                inFlight[stage.ordinal()][intent.ordinal()] = counter;
+                metrics.gauge("bot_stage_in_flight", counter::get, "stage", stage.label, "intent", intentLabel);
+            }
+        }
+    }
+
+    /**
+     * Start the stage.
+     *
+     * @param stage the stage
+     * @param intent the intent of the message. {@code null} is recorded as
+     * {@code NONE}.
+     * @return the start time which is passed to
+     * {@link #stop(Stage, Intent, long, boolean)}
+     */
+    public long start(Stage stage, Intent intent) {
+        inFlight[stage.ordinal()][indexOf(intent)].incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * Move the running stage to the intent which has been recognized.
+     *
+     * @param stage the stage
+     * @param from the intent which the stage was started with
+     * @param to the recognized intent
+     */
+    public void tag(Stage stage, Intent from, Intent to) {
+        int fromIndex = indexOf(from);
+        int toIndex = indexOf(to);
+        if (fromIndex != toIndex) {
+            inFlight[stage.ordinal()][fromIndex].decrementAndGet();
+            inFlight[stage.ordinal()][toIndex].incrementAndGet();
+        }
+    }
+
+    /**
+     * Stop the stage and record it under the intent.
+     *
+     * @param stage the stage
+     * @param intent the intent which the stage is running with (after
+     * {@link #tag(Stage, Intent, Intent)} if it was tagged)
+     * @param startTime the time which was returned by
+     * {@link #start(Stage, Intent)}
+     * @param failed true if the stage failed
+     */
+    public void stop(Stage stage, Intent intent, long startTime, boolean failed) {
+        int index = indexOf(intent);
+        inFlight[stage.ordinal()][index].decrementAndGet();
+        latencies[stage.ordinal()][index].record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startTime));
+        if (failed) {
+            errors[stage.ordinal()][index].increment();
+        }
+    }
+
+    /**
+     * Record the stage which is completed with the future.
+     *
+     * @param <T> type of the value
+     * @param stage the stage
+     * @param intent the intent of the message
+     * @param future the future of the stage
+     * @return the same future
+     */
+    public <T> CompletableFuture<T> time(Stage stage, Intent intent, CompletableFuture<T> future) {
+        long startTime = start(stage, intent);
+        future.whenComplete((value, error) -> stop(stage, intent, startTime, error != null));
+        return future;
+    }
+
+    /**
+     * Record that the latency budget of the request ran out and the partial
+     * answer was sent.
+     *
+     * @param intent the intent of the message
+     */
+    public void budgetExceeded(Intent intent) {
+        budgetExceeded[indexOf(intent)].increment();
+    }
+
+    private static int indexOf(Intent intent) {
+        return (intent == null ? Intent.NONE : intent).ordinal();
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.reply;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yoshio3.concurrent.Lazy;
+import com.yoshio3.config.BotConfig;
+import com.yoshio3.rest.entities.bot.BotObjectMapperProvider;
+import com.yoshio3.rest.entities.bot.MessageFromBotFrameWork;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.glassfish.jersey.apache.connector.ApacheClientProperties;
+import org.glassfish.jersey.apache.connector.ApacheConnectorProvider;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.jackson.JacksonFeature;
+
+/**
+ * Client of the Bot Connector which sends the replies.
+ *
+ * {@code BotService#sendResponse} of Bot-Luis-Translator-Util returns nothing
+ * and doesn't expose the response, so the bot can't know if the reply was
+ * throttled with "429 Too Many Requests" nor read "Retry-After". This class
+ * sends the same request (POST
+ * {serviceUrl}/v3/conversations/{conversationId}/activities/{activityId}) and
+ * checks the status of the response. If it is not successful,
+ * {@code WebApplicationException} is thrown with the status and
+ * "Retry-After", so {@link OutboundQueue} can retry the throttled reply.
+ *
+ * The reply activity is built from the incoming activity as the Bot
+ * Connector API expects for the reply: the sender and the recipient are
+ * swapped, and the conversation, the channel and the locale are copied (see
+ * {@link #activityOf(MessageFromBotFrameWork, String)}).
+ *
+ * The service URL is sent by the client, and the access token of the bot is
+ * sent to it. The operator can restrict it by
+ * "reply.serviceUrl.allowedHosts" (comma separated, the entry which starts
+ * with "." matches the sub domains, e.g.
+ * ".botframework.com,.trafficmanager.net") and
+ * "reply.serviceUrl.requireHttps". Both are off by default, so the replies
+ * to the emulator and to the other channel hosts are sent as before.
+ *
+ * @author Yoshio Terada
+ */
+@ApplicationScoped
+public class BotConnectorClient {
+
+    private final static ObjectMapper MAPPER = new BotObjectMapperProvider().getContext(MessageFromBotFrameWork.class);
+
+    private List<String> allowedHosts;
+    private boolean requireHttps;
+    private Lazy<Client> client;
+
+    @PostConstruct
+    void init() {
+        allowedHosts = Arrays.stream(BotConfig.get("reply.serviceUrl.allowedHosts", "").split(","))
+                .map(host -> host.trim().toLowerCase(Locale.ROOT))
+                .filter(host -> !host.isEmpty())
+                .collect(Collectors.toList());
+        requireHttps = BotConfig.getBoolean("reply.serviceUrl.requireHttps", false);
+        client = Lazy.of(this::createClient);
+    }
+
+    private Client createClient() {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(
+                BotConfig.getLong("reply.pool.keepAlive", 60_000), TimeUnit.MILLISECONDS);
+        connectionManager.setMaxTotal(BotConfig.getInt("reply.pool.maxTotal", 100));
+        connectionManager.setDefaultMaxPerRoute(BotConfig.getInt("reply.pool.maxPerRoute", 50));
+        ClientConfig clientConfig = new ClientConfig()
+                .connectorProvider(new ApacheConnectorProvider())
+                .property(ApacheClientProperties.CONNECTION_MANAGER, connectionManager)
+                .property(ClientProperties.CONNECT_TIMEOUT, BotConfig.getInt("reply.connectTimeout", 2_000))
+                .property(ClientProperties.READ_TIMEOUT, BotConfig.getInt("reply.readTimeout", 10_000))
+                .register(JacksonFeature.class);
+        return ClientBuilder.newClient(clientConfig);
+    }
+
+    @PreDestroy
+    void close() {
+        client.ifCreated(Client::close);
+    }
+
+    /**
+     * Create the client before the first reply.
+     */
+    public void prewarm() {
+        client.get();
+    }
+
+    /**
+     * @param requestMessage messages from the clients
+     * @return true if the reply to the message can be sent to its service URL
+     */
+    public boolean isAllowed(MessageFromBotFrameWork requestMessage) {
+        return isAllowed(requestMessage.getServiceUrl(), allowedHosts, requireHttps);
+    }
+
+    /**
+     * @param serviceUrl the service URL of the message
+     * @param allowedHosts the hosts, or the domains which start with ".". All
+     * of the hosts are allowed if it is empty.
+     * @param requireHttps true if only HTTPS is allowed
+     * @return true if the reply can be sent to the service URL
+     */
+    static boolean isAllowed(String serviceUrl, List<String> allowedHosts, boolean requireHttps) {
+        if (serviceUrl == null) {
+            return false;
+        }
+        URI uri;
+        try {
+            uri = URI.create(serviceUrl);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        String scheme = uri.getScheme() == null ? "" : uri.getScheme().toLowerCase(Locale.ROOT);
+        if (!scheme.equals("https") && (requireHttps || !scheme.equals("http"))) {
+            return false;
+        }
+        if (uri.getHost() == null || uri.getRawUserInfo() != null) {
+            return false;
+        }
+        if (allowedHosts.isEmpty()) {
+            return true;
+        }
+        String host = uri.getHost().toLowerCase(Locale.ROOT);
+        return allowedHosts.stream().anyMatch(allowed -> allowed.startsWith(".")
+                ? host.endsWith(allowed) && host.length() > allowed.length()
+                : host.equals(allowed));
+    }
+
+    /**
+     * Same request as {@code BotService#sendResponse(MessageFromBotFrameWork,
+     * String, String)}, but the status of the response is checked.
+     *
+     * @param requestMessage messages from the clients
+     * @param token access token of the Bot Framework
+     * @param text the reply
+     * @throws IllegalArgumentException if the service URL is not allowed
+     * @throws WebApplicationException if the Bot Framework rejected the reply.
+     * The response has the status (e.g. 401, or 429 if the reply is
+     * throttled) and "Retry-After".
+     */
+    public void sendResponse(MessageFromBotFrameWork requestMessage, String token, String text) {
+        if (!isAllowed(requestMessage)) {
+            throw new IllegalArgumentException("The service URL is not allowed : " + requestMessage.getServiceUrl());
+        }
+        Map<String, Object> activity = activityOf(requestMessage, text);
+        Response response = client.get().target(requestMessage.getServiceUrl())
+                .path("v3/conversations/{conversationId}/activities/{activityId}")
+                .resolveTemplate("conversationId", Conversations.idOf(requestMessage).orElse(requestMessage.getId()))
+                .resolveTemplate("activityId", requestMessage.getId())
+                .request(MediaType.APPLICATION_JSON)
+                .header("Authorization", "Bearer " + token)
+                .post(Entity.json(activity));
+        int status = response.getStatus();
+        boolean successful = response.getStatusInfo().getFamily() == Response.Status.Family.SUCCESSFUL;
+        String retryAfter = response.getHeaderString("Retry-After");
+        response.close();
+        if (!successful) {
+            // The response is closed, so the status and "Retry-After" are copied.
+            throw new WebApplicationException("The Bot Framework returned " + status,
+                    Response.status(status).header("Retry-After", retryAfter).build());
+        }
+    }
+
+    /**
+     * Build the reply activity to the message.
+     *
+     * @param requestMessage messages from the clients
+     * @param text the reply
+     * @return the activity which is sent as JSON
+     */
+    static Map<String, Object> activityOf(MessageFromBotFrameWork requestMessage, String text) {
+        Map<?, ?> incoming = MAPPER.convertValue(requestMessage, Map.class);
+        Map<String, Object> activity = new LinkedHashMap<>();
+        activity.put("type", "message");
+        putIfPresent(activity, "from", incoming.get("recipient"));
+        putIfPresent(activity, "recipient", incoming.get("from"));
+        putIfPresent(activity, "conversation", incoming.get("conversation"));
+        putIfPresent(activity, "channelId", incoming.get("channelId"));
+        putIfPresent(activity, "locale", incoming.get("locale"));
+        activity.put("replyToId", requestMessage.getId());
+        activity.put("text", text);
+        return activity;
+    }
+
+    private static void putIfPresent(Map<String, Object> activity, String name, Object value) {
+        if (value != null) {
+            activity.put(name, value);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.reply;
+
+import com.yoshio3.rest.entities.bot.MessageFromBotFrameWork;
+import com.yoshio3.rest.entities.bot.childelements.Conversation;
+import java.util.Optional;
+
+/**
+ * Utility for the conversation of the message.
+ *
+ * @author Yoshio Terada
+ */
+public final class Conversations {
+
+    private Conversations() {
+    }
+
+    /**
+     * Get the conversation ID of the message.
+     *
+     * @param message messages from the clients
+     * @return {@code Optional} of the conversation ID. It is empty if the
+     * message doesn't have the conversation.
+     */
+    public static Optional<String> idOf(MessageFromBotFrameWork message) {
+        return Optional.ofNullable(message.getConversation())
+                .map(Conversation::getId)
+                .filter(id -> !id.isEmpty());
+    }
+}
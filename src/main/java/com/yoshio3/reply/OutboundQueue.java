@@ -0,0 +1,426 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.reply;
+
+import com.yoshio3.concurrent.Futures;
+import com.yoshio3.config.BotConfig;
+import com.yoshio3.metrics.Counter;
+import com.yoshio3.metrics.MetricsRegistry;
+import com.yoshio3.rest.entities.bot.MessageFromBotFrameWork;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+
+/**
+ * Queue of the replies to the Bot Framework.
+ *
+ * The replies of the same conversation are sent one by one in the order of
+ * {@link #send}, and the conversations are sent concurrently. The replies to
+ * the same message which are queued within "reply.coalesce.linger", or while
+ * the previous reply of the conversation is in flight, are merged into one
+ * activity.
+ *
+ * If the Bot Framework answers "429 Too Many Requests", the reply is kept in
+ * the queue and sent again after "Retry-After". The number of the sends in
+ * flight is decreased by half for each throttling and increased again one by
+ * one while the sends succeed (AIMD).
+ *
+ * @author Yoshio Terada
+ */
+@ApplicationScoped
+public class OutboundQueue {
+
+    private final static Logger LOGGER = Logger.getLogger(OutboundQueue.class.getName());
+
+    private final static int TOO_MANY_REQUESTS = 429;
+    private final static String SEPARATOR = "<BR><BR>";
+
+    /**
+     * The actual send of the reply.
+     */
+    @FunctionalInterface
+    public interface Transport {
+
+        /**
+         * @param requestMessage messages from the clients
+         * @param text the reply
+         * @return {@code CompletableFuture} which is completed after the reply
+         * is sent. It fails with {@code WebApplicationException} of 429 if the
+         * Bot Framework throttled the reply (see {@link BotConnectorClient}).
+         */
+        CompletableFuture<Void> deliver(MessageFromBotFrameWork requestMessage, String text);
+    }
+
+    @Resource
+    ManagedScheduledExecutorService scheduler;
+
+    @Inject
+    MetricsRegistry metrics;
+
+    private long lingerMillis;
+    private int maxMessages;
+    private int maxChars;
+    private int capacity;
+    private int maxRetries;
+    private long defaultRetryAfterMillis;
+    private int maxInFlight;
+    private ScheduledExecutorService timer;
+    private LongSupplier clock;
+
+    private final Object lock = new Object();
+    private final Map<String, Lane> lanes = new HashMap<>();
+    private final Deque<String> ready = new ArrayDeque<>();
+    private int queued;
+    private int inFlight;
+    private double limit;
+    private long pausedUntil;
+    private boolean wakeUpScheduled;
+
+    private Counter sends;
+    private Counter coalesced;
+    private Counter throttled;
+    private Counter rejected;
+    private Counter dropped;
+
+    @PostConstruct
+    void init() {
+        configure(BotConfig.getLong("reply.coalesce.linger", 20),
+                BotConfig.getInt("reply.coalesce.maxMessages", 5),
+                BotConfig.getInt("reply.coalesce.maxChars", 4_000),
+                BotConfig.getInt("reply.queue.capacity", 10_000),
+                BotConfig.getInt("reply.throttle.maxRetries", 5),
+                BotConfig.getLong("reply.throttle.retryAfter", 1_000),
+                BotConfig.getInt("reply.send.maxInFlight", 32),
+                scheduler, System::nanoTime);
+    }
+
+    // Package-private for the tests.
+    void configure(long lingerMillis, int maxMessages, int maxChars, int capacity, int maxRetries,
+            long defaultRetryAfterMillis, int maxInFlight, ScheduledExecutorService timer, LongSupplier clock) {
+        this.lingerMillis = lingerMillis;
+        this.maxMessages = Math.max(1, maxMessages);
+        this.maxChars = maxChars;
+        this.capacity = capacity;
+        this.maxRetries = maxRetries;
+        this.defaultRetryAfterMillis = defaultRetryAfterMillis;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.timer = timer;
+        this.clock = clock;
+        limit = this.maxInFlight;
+        pausedUntil = clock.getAsLong();
+
+        sends = metrics.counter("reply_sends_total");
+        coalesced = metrics.counter("reply_coalesced_total");
+        throttled = metrics.counter("reply_throttled_total");
+        rejected = metrics.counter("reply_rejected_total");
+        dropped = metrics.counter("reply_dropped_total");
+        metrics.gauge("reply_queue_depth", this::getQueued);
+        metrics.gauge("reply_in_flight", this::getInFlight);
+        metrics.gauge("reply_send_limit", this::getLimit);
+    }
+
+    /**
+     * Put the reply into the queue of the conversation.
+     *
+     * @param requestMessage messages from the clients
+     * @param text the reply
+     * @param transport the actual send of the reply
+     * @return {@code CompletableFuture} which is completed after the reply
+     * (or the merged reply which contains it) is sent. It fails with
+     * {@code RejectedExecutionException} if the queue is full.
+     */
+    public CompletableFuture<Void> send(MessageFromBotFrameWork requestMessage, String text, Transport transport) {
+        Outbound outbound = new Outbound(requestMessage, text, transport);
+        String conversationId = Conversations.idOf(requestMessage).orElse(String.valueOf(requestMessage.getId()));
+        List<Batch> toStart;
+        synchronized (lock) {
+            if (queued >= capacity) {
+                rejected.increment();
+                return Futures.failed(new RejectedExecutionException("Outbound queue is full"));
+            }
+            Lane lane = lanes.computeIfAbsent(conversationId, Lane::new);
+            lane.outbounds.add(outbound);
+            queued++;
+            if (!lane.inFlight && !lane.ready && !lane.lingering) {
+                if (lingerMillis > 0) {
+                    lane.lingering = true;
+                    timer.schedule(() -> lingerElapsed(lane), lingerMillis, TimeUnit.MILLISECONDS);
+                } else {
+                    markReady(lane);
+                }
+            }
+            toStart = drain();
+        }
+        toStart.forEach(this::start);
+        return outbound.future;
+    }
+
+    public int getQueued() {
+        synchronized (lock) {
+            return queued;
+        }
+    }
+
+    public int getInFlight() {
+        synchronized (lock) {
+            return inFlight;
+        }
+    }
+
+    public double getLimit() {
+        synchronized (lock) {
+            return limit;
+        }
+    }
+
+    private void lingerElapsed(Lane lane) {
+        List<Batch> toStart;
+        synchronized (lock) {
+            lane.lingering = false;
+            if (!lane.inFlight && !lane.outbounds.isEmpty()) {
+                markReady(lane);
+            }
+            toStart = drain();
+        }
+        toStart.forEach(this::start);
+    }
+
+    private void wakeUp() {
+        List<Batch> toStart;
+        synchronized (lock) {
+            wakeUpScheduled = false;
+            toStart = drain();
+        }
+        toStart.forEach(this::start);
+    }
+
+    // Must be called with the lock.
+    private void markReady(Lane lane) {
+        lane.ready = true;
+        ready.add(lane.conversationId);
+    }
+
+    // Must be called with the lock.
+    private List<Batch> drain() {
+        List<Batch> toStart = new ArrayList<>();
+        long pause = pausedUntil - clock.getAsLong();
+        if (pause > 0) {
+            if (!ready.isEmpty() && !wakeUpScheduled) {
+                wakeUpScheduled = true;
+                timer.schedule(this::wakeUp, pause, TimeUnit.NANOSECONDS);
+            }
+            return toStart;
+        }
+        while (inFlight < (int) limit && !ready.isEmpty()) {
+            Lane lane = lanes.get(ready.poll());
+            lane.ready = false;
+            Batch batch = lane.retry != null ? lane.retry : takeBatch(lane);
+            lane.retry = null;
+            lane.inFlight = true;
+            inFlight++;
+            toStart.add(batch);
+        }
+        return toStart;
+    }
+
+    // Must be called with the lock. Merge the replies to the same message.
+    private Batch takeBatch(Lane lane) {
+        List<Outbound> outbounds = new ArrayList<>();
+        Outbound first = lane.outbounds.poll();
+        outbounds.add(first);
+        int length = first.text.length();
+        while (outbounds.size() < maxMessages && !lane.outbounds.isEmpty()) {
+            Outbound next = lane.outbounds.peek();
+            if (!Objects.equals(next.requestMessage.getId(), first.requestMessage.getId())
+                    || length + SEPARATOR.length() + next.text.length() > maxChars) {
+                break;
+            }
+            outbounds.add(lane.outbounds.poll());
+            length += SEPARATOR.length() + next.text.length();
+        }
+        queued -= outbounds.size();
+        coalesced.add(outbounds.size() - 1);
+        return new Batch(lane, outbounds);
+    }
+
+    private void start(Batch batch) {
+        sends.increment();
+        Outbound last = batch.outbounds.get(batch.outbounds.size() - 1);
+        CompletableFuture<Void> sent;
+        try {
+            sent = last.transport.deliver(last.requestMessage, batch.text);
+        } catch (RuntimeException e) {
+            sent = Futures.failed(e);
+        }
+        sent.whenComplete((result, error) -> complete(batch, error == null ? null : Futures.unwrap(error)));
+    }
+
+    private void complete(Batch batch, Throwable error) {
+        Optional<Long> retryAfter = error == null ? Optional.empty() : retryAfterOf(error);
+        boolean retry = retryAfter.isPresent() && batch.attempts < maxRetries;
+        List<Batch> toStart;
+        synchronized (lock) {
+            inFlight--;
+            Lane lane = batch.lane;
+            lane.inFlight = false;
+            if (retryAfter.isPresent()) {
+                throttled.increment();
+                long now = clock.getAsLong();
+                if (now - pausedUntil >= 0) {
+                    // Decrease only once for the throttled sends at the same time.
+                    limit = Math.max(1, limit / 2);
+                }
+                pausedUntil = Math.max(pausedUntil - now, TimeUnit.MILLISECONDS.toNanos(retryAfter.get())) + now;
+            } else if (error == null) {
+                limit = Math.min(maxInFlight, limit + 1 / limit);
+            }
+            if (retry) {
+                batch.attempts++;
+                lane.retry = batch;
+                lane.ready = true;
+                ready.addFirst(lane.conversationId);
+            } else if (!lane.outbounds.isEmpty()) {
+                markReady(lane);
+            } else if (!lane.lingering) {
+                lanes.remove(lane.conversationId);
+            }
+            toStart = drain();
+        }
+        if (!retry) {
+            if (error == null) {
+                batch.outbounds.forEach(outbound -> outbound.future.complete(null));
+            } else {
+                if (retryAfter.isPresent()) {
+                    dropped.increment();
+                    LOGGER.log(Level.SEVERE, "Drop the reply which was throttled {0} times", batch.attempts + 1);
+                }
+                batch.outbounds.forEach(outbound -> outbound.future.completeExceptionally(error));
+            }
+        }
+        toStart.forEach(this::start);
+    }
+
+    /**
+     * Get the delay of the throttled send.
+     *
+     * @param error the cause of the failure
+     * @return {@code Optional} of the delay in milliseconds. It is empty if
+     * the send was not throttled.
+     */
+    private Optional<Long> retryAfterOf(Throwable error) {
+        if (!isThrottled(error)) {
+            return Optional.empty();
+        }
+        String value = ((WebApplicationException) error).getResponse().getHeaderString("Retry-After");
+        if (value == null || value.trim().isEmpty()) {
+            return Optional.of(defaultRetryAfterMillis);
+        }
+        try {
+            return Optional.of(TimeUnit.SECONDS.toMillis(Long.parseLong(value.trim())));
+        } catch (NumberFormatException e) {
+            try {
+                ZonedDateTime date = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                return Optional.of(Math.max(0, Duration.between(ZonedDateTime.now(date.getZone()), date).toMillis()));
+            } catch (DateTimeParseException ex) {
+                return Optional.of(defaultRetryAfterMillis);
+            }
+        }
+    }
+
+    /**
+     * @param error the cause of the failure
+     * @return true if the Bot Framework throttled the send with 429
+     */
+    public static boolean isThrottled(Throwable error) {
+        if (!(error instanceof WebApplicationException)) {
+            return false;
+        }
+        Response response = ((WebApplicationException) error).getResponse();
+        return response != null && response.getStatus() == TOO_MANY_REQUESTS;
+    }
+
+    /**
+     * The replies of the conversation.
+     */
+    private static class Lane {
+
+        private final String conversationId;
+        private final Deque<Outbound> outbounds = new ArrayDeque<>();
+        private Batch retry;
+        private boolean lingering;
+        private boolean ready;
+        private boolean inFlight;
+
+        Lane(String conversationId) {
+            this.conversationId = conversationId;
+        }
+    }
+
+    private static class Outbound {
+
+        private final MessageFromBotFrameWork requestMessage;
+        private final String text;
+        private final Transport transport;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Outbound(MessageFromBotFrameWork requestMessage, String text, Transport transport) {
+            this.requestMessage = requestMessage;
+            this.text = text;
+            this.transport = transport;
+        }
+    }
+
+    /**
+     * The replies which are sent as one activity.
+     */
+    private static class Batch {
+
+        private final Lane lane;
+        private final List<Outbound> outbounds;
+        private final String text;
+        private int attempts;
+
+        Batch(Lane lane, List<Outbound> outbounds) {
+            this.lane = lane;
+            this.outbounds = outbounds;
+            this.text = outbounds.stream().map(outbound -> outbound.text).collect(Collectors.joining(SEPARATOR));
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.reply;
+
+import com.yoshio3.cache.ExpiringLruCache;
+import com.yoshio3.config.BotConfig;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+
+/**
+ * Aggregate many result lines into a few paged messages.
+ *
+ * The first page is sent as one message. The rest of the lines are kept for
+ * the conversation, and the next page is sent when the user inputs "もっと見る".
+ *
+ * @author Yoshio Terada
+ */
+@ApplicationScoped
+public class ReplyAggregator {
+
+    private final static List<String> SHOW_MORE_KEYWORDS = Arrays.asList("もっと見る", "もっと", "続き", "つづき", "more", "show more");
+
+    private int pageSize;
+    private ExpiringLruCache<String, Continuation> continuations;
+
+    @PostConstruct
+    void init() {
+        pageSize = Math.max(1, BotConfig.getInt("reply.page.size", 10));
+        long ttl = BotConfig.getLong("reply.continuation.ttl", 10 * 60 * 1000L);
+        continuations = new ExpiringLruCache<>(BotConfig.getInt("reply.continuation.maxSize", 10_000), value -> ttl);
+    }
+
+    /**
+     * Create the first page of the lines.
+     *
+     * If there are more lines than the page size, the rest of them are kept
+     * for the conversation.
+     *
+     * @param conversationId ID of the conversation
+     * @param header the first line of the every page
+     * @param lines result lines
+     * @return the message of the first page
+     */
+    public String firstPage(Optional<String> conversationId, String header, List<String> lines) {
+        Continuation continuation = new Continuation(header, lines);
+        conversationId.ifPresent(id -> {
+            if (lines.size() > pageSize) {
+                continuations.put(id, continuation);
+            } else {
+                continuations.invalidate(id);
+            }
+        });
+        return continuation.page(0, conversationId.isPresent());
+    }
+
+    /**
+     * Create the next page for the conversation.
+     *
+     * @param conversationId ID of the conversation
+     * @return {@code Optional} of the message. It is empty if there is no
+     * more page.
+     */
+    public Optional<String> nextPage(String conversationId) {
+        Optional<Continuation> continuation = continuations.getIfPresent(conversationId);
+        if (!continuation.isPresent()) {
+            return Optional.empty();
+        }
+        int offset = continuation.get().advance();
+        if (offset + pageSize >= continuation.get().lines.size()) {
+            continuations.invalidate(conversationId);
+        }
+        return Optional.of(continuation.get().page(offset, true));
+    }
+
+    /**
+     * @param text input text from the user
+     * @return true if the user would like to see the next page
+     */
+    public boolean isShowMoreRequest(String text) {
+        if (text == null) {
+            return false;
+        }
+        String normalized = text.trim().toLowerCase(Locale.ROOT)
+                .replaceAll("[。．.！!？?\\s]+$", "");
+        return SHOW_MORE_KEYWORDS.contains(normalized);
+    }
+
+    private class Continuation {
+
+        private final String header;
+        private final List<String> lines;
+        private int offset;
+
+        Continuation(String header, List<String> lines) {
+            this.header = header;
+            this.lines = lines;
+        }
+
+        synchronized int advance() {
+            offset += pageSize;
+            return offset;
+        }
+
+        String page(int from, boolean canContinue) {
+            int to = Math.min(from + pageSize, lines.size());
+            StringBuilder builder = new StringBuilder(header);
+            for (String line : lines.subList(Math.min(from, to), to)) {
+                builder.append("<BR>").append(line);
+            }
+            if (canContinue && to < lines.size()) {
+                builder.append("<BR>（").append(lines.size()).append(" 件中 ")
+                        .append(from + 1).append("-").append(to)
+                        .append(" 件を表示しています。続きは「もっと見る」と入力してください）");
+            }
+            return builder.toString();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.resilience;
+
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Circuit breaker of the downstream dependency.
+ *
+ * The results of the last calls are kept in the count based window. If the
+ * failure rate of the window reaches the threshold, the circuit is opened and
+ * all of the calls are rejected without calling the dependency. After the
+ * open duration, a few trial calls are permitted (half open). If all of them
+ * succeed the circuit is closed, and if one of them fails it is opened again.
+ *
+ * Each permission has the generation of the state, and the result of the
+ * call which was permitted in the previous state is ignored.
+ *
+ * @author Yoshio Terada
+ */
+public class CircuitBreaker {
+
+    /**
+     * State of the circuit.
+     */
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    /**
+     * Returned by {@link #tryAcquire()} if the call is not permitted.
+     */
+    public final static long REJECTED = -1;
+
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long openDurationMillis;
+    private final int halfOpenCalls;
+    private final Consumer<State> transitionListener;
+    private final LongSupplier clock;
+
+    private final boolean[] window;
+    private int windowIndex;
+    private int windowCount;
+    private int windowFailures;
+
+    private State state = State.CLOSED;
+    private long generation;
+    private long openedAt;
+    private int halfOpenPermitted;
+    private int halfOpenSucceeded;
+
+    /**
+     * @param windowSize the number of the calls in the window
+     * @param minimumCalls the minimum number of the calls to calculate the
+     * failure rate
+     * @param failureRateThreshold the failure rate (0.0 - 1.0) to open the
+     * circuit
+     * @param openDurationMillis how long the circuit is kept open
+     * @param halfOpenCalls the number of the trial calls in the half open
+     * state
+     * @param transitionListener called with the new state when the state is
+     * changed
+     */
+    public CircuitBreaker(int windowSize, int minimumCalls, double failureRateThreshold,
+            long openDurationMillis, int halfOpenCalls, Consumer<State> transitionListener) {
+        this(windowSize, minimumCalls, failureRateThreshold, openDurationMillis, halfOpenCalls,
+                transitionListener, System::currentTimeMillis);
+    }
+
+    /**
+     * @param windowSize the number of the calls in the window
+     * @param minimumCalls the minimum number of the calls to calculate the
+     * failure rate
+     * @param failureRateThreshold the failure rate (0.0 - 1.0) to open the
+     * circuit
+     * @param openDurationMillis how long the circuit is kept open
+     * @param halfOpenCalls the number of the trial calls in the half open
+     * state
+     * @param transitionListener called with the new state when the state is
+     * changed
+     * @param clock current time in milliseconds (e.g. the fake clock of the
+     * test)
+     */
+    CircuitBreaker(int windowSize, int minimumCalls, double failureRateThreshold,
+            long openDurationMillis, int halfOpenCalls, Consumer<State> transitionListener, LongSupplier clock) {
+        this.window = new boolean[windowSize];
+        this.minimumCalls = Math.min(minimumCalls, windowSize);
+        this.failureRateThreshold = failureRateThreshold;
+        this.openDurationMillis = openDurationMillis;
+        this.halfOpenCalls = halfOpenCalls;
+        this.transitionListener = transitionListener;
+        this.clock = clock;
+    }
+
+    /**
+     * Ask the permission to call the dependency.
+     *
+     * @return the generation which must be passed to
+     * {@link #onResult(long, boolean)}, or {@link #REJECTED}
+     */
+    public synchronized long tryAcquire() {
+        if (state == State.OPEN) {
+            if (clock.getAsLong() - openedAt < openDurationMillis) {
+                return REJECTED;
+            }
+            transition(State.HALF_OPEN);
+        }
+        if (state == State.HALF_OPEN) {
+            if (halfOpenPermitted >= halfOpenCalls) {
+                return REJECTED;
+            }
+            halfOpenPermitted++;
+        }
+        return generation;
+    }
+
+    /**
+     * Record the result of the call.
+     *
+     * @param permittedGeneration the value returned by {@link #tryAcquire()}
+     * @param failed true if the call failed
+     */
+    public synchronized void onResult(long permittedGeneration, boolean failed) {
+        if (permittedGeneration != generation) {
+            return;
+        }
+        if (state == State.HALF_OPEN) {
+            if (failed) {
+                transition(State.OPEN);
+            } else if (++halfOpenSucceeded >= halfOpenCalls) {
+                transition(State.CLOSED);
+            }
+        } else if (state == State.CLOSED) {
+            record(failed);
+            if (windowCount >= minimumCalls && (double) windowFailures / windowCount >= failureRateThreshold) {
+                transition(State.OPEN);
+            }
+        }
+    }
+
+    public synchronized State getState() {
+        if (state == State.OPEN && clock.getAsLong() - openedAt >= openDurationMillis) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    private void record(boolean failed) {
+        if (windowCount == window.length) {
+            if (window[windowIndex]) {
+                windowFailures--;
+            }
+        } else {
+            windowCount++;
+        }
+        window[windowIndex] = failed;
+        if (failed) {
+            windowFailures++;
+        }
+        windowIndex = (windowIndex + 1) % window.length;
+    }
+
+    private void transition(State next) {
+        state = next;
+        generation++;
+        halfOpenPermitted = 0;
+        halfOpenSucceeded = 0;
+        if (next == State.OPEN) {
+            openedAt = clock.getAsLong();
+        } else if (next == State.CLOSED) {
+            windowIndex = 0;
+            windowCount = 0;
+            windowFailures = 0;
+        }
+        transitionListener.accept(next);
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.resilience;
+
+import com.yoshio3.config.BotConfig;
+import com.yoshio3.metrics.Counter;
+import com.yoshio3.metrics.MetricsRegistry;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+/**
+ * Circuit breakers and bulkheads of the downstream dependencies.
+ *
+ * Each dependency can be configured like "resilience.luis.maxConcurrent",
+ * "resilience.luis.callTimeout", "resilience.luis.windowSize",
+ * "resilience.luis.minimumCalls", "resilience.luis.failureRate",
+ * "resilience.luis.openDuration" and "resilience.luis.halfOpenCalls".
+ *
+ * The gauge "circuit_state" is 0 (closed), 1 (open) or 2 (half open).
+ *
+ * The idempotent reads can be hedged (see {@link Hedging}). It is enabled by
+ * "resilience.luis.hedge.enabled", and configured by
+ * "resilience.luis.hedge.quantile", "resilience.luis.hedge.minDelay",
+ * "resilience.luis.hedge.maxDelay", "resilience.luis.hedge.minSamples",
+ * "resilience.luis.hedge.initialDelay", "resilience.luis.hedge.window" and
+ * "resilience.luis.hedge.budget".
+ *
+ * @author Yoshio Terada
+ */
+@ApplicationScoped
+public class Dependencies {
+
+    private final static Logger LOGGER = Logger.getLogger(Dependencies.class.getName());
+
+    /**
+     * The downstream dependencies.
+     */
+    public enum Dependency {
+        LUIS("luis", 20, 5_000),
+        JSR_SERVICE("jsr", 20, 10_000),
+        TRANSLATOR("translator", 10, 10_000),
+        BOT_FRAMEWORK("botFramework", 20, 10_000);
+
+        private final String key;
+        private final int defaultMaxConcurrent;
+        private final long defaultCallTimeout;
+
+        Dependency(String key, int defaultMaxConcurrent, long defaultCallTimeout) {
+            this.key = key;
+            this.defaultMaxConcurrent = defaultMaxConcurrent;
+            this.defaultCallTimeout = defaultCallTimeout;
+        }
+    }
+
+    @Resource
+    ManagedScheduledExecutorService scheduler;
+
+    @Inject
+    MetricsRegistry metrics;
+
+    private final Map<Dependency, DependencyGuard> guards = new EnumMap<>(Dependency.class);
+    private final Map<Dependency, Hedging> hedgings = new EnumMap<>(Dependency.class);
+
+    @PostConstruct
+    void init() {
+        for (Dependency dependency : Dependency.values()) {
+            String prefix = "resilience." + dependency.key + ".";
+            String label = dependency.name().toLowerCase(Locale.ROOT);
+            Map<CircuitBreaker.State, Counter> transitions = new EnumMap<>(CircuitBreaker.State.class);
+            for (CircuitBreaker.State state : CircuitBreaker.State.values()) {
+                transitions.put(state, metrics.counter("circuit_transitions_total",
+                        "dependency", label, "state", state.name().toLowerCase(Locale.ROOT)));
+            }
+            CircuitBreaker breaker = new CircuitBreaker(
+                    BotConfig.getInt(prefix + "windowSize", 20),
+                    BotConfig.getInt(prefix + "minimumCalls", 10),
+                    Double.parseDouble(BotConfig.get(prefix + "failureRate", "0.5")),
+                    BotConfig.getLong(prefix + "openDuration", 30_000),
+                    BotConfig.getInt(prefix + "halfOpenCalls", 3),
+                    state -> {
+                        transitions.get(state).increment();
+                        LOGGER.log(Level.WARNING, "Circuit of {0} is {1}", new Object[]{dependency, state});
+                    });
+            long callTimeout = BotConfig.getLong(prefix + "callTimeout", dependency.defaultCallTimeout);
+            DependencyGuard guard = new DependencyGuard(label, breaker,
+                    BotConfig.getInt(prefix + "maxConcurrent", dependency.defaultMaxConcurrent),
+                    callTimeout,
+                    scheduler,
+                    metrics.counter("dependency_rejected_total", "dependency", label, "reason", "circuit_open"),
+                    metrics.counter("dependency_rejected_total", "dependency", label, "reason", "bulkhead_full"));
+            guards.put(dependency, guard);
+
+            Hedging hedging = new Hedging(guard,
+                    BotConfig.getBoolean(prefix + "hedge.enabled", false),
+                    Double.parseDouble(BotConfig.get(prefix + "hedge.quantile", "0.95")),
+                    BotConfig.getLong(prefix + "hedge.minDelay", 20),
+                    BotConfig.getLong(prefix + "hedge.maxDelay", callTimeout / 2),
+                    BotConfig.getLong(prefix + "hedge.minSamples", 50),
+                    BotConfig.getLong(prefix + "hedge.initialDelay", -1),
+                    BotConfig.getLong(prefix + "hedge.window", 60_000),
+                    Double.parseDouble(BotConfig.get(prefix + "hedge.budget", "0.05")),
+                    scheduler, System::nanoTime,
+                    metrics.counter("hedge_fired_total", "dependency", label),
+                    metrics.counter("hedge_won_total", "dependency", label),
+                    metrics.counter("hedge_budget_exhausted_total", "dependency", label));
+            hedgings.put(dependency, hedging);
+            metrics.gauge("hedge_delay_ms", hedging::getDelayMillis, "dependency", label);
+
+            metrics.gauge("circuit_state", () -> guard.getState().ordinal(), "dependency", label);
+            metrics.gauge("bulkhead_in_flight", guard::getInFlight, "dependency", label);
+        }
+    }
+
+    /**
+     * @param dependency the dependency
+     * @return the circuit breaker and the bulkhead of the dependency
+     */
+    public DependencyGuard get(Dependency dependency) {
+        return guards.get(dependency);
+    }
+
+    /**
+     * @param dependency the dependency
+     * @return the hedged requests of the dependency. Only the idempotent reads
+     * can be called by it.
+     */
+    public Hedging hedging(Dependency dependency) {
+        return hedgings.get(dependency);
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.resilience;
+
+import com.yoshio3.concurrent.Futures;
+import com.yoshio3.metrics.Counter;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Circuit breaker and bulkhead of one downstream dependency.
+ *
+ * The bulkhead limits the number of the concurrent calls to the dependency,
+ * so the slow dependency can't occupy all of the threads. The permission of
+ * the bulkhead is held until the call is really finished, even if the caller
+ * gave up waiting by the timeout. The timeout is recorded as the failure to
+ * the circuit breaker.
+ *
+ * @author Yoshio Terada
+ */
+public class DependencyGuard {
+
+    private final String name;
+    private final CircuitBreaker breaker;
+    private final Semaphore bulkhead;
+    private final int maxConcurrent;
+    private final long callTimeoutMillis;
+    private final ScheduledExecutorService scheduler;
+    private final Counter rejectedByBreaker;
+    private final Counter rejectedByBulkhead;
+
+    DependencyGuard(String name, CircuitBreaker breaker, int maxConcurrent, long callTimeoutMillis,
+            ScheduledExecutorService scheduler, Counter rejectedByBreaker, Counter rejectedByBulkhead) {
+        this.name = name;
+        this.breaker = breaker;
+        this.bulkhead = new Semaphore(maxConcurrent);
+        this.maxConcurrent = maxConcurrent;
+        this.callTimeoutMillis = callTimeoutMillis;
+        this.scheduler = scheduler;
+        this.rejectedByBreaker = rejectedByBreaker;
+        this.rejectedByBulkhead = rejectedByBulkhead;
+    }
+
+    /**
+     * Call the dependency. Only the exception is recorded as the failure.
+     *
+     * @param <T> type of the result
+     * @param call the call to the dependency
+     * @return {@code CompletableFuture} of the result. It fails with
+     * {@code DependencyUnavailableException} immediately if the call is
+     * rejected.
+     */
+    public <T> CompletableFuture<T> call(Supplier<? extends CompletionStage<T>> call) {
+        return call(call, result -> false);
+    }
+
+    /**
+     * Call the dependency.
+     *
+     * @param <T> type of the result
+     * @param call the call to the dependency
+     * @param isFailure returns true if the result means the failure of the
+     * dependency (e.g. the library returned empty instead of throwing)
+     * @return {@code CompletableFuture} of the result. It fails with
+     * {@code DependencyUnavailableException} immediately if the call is
+     * rejected.
+     */
+    public <T> CompletableFuture<T> call(Supplier<? extends CompletionStage<T>> call, Predicate<? super T> isFailure) {
+        if (!bulkhead.tryAcquire()) {
+            rejectedByBulkhead.increment();
+            return Futures.failed(new DependencyUnavailableException(name + " has too many calls in flight"));
+        }
+        long generation = breaker.tryAcquire();
+        if (generation == CircuitBreaker.REJECTED) {
+            bulkhead.release();
+            rejectedByBreaker.increment();
+            return Futures.failed(new DependencyUnavailableException(name + " circuit is open"));
+        }
+
+        AtomicBoolean recorded = new AtomicBoolean();
+        CompletableFuture<T> result;
+        try {
+            result = call.get().toCompletableFuture();
+        } catch (RuntimeException e) {
+            result = Futures.failed(e);
+        }
+        result.whenComplete((value, error) -> {
+            bulkhead.release();
+            if (recorded.compareAndSet(false, true)) {
+                breaker.onResult(generation, error != null || isFailure.test(value));
+            }
+        });
+        return Futures.within(result, callTimeoutMillis, scheduler, name)
+                .whenComplete((value, error) -> {
+                    if (error != null && recorded.compareAndSet(false, true)) {
+                        breaker.onResult(generation, true);
+                    }
+                });
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public CircuitBreaker.State getState() {
+        return breaker.getState();
+    }
+
+    public int getInFlight() {
+        return maxConcurrent - bulkhead.availablePermits();
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.resilience;
+
+import com.yoshio3.metrics.Counter;
+import com.yoshio3.metrics.Histogram;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Hedged requests of the idempotent reads of the dependency.
+ *
+ * If the first attempt is not finished within the hedge delay, the second
+ * attempt is started, and the result which arrives first is used. The slower
+ * attempt is not cancelled (the blocking call can't be cancelled), its result
+ * is just ignored. Both of the attempts go through the circuit breaker and
+ * the bulkhead of the dependency.
+ *
+ * The hedge delay is the percentile (e.g. p95) of the latency of the
+ * successful attempts in the previous window (or in the current window until
+ * the previous one has enough samples), so only the requests in the tail are
+ * hedged. Until enough latency is learned, the initial delay is used instead
+ * (no hedge if it is negative, which is the default). The delay is computed
+ * at most once in a second, so the calls don't compute the percentile under
+ * the lock. The extra load is limited by the budget: each call earns the
+ * budget ratio of a hedge (e.g. 0.05), and a hedge is fired only if a whole
+ * hedge has been earned. The budget is spent only by the hedge which is
+ * actually fired.
+ *
+ * This class is thread safe.
+ *
+ * @author Yoshio Terada
+ */
+public class Hedging {
+
+    private final static long RECOMPUTE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final DependencyGuard guard;
+    private final boolean enabled;
+    private final double quantile;
+    private final long minDelayMicros;
+    private final long maxDelayMicros;
+    private final long minSamples;
+    private final long initialDelayMicros;
+    private final long windowNanos;
+    private final double budgetRatio;
+    private final double maxBudget;
+    private final ScheduledExecutorService scheduler;
+    private final LongSupplier clock;
+    private final Counter fired;
+    private final Counter won;
+    private final Counter budgetExhausted;
+
+    private final Object lock = new Object();
+    private Histogram current = new Histogram();
+    private Histogram previous = new Histogram();
+    private long windowStart;
+    private long delayMicros;
+    private long delayComputedAt;
+    private double budget;
+
+    /**
+     * @param clock current time in nanoseconds (e.g. the fake clock of the
+     * test)
+     */
+    Hedging(DependencyGuard guard, boolean enabled, double quantile, long minDelayMillis, long maxDelayMillis,
+            long minSamples, long initialDelayMillis, long windowMillis, double budgetRatio,
+            ScheduledExecutorService scheduler, LongSupplier clock,
+            Counter fired, Counter won, Counter budgetExhausted) {
+        this.guard = guard;
+        this.enabled = enabled;
+        this.quantile = quantile;
+        this.minDelayMicros = TimeUnit.MILLISECONDS.toMicros(minDelayMillis);
+        this.maxDelayMicros = TimeUnit.MILLISECONDS.toMicros(maxDelayMillis);
+        this.minSamples = minSamples;
+        this.initialDelayMicros = initialDelayMillis < 0 ? -1 : TimeUnit.MILLISECONDS.toMicros(initialDelayMillis);
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.budgetRatio = budgetRatio;
+        this.maxBudget = Math.max(1, budgetRatio * 100);
+        this.scheduler = scheduler;
+        this.clock = clock;
+        this.fired = fired;
+        this.won = won;
+        this.budgetExhausted = budgetExhausted;
+        this.windowStart = clock.getAsLong();
+        this.delayMicros = initialDelayMicros;
+        this.delayComputedAt = windowStart;
+    }
+
+    /**
+     * Call the dependency with the hedged request. Only the exception is
+     * recorded as the failure.
+     *
+     * @param <T> type of the result
+     * @param call the idempotent call to the dependency. It is called twice
+     * if the request is hedged.
+     * @return {@code CompletableFuture} of the first result
+     */
+    public <T> CompletableFuture<T> call(Supplier<? extends CompletionStage<T>> call) {
+        return call(call, result -> false);
+    }
+
+    /**
+     * Call the dependency with the hedged request.
+     *
+     * @param <T> type of the result
+     * @param call the idempotent call to the dependency. It is called twice
+     * if the request is hedged.
+     * @param isFailure returns true if the result means the failure of the
+     * dependency. The failed result is used only if the other attempt failed
+     * too.
+     * @return {@code CompletableFuture} of the first result. It fails only if
+     * all of the attempts failed.
+     */
+    public <T> CompletableFuture<T> call(Supplier<? extends CompletionStage<T>> call, Predicate<? super T> isFailure) {
+        if (!enabled) {
+            return guard.call(call, isFailure);
+        }
+        long delay = nextDelay();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicInteger attempts = new AtomicInteger(1);
+        ScheduledFuture<?> hedge = delay < 0 ? null : scheduler.schedule(() -> {
+            if (result.isDone() || !tryStartHedge(attempts)) {
+                return;
+            }
+            fired.increment();
+            attempt(call, isFailure, result, attempts, true);
+        }, delay, TimeUnit.MICROSECONDS);
+        attempt(call, isFailure, result, attempts, false);
+        if (hedge != null) {
+            result.whenComplete((value, error) -> hedge.cancel(false));
+        }
+        return result;
+    }
+
+    /**
+     * @return the current hedge delay in milliseconds, or -1 if the calls are
+     * not hedged
+     */
+    public long getDelayMillis() {
+        synchronized (lock) {
+            return delayMicros < 0 ? -1 : TimeUnit.MICROSECONDS.toMillis(delayMicros);
+        }
+    }
+
+    private <T> void attempt(Supplier<? extends CompletionStage<T>> call, Predicate<? super T> isFailure,
+            CompletableFuture<T> result, AtomicInteger attempts, boolean isHedge) {
+        long start = clock.getAsLong();
+        guard.call(call, isFailure).whenComplete((value, error) -> {
+            if (error == null && !isFailure.test(value)) {
+                record(TimeUnit.NANOSECONDS.toMicros(clock.getAsLong() - start));
+                if (result.complete(value) && isHedge) {
+                    won.increment();
+                }
+                return;
+            }
+            // Wait for the other attempt if it is still running.
+            if (attempts.decrementAndGet() == 0) {
+                if (error == null) {
+                    result.complete(value);
+                } else {
+                    result.completeExceptionally(error);
+                }
+            }
+        });
+    }
+
+    // Count the hedge as the running attempt, and take the budget only if
+    // the first attempt has not failed yet (then the hedge is fired).
+    boolean tryStartHedge(AtomicInteger attempts) {
+        synchronized (lock) {
+            if (budget >= 1) {
+                if (attempts.getAndUpdate(n -> n == 0 ? 0 : n + 1) == 0) {
+                    return false;
+                }
+                budget -= 1;
+                return true;
+            }
+        }
+        budgetExhausted.increment();
+        return false;
+    }
+
+    // Earn the budget and get the delay of the hedge in microseconds.
+    private long nextDelay() {
+        synchronized (lock) {
+            budget = Math.min(maxBudget, budget + budgetRatio);
+            long now = clock.getAsLong();
+            if (now - windowStart >= windowNanos) {
+                previous = current;
+                current = new Histogram();
+                windowStart = now;
+            }
+            if (now - delayComputedAt >= RECOMPUTE_INTERVAL_NANOS) {
+                delayComputedAt = now;
+                delayMicros = computeDelay();
+            }
+            return delayMicros;
+        }
+    }
+
+    // Must be called with the lock.
+    private long computeDelay() {
+        Histogram learned = previous.getCount() >= minSamples ? previous : current;
+        if (learned.getCount() < minSamples) {
+            return initialDelayMicros;
+        }
+        long percentile = learned.getValueAtQuantile(quantile);
+        return Math.max(minDelayMicros, Math.min(maxDelayMicros, percentile));
+    }
+
+    private void record(long micros) {
+        Histogram histogram;
+        synchronized (lock) {
+            histogram = current;
+        }
+        histogram.record(micros);
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.startup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yoshio3.JSRResultJSONMapping;
+import com.yoshio3.catalogue.NGramIndex;
+import com.yoshio3.client.JSRSearchResultReader;
+import com.yoshio3.client.JSRServiceClient;
+import com.yoshio3.concurrent.BotExecutors;
+import com.yoshio3.config.BotConfig;
+import com.yoshio3.endpoint.EndpointOverrides;
+import com.yoshio3.intent.IntentRecognizer;
+import com.yoshio3.intent.LocalIntentRecognizer;
+import com.yoshio3.intent.Utterances;
+import com.yoshio3.metrics.MetricsRegistry;
+import com.yoshio3.reply.BotConnectorClient;
+import com.yoshio3.rest.entities.bot.BotObjectMapperProvider;
+import com.yoshio3.rest.entities.bot.CommonMessageFromBotFramework;
+import com.yoshio3.translator.TranslationService;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+
+/**
+ * Prewarm the bot after the application is started.
+ *
+ * The clients of the remote services are created lazily, so the startup
+ * doesn't wait for them. This class creates them in the background on the
+ * executor of the blocking calls, and runs the local code of the message
+ * handling (the JSON binding of the message with the same mapper as JAX-RS,
+ * the local intent recognition, the n-gram search and the streaming reader of
+ * the search result) with the sample inputs, so the JIT compiles them before
+ * the first message. No remote service is called.
+ *
+ * It is enabled by "startup.prewarm.enabled". If "startup.exitAfterPrewarm"
+ * is true, the JVM exits after the prewarm. It is used by the training run of
+ * the "fast-startup" profile, which records the loaded classes for the
+ * class data sharing archive.
+ *
+ * @author Yoshio Terada
+ */
+@ApplicationScoped
+public class Prewarmer {
+
+    private final static Logger LOGGER = Logger.getLogger(Prewarmer.class.getName());
+
+    private final static List<String> SAMPLE_INPUTS = Arrays.asList(
+            "JSR 299 は何ですか？", "JSR 199 を翻訳してください", "Servlet は何に含まれますか？",
+            "jsr-366 について教えて", "Batch が入っている JSR は？", "もっと見る", "こんにちは");
+    private final static String SAMPLE_MESSAGE = "{\"type\":\"message\",\"id\":\"prewarm\","
+            + "\"timestamp\":\"2017-06-01T05:12:39.612Z\",\"serviceUrl\":\"http://localhost/\",\"channelId\":\"skype\","
+            + "\"from\":{\"id\":\"prewarm\",\"name\":\"prewarm\"},\"conversation\":{\"id\":\"prewarm\"},"
+            + "\"recipient\":{\"id\":\"bot\",\"name\":\"jsrbot\"},\"text\":\"%s\"}";
+
+    @Inject
+    BotExecutors executors;
+
+    @Inject
+    MetricsRegistry metrics;
+
+    @Inject
+    IntentRecognizer intentRecognizer;
+
+    @Inject
+    TranslationService translationService;
+
+    @Inject
+    JSRServiceClient jsrServiceClient;
+
+    @Inject
+    EndpointOverrides endpointOverrides;
+
+    @Inject
+    BotConnectorClient botConnector;
+
+    private volatile long prewarmMillis = -1;
+
+    /**
+     * Start the prewarm in the background when the application is started.
+     *
+     * @param event the event of the application start
+     */
+    void onStartup(@Observes @Initialized(ApplicationScoped.class) Object event) {
+        metrics.gauge("startup_prewarm_ms", () -> prewarmMillis);
+        if (!BotConfig.getBoolean("startup.prewarm.enabled", false)) {
+            return;
+        }
+        // The prewarm takes seconds, so it must not hold the thread of the
+        // scheduler which runs the timeouts and the retries.
+        executors.blocking().execute(this::prewarm);
+    }
+
+    private void prewarm() {
+        long start = System.nanoTime();
+        try {
+            prewarmClients();
+            prewarmLocalPaths(BotConfig.getInt("startup.prewarm.iterations", 2_000));
+        } catch (RuntimeException | IOException e) {
+            LOGGER.log(Level.WARNING, "Could not prewarm the bot", e);
+        }
+        prewarmMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        LOGGER.log(Level.INFO, "Prewarmed in {0}ms", prewarmMillis);
+        if (BotConfig.getBoolean("startup.exitAfterPrewarm", false)) {
+            LOGGER.log(Level.INFO, "Exit after the prewarm (training run)");
+            System.exit(0);
+        }
+    }
+
+    private void prewarmClients() {
+        jsrServiceClient.prewarm();
+        endpointOverrides.prewarm();
+        botConnector.prewarm();
+        intentRecognizer.prewarm();
+        translationService.prewarm();
+    }
+
+    private void prewarmLocalPaths(int iterations) throws IOException {
+        ObjectMapper mapper = new BotObjectMapperProvider().getContext(CommonMessageFromBotFramework.class);
+        LocalIntentRecognizer recognizer = new LocalIntentRecognizer();
+        List<JSRResultJSONMapping> jsrs = sampleJSRs();
+        NGramIndex index = new NGramIndex(jsrs);
+        byte[] searchResult = mapper.writeValueAsBytes(jsrs);
+
+        int found = 0;
+        for (int i = 0; i < iterations; i++) {
+            String input = SAMPLE_INPUTS.get(i % SAMPLE_INPUTS.size());
+            CommonMessageFromBotFramework message = mapper.readValue(
+                    String.format(SAMPLE_MESSAGE, input), CommonMessageFromBotFramework.class);
+            String utterance = Utterances.normalize(message.getText());
+            if (recognizer.recognize(utterance).isPresent()) {
+                found++;
+            }
+            found += index.search(i % 2 == 0 ? "servlet" : "バッチ").size();
+            found += JSRSearchResultReader.read(new ByteArrayInputStream(searchResult), summary -> summary).size();
+        }
+        LOGGER.log(Level.FINE, "Prewarm results : {0}", found);
+    }
+
+    private static List<JSRResultJSONMapping> sampleJSRs() {
+        String[][] samples = {
+            {"369", "Java Servlet 4.0 Specification", "This JSR will define the Java Servlet 4.0 specification."},
+            {"352", "Batch Applications for the Java Platform", "This JSR specifies a programming model for batch applications."},
+            {"366", "Java Platform, Enterprise Edition 8 Specification", "This JSR is to develop Java EE 8."},
+            {"365", "Contexts and Dependency Injection for Java 2.0", "This JSR is to develop CDI 2.0."}};
+        List<JSRResultJSONMapping> jsrs = new ArrayList<>();
+        for (String[] sample : samples) {
+            JSRResultJSONMapping jsr = new JSRResultJSONMapping(Long.valueOf(sample[0]));
+            jsr.setJsrId(Integer.valueOf(sample[0]));
+            jsr.setNameOfJsr(sample[1]);
+            jsr.setDescription(sample[2]);
+            jsrs.add(jsr);
+        }
+        return jsrs;
+    }
+}
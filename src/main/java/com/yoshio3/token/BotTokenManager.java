@@ -0,0 +1,125 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.token;
+
+import com.yoshio3.cluster.ClusterCache;
+import com.yoshio3.cluster.SharedTokenSource;
+import com.yoshio3.config.BotConfig;
+import com.yoshio3.endpoint.EndpointOverrides;
+import com.yoshio3.metrics.MetricsRegistry;
+import com.yoshio3.services.AccessTokenForBotService;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.NotAuthorizedException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+
+/**
+ * Manager of the OAuth access token for the Bot Framework.
+ *
+ * The token is shared by all of the outgoing messages until shortly before it
+ * expires, and it is refreshed in the background. If the Bot Framework
+ * rejects the token, it is refreshed only once and the call is retried. The
+ * token is shared by the instances of the bot in the cluster only if
+ * "cluster.shareTokens" is true (see {@code ClusterCache}).
+ *
+ * @author Yoshio Terada
+ */
+@ApplicationScoped
+public class BotTokenManager {
+
+    private final static Logger LOGGER = Logger.getLogger(BotTokenManager.class.getName());
+
+    @Resource
+    ManagedScheduledExecutorService scheduler;
+
+    @Inject
+    MetricsRegistry metrics;
+
+    @Inject
+    ClusterCache clusterCache;
+
+    @Inject
+    EndpointOverrides endpointOverrides;
+
+    private SharedTokenSource tokenSource;
+    private TokenHolder tokenHolder;
+
+    @PostConstruct
+    void init() {
+        long validity = BotConfig.getLong("bot.token.validity", 60 * 60 * 1000L);
+        long refreshAhead = BotConfig.getLong("bot.token.refreshAhead", 5 * 60 * 1000L);
+        tokenSource = clusterCache.sharedToken("bot-framework",
+                () -> Optional.ofNullable(endpointOverrides.hasBotFramework()
+                        ? endpointOverrides.getBotAccessToken()
+                        : AccessTokenForBotService.getAccesToken()), validity, refreshAhead);
+        tokenHolder = TokenHolder.ofIssuedTokens("Bot Framework", tokenSource, validity, refreshAhead, scheduler);
+
+        metrics.gauge("bot_token_age_ms", tokenHolder::getTokenAge);
+        metrics.gauge("bot_token_refresh_latency_ms", tokenHolder::getLastRefreshLatency);
+        metrics.counter("bot_token_refreshes_total", tokenHolder::getRefreshCount);
+        metrics.counter("bot_token_refresh_failures_total", tokenHolder::getFailureCount);
+    }
+
+    /**
+     * Call the Bot Framework with the access token.
+     *
+     * If the call is rejected with 401, the token is refreshed and the call
+     * is retried only once.
+     *
+     * @param call the call to the Bot Framework which uses the token
+     * @throws TokenUnavailableException if the token could not be got, or
+     * could not be refreshed after it was rejected. The call was not made (or
+     * was rejected), so the caller must treat it as the failure.
+     */
+    public void withToken(Consumer<String> call) {
+        Optional<String> token = tokenHolder.getToken();
+        if (!token.isPresent()) {
+            LOGGER.log(Level.SEVERE, "Could not get the access token for the Bot Framework");
+            throw new TokenUnavailableException("Could not get the access token for the Bot Framework");
+        }
+        try {
+            call.accept(token.get());
+        } catch (WebApplicationException e) {
+            if (!isUnauthorized(e)) {
+                throw e;
+            }
+            metrics.counter("bot_token_rejected_total").increment();
+            tokenSource.invalidate(token.get());
+            Optional<String> refreshed = tokenHolder.refresh(token.get());
+            if (!refreshed.isPresent()) {
+                LOGGER.log(Level.SEVERE, "Could not refresh the access token for the Bot Framework");
+                throw new TokenUnavailableException("Could not refresh the rejected access token for the Bot Framework", e);
+            }
+            call.accept(refreshed.get());
+        }
+    }
+
+    private boolean isUnauthorized(WebApplicationException e) {
+        if (e instanceof NotAuthorizedException) {
+            return true;
+        }
+        Response response = e.getResponse();
+        return response != null && response.getStatus() == Response.Status.UNAUTHORIZED.getStatusCode();
+    }
+}
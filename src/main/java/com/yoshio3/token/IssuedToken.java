@@ -0,0 +1,73 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.token;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Access token with the time when it was issued.
+ *
+ * The token can be shared between the instances of the bot, so it is
+ * serializable.
+ *
+ * @author Yoshio Terada
+ */
+public class IssuedToken implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String value;
+    private final long issuedAt;
+
+    public IssuedToken(String value, long issuedAt) {
+        this.value = value;
+        this.issuedAt = issuedAt;
+    }
+
+    /**
+     * @param value the token which was just fetched
+     * @return the token issued now
+     */
+    public static IssuedToken now(String value) {
+        return new IssuedToken(value, System.currentTimeMillis());
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public long getIssuedAt() {
+        return issuedAt;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(value, issuedAt);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        final IssuedToken other = (IssuedToken) obj;
+        return this.issuedAt == other.issuedAt && Objects.equals(this.value, other.value);
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.token;
+
+import com.yoshio3.metrics.Counter;
+import java.util.Optional;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Holder of the access token which is valid for a while.
+ *
+ * The token is fetched at the first call, and after that it is refreshed in
+ * the background shortly before it expires. So the callers usually get the
+ * token without any remote call. Only one thread fetches the token at the
+ * same time. The fetch is guarded by {@code ReentrantLock} instead of
+ * {@code synchronized}, so the virtual thread which waits for the fetch
+ * doesn't pin its carrier thread.
+ *
+ * @author Yoshio Terada
+ */
+public class TokenHolder {
+
+    private final static Logger LOGGER = Logger.getLogger(TokenHolder.class.getName());
+
+    private final static long RETRY_INTERVAL = 30_000;
+
+    private final String name;
+    private final Supplier<Optional<IssuedToken>> tokenSource;
+    private final long validityMillis;
+    private final long refreshAheadMillis;
+    private final ScheduledExecutorService scheduler;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private volatile Token current;
+    private ScheduledFuture<?> nextRefresh;
+
+    private final Counter refreshes = new Counter();
+    private final Counter failures = new Counter();
+    private volatile long lastRefreshLatency;
+
+    /**
+     * @param name name of the token (for logging)
+     * @param tokenSource fetch the new token from the remote service
+     * @param validityMillis how long the token is valid
+     * @param refreshAheadMillis how long before the expiration the token is
+     * refreshed
+     * @param scheduler scheduler of the background refresh
+     */
+    public TokenHolder(String name, Supplier<Optional<String>> tokenSource, long validityMillis,
+            long refreshAheadMillis, ScheduledExecutorService scheduler) {
+        this(name, validityMillis, refreshAheadMillis, scheduler, () -> tokenSource.get().map(IssuedToken::now));
+    }
+
+    private TokenHolder(String name, long validityMillis, long refreshAheadMillis,
+            ScheduledExecutorService scheduler, Supplier<Optional<IssuedToken>> tokenSource) {
+        this.name = name;
+        this.tokenSource = tokenSource;
+        this.validityMillis = validityMillis;
+        this.refreshAheadMillis = Math.min(refreshAheadMillis, validityMillis / 2);
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Create the holder of the token which may have been issued before (e.g.
+     * by the other instance of the bot). The token expires at the issued time
+     * plus the validity, not at the fetched time.
+     *
+     * @param name name of the token (for logging)
+     * @param tokenSource get the token with the time when it was issued
+     * @param validityMillis how long the token is valid
+     * @param refreshAheadMillis how long before the expiration the token is
+     * refreshed
+     * @param scheduler scheduler of the background refresh
+     * @return the holder of the token
+     */
+    public static TokenHolder ofIssuedTokens(String name, Supplier<Optional<IssuedToken>> tokenSource,
+            long validityMillis, long refreshAheadMillis, ScheduledExecutorService scheduler) {
+        return new TokenHolder(name, validityMillis, refreshAheadMillis, scheduler, tokenSource);
+    }
+
+    /**
+     * Get the valid token. If there is no valid token, it is fetched in the
+     * caller thread.
+     *
+     * @return {@code Optional} of the token. It is empty if the token could
+     * not be fetched.
+     */
+    public Optional<String> getToken() {
+        Token token = current;
+        if (token != null && !token.isExpired()) {
+            return Optional.of(token.value);
+        }
+        lock.lock();
+        try {
+            token = current;
+            if (token != null && !token.isExpired()) {
+                return Optional.of(token.value);
+            }
+            return fetch().map(fetched -> fetched.value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Refresh the token which was rejected by the service.
+     *
+     * When several threads got the rejection of the same token, only the
+     * first one fetches the new token and the others use it.
+     *
+     * @param rejectedToken the token which was rejected
+     * @return {@code Optional} of the new token. It is empty if the token
+     * could not be fetched.
+     */
+    public Optional<String> refresh(String rejectedToken) {
+        lock.lock();
+        try {
+            Token token = current;
+            if (token != null && !token.isExpired() && !token.value.equals(rejectedToken)) {
+                return Optional.of(token.value);
+            }
+            LOGGER.log(Level.INFO, "The token of {0} was rejected, refresh it", name);
+            return fetch().map(fetched -> fetched.value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return elapsed milliseconds since the current token was fetched. -1 if
+     * there is no token.
+     */
+    public long getTokenAge() {
+        Token token = current;
+        return token == null ? -1 : System.currentTimeMillis() - token.issuedAt;
+    }
+
+    /**
+     * @return milliseconds which the last fetch of the token took
+     */
+    public long getLastRefreshLatency() {
+        return lastRefreshLatency;
+    }
+
+    public long getRefreshCount() {
+        return refreshes.get();
+    }
+
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    // Must be called with the lock.
+    private Optional<Token> fetch() {
+        Optional<IssuedToken> fetched;
+        long start = System.nanoTime();
+        try {
+            fetched = tokenSource.get();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Could not get the token of " + name, e);
+            fetched = Optional.empty();
+        }
+        lastRefreshLatency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (!fetched.isPresent()) {
+            failures.increment();
+            scheduleRefresh(RETRY_INTERVAL);
+            return Optional.empty();
+        }
+        refreshes.increment();
+        long issuedAt = fetched.get().getIssuedAt();
+        Token token = new Token(fetched.get().getValue(), issuedAt, issuedAt + validityMillis);
+        current = token;
+        scheduleRefresh(Math.max(token.expiresAt - refreshAheadMillis - System.currentTimeMillis(), 0));
+        return Optional.of(token);
+    }
+
+    private void scheduleRefresh(long delayMillis) {
+        if (nextRefresh != null) {
+            nextRefresh.cancel(false);
+        }
+        nextRefresh = scheduler.schedule(this::refreshInBackground, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void refreshInBackground() {
+        lock.lock();
+        try {
+            Token token = current;
+            if (token != null && token.expiresAt - System.currentTimeMillis() > refreshAheadMillis) {
+                // Already refreshed by the caller thread.
+                return;
+            }
+            LOGGER.log(Level.FINE, "Refresh the token of {0}", name);
+            fetch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static class Token {
+
+        private final String value;
+        private final long issuedAt;
+        private final long expiresAt;
+
+        Token(String value, long issuedAt, long expiresAt) {
+            this.value = value;
+            this.issuedAt = issuedAt;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() >= expiresAt;
+        }
+    }
+}
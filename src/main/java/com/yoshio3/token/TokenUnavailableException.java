@@ -0,0 +1,35 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.token;
+
+/**
+ * It will be thrown when the access token could not be got (or refreshed
+ * after it was rejected), so the call which needs it was not made.
+ *
+ * @author Yoshio Terada
+ */
+public class TokenUnavailableException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public TokenUnavailableException(String message) {
+        super(message);
+    }
+
+    public TokenUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.translator;
+
+import com.yoshio3.cache.ExpiringLruCache;
+import com.yoshio3.cluster.ClusterCache;
+import com.yoshio3.concurrent.BotExecutors;
+import com.yoshio3.concurrent.Futures;
+import com.yoshio3.concurrent.Lazy;
+import com.yoshio3.config.BotConfig;
+import com.yoshio3.endpoint.EndpointOverrides;
+import com.yoshio3.metrics.MetricsRegistry;
+import com.yoshio3.resilience.Dependencies;
+import com.yoshio3.resilience.Dependencies.Dependency;
+import com.yoshio3.services.TranslatorTextServices;
+import com.yoshio3.token.TokenHolder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+/**
+ * Translate the JSR description from English to Japanese.
+ *
+ * The access token of the Translator is shared by all of the requests and
+ * refreshed in the background. The translated text is cached by the JSR
+ * number, the hash of the description and the target language, so the same
+ * description is translated only once. The translations are also shared by
+ * the instances of the bot in the cluster, and so is the access token if
+ * "cluster.shareTokens" is true.
+ *
+ * @author Yoshio Terada
+ */
+@ApplicationScoped
+public class TranslationService {
+
+    private final static Logger LOGGER = Logger.getLogger(TranslationService.class.getName());
+
+    // TranslatorTextServices#translateEnglish always translates to Japanese.
+    private final static String TARGET_LANGUAGE = "ja";
+
+    @Inject
+    BotExecutors executors;
+
+    @Resource
+    ManagedScheduledExecutorService scheduler;
+
+    @Inject
+    MetricsRegistry metrics;
+
+    @Inject
+    Dependencies dependencies;
+
+    @Inject
+    ClusterCache clusterCache;
+
+    @Inject
+    EndpointOverrides endpointOverrides;
+
+    // TranslatorTextServices doesn't have any state, so one instance is shared.
+    // It is created on the first call or by the prewarm.
+    private final Lazy<TranslatorTextServices> translator = Lazy.of(TranslatorTextServices::new);
+
+    private TokenHolder tokenHolder;
+    private ExpiringLruCache<TranslationKey, String> cache;
+    private long ttl;
+
+    @PostConstruct
+    void init() {
+        long validity = BotConfig.getLong("translator.token.validity", 10 * 60 * 1000L);
+        long refreshAhead = BotConfig.getLong("translator.token.refreshAhead", 2 * 60 * 1000L);
+        tokenHolder = TokenHolder.ofIssuedTokens("Translator",
+                clusterCache.sharedToken("translator", this::getAccessToken, validity, refreshAhead),
+                validity, refreshAhead, scheduler);
+        ttl = BotConfig.getLong("translator.cache.ttl", 24 * 60 * 60 * 1000L);
+        cache = new ExpiringLruCache<>(BotConfig.getInt("translator.cache.maxSize", 1_000), value -> ttl);
+
+        metrics.gauge("translation_cache_size", cache::size);
+        metrics.counter("translation_cache_hits_total", cache::getHitCount);
+        metrics.counter("translation_cache_misses_total", cache::getMissCount);
+        metrics.counter("translation_cache_evictions_total", cache::getEvictionCount);
+    }
+
+    /**
+     * Translate the description of the JSR to Japanese.
+     *
+     * The Translator is called on the executor of the blocking calls, so the
+     * caller thread doesn't wait for it.
+     *
+     * @param jsrNumber JSR number
+     * @param englishDescription description of the JSR
+     * @return {@code CompletableFuture} of the translated text. It is empty
+     * if it could not be translated.
+     */
+    public CompletableFuture<Optional<String>> translate(Integer jsrNumber, String englishDescription) {
+        return translate(jsrNumber, englishDescription, null);
+    }
+
+    /**
+     * Translate the description of the JSR to Japanese with the access token
+     * which was requested before (see {@link #prefetchToken()}).
+     *
+     * @param jsrNumber JSR number
+     * @param englishDescription description of the JSR
+     * @param token {@code CompletableFuture} of the access token. If it is
+     * null, the token is fetched only when the Translator is called.
+     * @return {@code CompletableFuture} of the translated text. It is empty
+     * if it could not be translated.
+     */
+    public CompletableFuture<Optional<String>> translate(Integer jsrNumber, String englishDescription,
+            CompletableFuture<Optional<String>> token) {
+        TranslationKey key = new TranslationKey(jsrNumber, hash(englishDescription), TARGET_LANGUAGE);
+        return cache.get(key, k -> clusterCache.<String>get(ClusterCache.TRANSLATIONS, k.toString())
+                .thenCompose(shared -> shared.isPresent()
+                        ? CompletableFuture.completedFuture(shared.get())
+                        : callTranslator(k, englishDescription, token)))
+                .thenApply(Optional::ofNullable)
+                .exceptionally(error -> {
+                    LOGGER.log(Level.SEVERE, "Could not translate JSR " + jsrNumber, Futures.unwrap(error));
+                    return Optional.empty();
+                });
+    }
+
+    private CompletableFuture<String> callTranslator(TranslationKey key, String englishDescription,
+            CompletableFuture<Optional<String>> token) {
+        return dependencies.get(Dependency.TRANSLATOR).call(() -> (token != null ? token : prefetchToken())
+                .thenApplyAsync(accessToken -> accessToken
+                        .map(value -> endpointOverrides.hasTranslator()
+                                ? endpointOverrides.translateEnglish(englishDescription, value)
+                                : translator.get().translateEnglish(englishDescription, value))
+                        .orElse(null), executors.blocking()), Objects::isNull)
+                .thenApply(translated -> {
+                    if (translated != null) {
+                        clusterCache.put(ClusterCache.TRANSLATIONS, key.toString(), translated, ttl);
+                    }
+                    return translated;
+                });
+    }
+
+    /**
+     * Start getting the access token of the Translator on the executor of the
+     * blocking calls. It doesn't depend on the JSR, so it can be requested
+     * while the JSR is fetched.
+     *
+     * @return {@code CompletableFuture} of the access token
+     */
+    public CompletableFuture<Optional<String>> prefetchToken() {
+        return CompletableFuture.supplyAsync(tokenHolder::getToken, executors.blocking());
+    }
+
+    /**
+     * Create the client of the Translator before the first call.
+     */
+    public void prewarm() {
+        if (!endpointOverrides.hasTranslator()) {
+            translator.get();
+        }
+    }
+
+    /**
+     * Get the cached translation without calling the Translator.
+     *
+     * @param jsrNumber JSR number
+     * @param englishDescription description of the JSR
+     * @return {@code Optional} of the translated text
+     */
+    public Optional<String> getIfCached(Integer jsrNumber, String englishDescription) {
+        return cache.getIfPresent(new TranslationKey(jsrNumber, hash(englishDescription), TARGET_LANGUAGE));
+    }
+
+    /**
+     * Put the translation which was made before (e.g. read from the snapshot
+     * file) to the cache.
+     *
+     * @param jsrNumber JSR number
+     * @param englishDescription description of the JSR
+     * @param translated translated text
+     */
+    public void preload(Integer jsrNumber, String englishDescription, String translated) {
+        cache.put(new TranslationKey(jsrNumber, hash(englishDescription), TARGET_LANGUAGE), translated);
+    }
+
+    private Optional<String> getAccessToken() {
+        return endpointOverrides.hasTranslator()
+                ? endpointOverrides.getAccessTokenForTranslator()
+                : translator.get().getAccessTokenForTranslator();
+    }
+
+    private static String hash(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] bytes = digest.digest(String.valueOf(text).getBytes(StandardCharsets.UTF_8));
+            StringBuilder builder = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                builder.append(String.format("%02x", b));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class TranslationKey {
+
+        private final Integer jsrNumber;
+        private final String descriptionHash;
+        private final String language;
+
+        TranslationKey(Integer jsrNumber, String descriptionHash, String language) {
+            this.jsrNumber = jsrNumber;
+            this.descriptionHash = descriptionHash;
+            this.language = language;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(jsrNumber, descriptionHash, language);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            final TranslationKey other = (TranslationKey) obj;
+            return Objects.equals(this.jsrNumber, other.jsrNumber)
+                    && Objects.equals(this.descriptionHash, other.descriptionHash)
+                    && Objects.equals(this.language, other.language);
+        }
+
+        @Override
+        public String toString() {
+            return jsrNumber + ":" + descriptionHash + ":" + language;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3;
+
+import com.yoshio3.cache.JSRDetailCache;
+import com.yoshio3.intent.Intent;
+import com.yoshio3.intent.RecognizedIntent;
+import com.yoshio3.metrics.PipelineMetrics;
+import com.yoshio3.reply.OutboundQueue;
+import com.yoshio3.rest.entities.bot.BotObjectMapperProvider;
+import com.yoshio3.rest.entities.bot.CommonMessageFromBotFramework;
+import com.yoshio3.rest.entities.bot.MessageFromBotFrameWork;
+import com.yoshio3.translator.TranslationService;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.enterprise.concurrent.Trigger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the translation replies.
+ *
+ * @author Yoshio Terada
+ */
+public class BotMessageReceiverTest {
+
+    private final BotMessageReceiver receiver = new BotMessageReceiver();
+    private final ManualScheduler scheduler = new ManualScheduler();
+    private final List<String> replies = new ArrayList<>();
+    private CompletableFuture<Optional<String>> translation;
+
+    @Before
+    public void setUp() {
+        receiver.scheduler = scheduler;
+        receiver.jsrDetailCache = new JSRDetailCache() {
+            @Override
+            public CompletableFuture<Optional<JSRResultJSONMapping>> findByNumber(Integer jsrNumber) {
+                JSRResultJSONMapping jsr = new JSRResultJSONMapping(Long.valueOf(jsrNumber));
+                jsr.setJsrId(jsrNumber);
+                jsr.setDescription("This JSR is to develop Java EE 8.");
+                return CompletableFuture.completedFuture(Optional.of(jsr));
+            }
+        };
+        receiver.translationService = new TranslationService() {
+            @Override
+            public CompletableFuture<Optional<String>> prefetchToken() {
+                return CompletableFuture.completedFuture(Optional.of("token"));
+            }
+
+            @Override
+            public CompletableFuture<Optional<String>> translate(Integer jsrNumber, String englishDescription,
+                    CompletableFuture<Optional<String>> token) {
+                return translation;
+            }
+        };
+        // The metrics are not the subject of this test.
+        receiver.pipelineMetrics = new PipelineMetrics() {
+            @Override
+            public <T> CompletableFuture<T> time(Stage stage, Intent intent, CompletableFuture<T> future) {
+                return future;
+            }
+
+            @Override
+            public void budgetExceeded(Intent intent) {
+            }
+        };
+        receiver.outboundQueue = new OutboundQueue() {
+            @Override
+            public CompletableFuture<Void> send(MessageFromBotFrameWork requestMessage, String text, Transport transport) {
+                replies.add(text);
+                return CompletableFuture.completedFuture(null);
+            }
+        };
+    }
+
+    private static MessageFromBotFrameWork message() throws IOException {
+        return new BotObjectMapperProvider().getContext(CommonMessageFromBotFramework.class).readValue(
+                "{\"type\":\"message\",\"id\":\"m1\",\"conversation\":{\"id\":\"c1\"},"
+                + "\"text\":\"JSR 366 を翻訳してください\"}", CommonMessageFromBotFramework.class);
+    }
+
+    private CompletableFuture<Void> translate() throws IOException {
+        return receiver.translateEnglish(message(), new RecognizedIntent(Intent.TRANSLATE, 366, null));
+    }
+
+    @Test
+    public void sendsTheTranslationWithinTheBudget() throws IOException {
+        translation = CompletableFuture.completedFuture(Optional.of("Java EE 8 を開発します。"));
+        translate().join();
+        assertEquals(1, replies.size());
+        assertTrue(replies.get(0), replies.get(0).startsWith("JSR 366 の日本語訳は 「Java EE 8 を開発します。」 です。"));
+    }
+
+    @Test
+    public void tellsTheUserIfItCouldNotBeTranslatedWithinTheBudget() throws IOException {
+        translation = CompletableFuture.completedFuture(Optional.empty());
+        translate().join();
+        assertEquals(Arrays.asList("対象の JSR を翻訳できませんでした"), replies);
+    }
+
+    @Test
+    public void sendsTheFollowUpIfItCouldNotBeTranslatedAfterThePartialAnswer() throws IOException {
+        translation = new CompletableFuture<>();
+        CompletableFuture<Void> handled = translate();
+        // The latency budget runs out before the timeout of the Translator.
+        scheduler.runNext();
+        assertEquals(1, replies.size());
+        assertTrue(replies.get(0), replies.get(0).endsWith("日本語訳は準備中です。少々お待ちください。"));
+
+        // The Translator timed out.
+        scheduler.runNext();
+        handled.join();
+        assertEquals(2, replies.size());
+        assertEquals("翻訳できませんでした", replies.get(1));
+    }
+
+    /**
+     * Runs the scheduled tasks only when the test asks, in the order of the
+     * delay.
+     */
+    private static class ManualScheduler extends ScheduledThreadPoolExecutor implements ManagedScheduledExecutorService {
+
+        private final List<Task<?>> tasks = new ArrayList<>();
+
+        ManualScheduler() {
+            super(1);
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            return schedule(() -> {
+                command.run();
+                return null;
+            }, delay, unit);
+        }
+
+        @Override
+        public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+            Task<V> task = new Task<>(callable, unit.toNanos(delay));
+            tasks.add(task);
+            return task;
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, Trigger trigger) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <V> ScheduledFuture<V> schedule(Callable<V> callable, Trigger trigger) {
+            throw new UnsupportedOperationException();
+        }
+
+        void runNext() {
+            Task<?> next = tasks.stream()
+                    .min(Comparator.comparingLong(task -> task.delay))
+                    .orElseThrow(() -> new AssertionError("Nothing is scheduled"));
+            tasks.remove(next);
+            next.run();
+        }
+
+        private class Task<V> extends FutureTask<V> implements ScheduledFuture<V> {
+
+            private final long delay;
+
+            Task(Callable<V> callable, long delay) {
+                super(callable);
+                this.delay = delay;
+            }
+
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                tasks.remove(this);
+                return super.cancel(mayInterruptIfRunning);
+            }
+
+            @Override
+            public long getDelay(TimeUnit unit) {
+                return unit.convert(delay, TimeUnit.NANOSECONDS);
+            }
+
+            @Override
+            public int compareTo(Delayed other) {
+                return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+            }
+        }
+    }
+}
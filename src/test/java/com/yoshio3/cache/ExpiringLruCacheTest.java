@@ -0,0 +1,151 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.cache;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * @author Yoshio Terada
+ */
+public class ExpiringLruCacheTest {
+
+    private final AtomicLong now = new AtomicLong(1_000);
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private ExpiringLruCache<String, Optional<String>> newCache(int maxSize) {
+        // "Not found" is cached for the shorter time like JSRDetailCache.
+        return new ExpiringLruCache<>(maxSize, value -> value.isPresent() ? 100 : 10, now::get);
+    }
+
+    private CompletableFuture<Optional<String>> load(String key) {
+        loads.incrementAndGet();
+        return CompletableFuture.completedFuture(key.startsWith("missing") ? Optional.empty() : Optional.of(key.toUpperCase()));
+    }
+
+    @Test
+    public void cachesTheLoadedValueUntilTheTtl() {
+        ExpiringLruCache<String, Optional<String>> cache = newCache(10);
+        assertEquals(Optional.of("A"), cache.get("a", this::load).join());
+        assertEquals(Optional.of("A"), cache.get("a", this::load).join());
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getHitCount());
+
+        now.addAndGet(100);
+        assertFalse(cache.getIfPresent("a").isPresent());
+        cache.get("a", this::load).join();
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void negativeEntryExpiresWithItsOwnTtl() {
+        ExpiringLruCache<String, Optional<String>> cache = newCache(10);
+        assertEquals(Optional.empty(), cache.get("missing", this::load).join());
+        now.addAndGet(9);
+        assertEquals(Optional.of(Optional.empty()), cache.getIfPresent("missing"));
+        now.addAndGet(1);
+        assertFalse(cache.getIfPresent("missing").isPresent());
+    }
+
+    @Test
+    public void valueWithoutTtlIsNotCached() {
+        ExpiringLruCache<String, String> cache = new ExpiringLruCache<>(10, value -> 0, now::get);
+        cache.put("a", "A");
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedEntry() {
+        ExpiringLruCache<String, Optional<String>> cache = newCache(2);
+        cache.get("a", this::load).join();
+        cache.get("b", this::load).join();
+        // "a" is used, so "b" is the eldest.
+        cache.getIfPresent("a");
+        cache.get("c", this::load).join();
+
+        assertEquals(2, cache.size());
+        assertTrue(cache.getIfPresent("a").isPresent());
+        assertFalse(cache.getIfPresent("b").isPresent());
+        assertTrue(cache.getIfPresent("c").isPresent());
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void concurrentMissesShareOneLoad() {
+        ExpiringLruCache<String, Optional<String>> cache = newCache(10);
+        CompletableFuture<Optional<String>> pending = new CompletableFuture<>();
+        CompletableFuture<Optional<String>> first = cache.get("a", key -> {
+            loads.incrementAndGet();
+            return pending;
+        });
+        CompletableFuture<Optional<String>> second = cache.get("a", this::load);
+
+        assertSame(first, second);
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getCoalescedCount());
+
+        pending.complete(Optional.of("A"));
+        assertEquals(Optional.of("A"), second.join());
+        assertEquals(Optional.of(Optional.of("A")), cache.getIfPresent("a"));
+    }
+
+    @Test
+    public void failureIsNotCached() {
+        ExpiringLruCache<String, Optional<String>> cache = newCache(10);
+        CompletableFuture<Optional<String>> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IllegalStateException("down"));
+        assertTrue(cache.get("a", key -> failed).isCompletedExceptionally());
+
+        assertEquals(Optional.of("A"), cache.get("a", this::load).join());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void valueLoadedDuringTheInvalidationIsNotCached() {
+        ExpiringLruCache<String, Optional<String>> cache = newCache(10);
+        CompletableFuture<Optional<String>> stale = new CompletableFuture<>();
+        CompletableFuture<Optional<String>> first = cache.get("a", key -> stale);
+
+        cache.invalidate("a");
+        // The next call doesn't join the stale load.
+        assertEquals(Optional.of("A"), cache.get("a", this::load).join());
+        assertEquals(1, loads.get());
+
+        stale.complete(Optional.of("OLD"));
+        assertEquals(Optional.of("OLD"), first.join());
+        assertEquals(Optional.of(Optional.of("A")), cache.getIfPresent("a"));
+    }
+
+    @Test
+    public void invalidateAllDropsTheLoadsInFlight() {
+        ExpiringLruCache<String, Optional<String>> cache = newCache(10);
+        CompletableFuture<Optional<String>> stale = new CompletableFuture<>();
+        cache.get("a", key -> stale);
+        cache.get("b", this::load).join();
+
+        cache.invalidateAll();
+        stale.complete(Optional.of("OLD"));
+        assertEquals(0, cache.size());
+        assertFalse(cache.getIfPresent("a").isPresent());
+    }
+}
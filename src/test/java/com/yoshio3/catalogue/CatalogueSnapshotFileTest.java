@@ -0,0 +1,184 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.catalogue;
+
+import com.yoshio3.JSRResultJSONMapping;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Yoshio Terada
+ */
+public class CatalogueSnapshotFileTest {
+
+    // Offsets in the header.
+    private final static int VERSION_OFFSET = 4;
+    private final static int HEADER_SIZE = 28;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path path;
+    private CatalogueSnapshotFile file;
+
+    @Before
+    public void setUp() {
+        path = folder.getRoot().toPath().resolve("catalogue.bin");
+        file = new CatalogueSnapshotFile(path);
+    }
+
+    private static JSRResultJSONMapping fullJSR() {
+        JSRResultJSONMapping jsr = new JSRResultJSONMapping(369L);
+        jsr.setJsrId(369);
+        jsr.setNameOfJsr("Java Servlet 4.0 Specification");
+        jsr.setDescription("HTTP/2 をサポートする");
+        jsr.setReason("Servlet の更新");
+        jsr.setSpecLeads(new String[]{"Ed Burns", "寺田 佳央"});
+        jsr.setStartDate(new Date(1_400_000_000_000L));
+        jsr.setEndDate(new Date(1_500_000_000_000L));
+        jsr.setEffectiveDate(new Date(1_450_000_000_000L));
+        jsr.setLatestStage("Final");
+        jsr.setCurrentStatus("Active");
+        return jsr;
+    }
+
+    private void writeSample() throws IOException {
+        Map<Integer, String> translations = new HashMap<>();
+        translations.put(369, "HTTP/2 support");
+        file.write(Arrays.asList(fullJSR(), new JSRResultJSONMapping()), translations);
+    }
+
+    private void overwrite(long position, byte[] bytes) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(path.toFile(), "rw")) {
+            raf.seek(position);
+            raf.write(bytes);
+        }
+    }
+
+    @Test
+    public void readsWhatWasWritten() throws IOException {
+        long before = System.currentTimeMillis();
+        writeSample();
+        CatalogueSnapshotFile.Contents contents = file.read().get();
+
+        assertTrue(contents.getCreatedAt() >= before);
+        assertEquals(2, contents.getJsrs().size());
+        JSRResultJSONMapping expected = fullJSR();
+        JSRResultJSONMapping actual = contents.getJsrs().get(0);
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getJsrId(), actual.getJsrId());
+        assertEquals(expected.getNameOfJsr(), actual.getNameOfJsr());
+        assertEquals(expected.getDescription(), actual.getDescription());
+        assertEquals(expected.getReason(), actual.getReason());
+        assertArrayEquals(expected.getSpecLeads(), actual.getSpecLeads());
+        assertEquals(expected.getStartDate(), actual.getStartDate());
+        assertEquals(expected.getEndDate(), actual.getEndDate());
+        assertEquals(expected.getEffectiveDate(), actual.getEffectiveDate());
+        assertEquals(expected.getLatestStage(), actual.getLatestStage());
+        assertEquals(expected.getCurrentStatus(), actual.getCurrentStatus());
+        assertEquals(Collections.singletonMap(369, "HTTP/2 support"), contents.getTranslations());
+    }
+
+    @Test
+    public void keepsTheNullFields() throws IOException {
+        writeSample();
+        JSRResultJSONMapping empty = file.read().get().getJsrs().get(1);
+        assertNull(empty.getId());
+        assertNull(empty.getJsrId());
+        assertNull(empty.getNameOfJsr());
+        assertNull(empty.getSpecLeads());
+        assertNull(empty.getStartDate());
+        assertNull(empty.getCurrentStatus());
+    }
+
+    @Test
+    public void missingFileIsIgnored() {
+        assertFalse(file.read().isPresent());
+    }
+
+    @Test
+    public void corruptedPayloadIsIgnored() throws IOException {
+        writeSample();
+        long size = Files.size(path);
+        byte[] last = new byte[1];
+        try (RandomAccessFile raf = new RandomAccessFile(path.toFile(), "r")) {
+            raf.seek(size - 10);
+            last[0] = raf.readByte();
+        }
+        last[0] ^= 0x01;
+        overwrite(size - 10, last);
+        assertFalse(file.read().isPresent());
+    }
+
+    @Test
+    public void otherVersionIsIgnored() throws IOException {
+        writeSample();
+        overwrite(VERSION_OFFSET, new byte[]{0, 0, 0, 2});
+        assertFalse(file.read().isPresent());
+    }
+
+    @Test
+    public void otherFileIsIgnored() throws IOException {
+        Files.write(path, "{\"jsrs\": []} and more bytes than the header".getBytes("UTF-8"));
+        assertFalse(file.read().isPresent());
+    }
+
+    @Test
+    public void tornWriteIsIgnored() throws IOException {
+        writeSample();
+        long size = Files.size(path);
+        try (RandomAccessFile raf = new RandomAccessFile(path.toFile(), "rw")) {
+            raf.setLength(size - 7);
+        }
+        assertFalse(file.read().isPresent());
+
+        try (RandomAccessFile raf = new RandomAccessFile(path.toFile(), "rw")) {
+            raf.setLength(HEADER_SIZE - 1);
+        }
+        assertFalse(file.read().isPresent());
+    }
+
+    @Test
+    public void writeReplacesTheFileAndLeavesNoTemporaryFile() throws IOException {
+        writeSample();
+        // The temporary file of the write which was killed before the move.
+        Files.write(folder.getRoot().toPath().resolve("catalogue.bin123.tmp"), new byte[]{1, 2, 3});
+
+        file.write(Collections.singletonList(fullJSR()), Collections.emptyMap());
+        assertEquals(1, file.read().get().getJsrs().size());
+        // Only the snapshot and the old temporary file.
+        try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+            assertEquals(2, files.count());
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.catalogue;
+
+import com.yoshio3.JSRResultJSONMapping;
+import com.yoshio3.client.JSRServiceClient;
+import com.yoshio3.concurrent.BotExecutors;
+import com.yoshio3.metrics.MetricsRegistry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Yoshio Terada
+ */
+public class JSRCatalogueTest {
+
+    private final AtomicLong now = new AtomicLong(1_000_000);
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final JSRCatalogue catalogue = new JSRCatalogue();
+    private List<JSRResultJSONMapping> remote = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        catalogue.metrics = metrics;
+        catalogue.executors = new BotExecutors() {
+            @Override
+            public Executor blocking() {
+                return Runnable::run;
+            }
+        };
+        catalogue.jsrServiceClient = new JSRServiceClient() {
+            @Override
+            public CompletableFuture<Optional<List<JSRResultJSONMapping>>> searchByName(String keyword) {
+                return CompletableFuture.completedFuture(Optional.of(remote));
+            }
+        };
+        // 1 minute TTL, at least 3 JSRs.
+        catalogue.configure(60_000, 3, now::get);
+    }
+
+    private static JSRResultJSONMapping jsr(long id, Integer jsrId, String name) {
+        JSRResultJSONMapping jsr = new JSRResultJSONMapping(id);
+        jsr.setJsrId(jsrId);
+        jsr.setNameOfJsr(name);
+        jsr.setDescription(name + " description");
+        return jsr;
+    }
+
+    private static List<JSRResultJSONMapping> corpus() {
+        return Arrays.asList(
+                jsr(1, 369, "Java Servlet 4.0 Specification"),
+                jsr(2, 352, "Batch Applications for the Java Platform"),
+                jsr(3, 366, "Java Platform, Enterprise Edition 8 Specification"));
+    }
+
+    @Test
+    public void looksUpTheJSRByTheJSRNumber() {
+        catalogue.replace(corpus());
+        assertEquals("Java Servlet 4.0 Specification", catalogue.findByNumber(369).get().getNameOfJsr());
+        // The ID of the record is not the JSR number.
+        assertFalse(catalogue.findByNumber(1).isPresent());
+    }
+
+    @Test
+    public void searchesTheKeywordLocally() {
+        catalogue.replace(corpus());
+        assertEquals(1, catalogue.search("batch").get().size());
+        assertEquals(1, metrics.counter("catalogue_local_hits_total").get());
+    }
+
+    @Test
+    public void fallsBackToTheRemoteServiceIfNothingMatchesLocally() {
+        catalogue.replace(corpus());
+        assertFalse(catalogue.search("websocket").isPresent());
+        assertEquals(1, metrics.counter("catalogue_fallbacks_total").get());
+    }
+
+    @Test
+    public void fallsBackToTheRemoteServiceIfTheSnapshotIsExpired() {
+        catalogue.replace(corpus());
+        now.addAndGet(60_000);
+        assertTrue(catalogue.search("batch").isPresent());
+        assertTrue(catalogue.findByNumber(352).isPresent());
+
+        now.addAndGet(1);
+        assertFalse(catalogue.search("batch").isPresent());
+        assertFalse(catalogue.findByNumber(352).isPresent());
+    }
+
+    @Test
+    public void installsTheFullLoad() {
+        remote = corpus();
+        catalogue.refresh().join();
+        assertTrue(catalogue.isLoaded());
+        assertEquals(3, catalogue.getAll().size());
+    }
+
+    @Test
+    public void keepsTheCurrentSnapshotIfTheLoadIsTooSmall() {
+        catalogue.replace(corpus());
+        remote = Arrays.asList(jsr(4, 365, "Contexts and Dependency Injection for Java 2.0"));
+        catalogue.refresh().join();
+        assertEquals(3, catalogue.getAll().size());
+        assertFalse(catalogue.findByNumber(365).isPresent());
+        assertEquals(1, metrics.counter("catalogue_refresh_failures_total").get());
+    }
+}
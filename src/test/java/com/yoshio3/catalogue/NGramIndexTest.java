@@ -0,0 +1,84 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.catalogue;
+
+import com.yoshio3.JSRResultJSONMapping;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * @author Yoshio Terada
+ */
+public class NGramIndexTest {
+
+    private final NGramIndex index = new NGramIndex(Arrays.asList(
+            jsr(315, "Java Servlet 3.0", "Web アプリケーションのための API"),
+            jsr(340, "Java Servlet 3.1", "HTTP/2 ではなく非同期 IO"),
+            jsr(369, "Java Servlet 4.0", "HTTP/2 をサポートする"),
+            jsr(365, "CDI 2.0", "Servlet コンテナの外でも使える DI"),
+            jsr(107, "JCache", "キャッシュの API")));
+
+    private static JSRResultJSONMapping jsr(long id, String name, String description) {
+        JSRResultJSONMapping jsr = new JSRResultJSONMapping(id);
+        jsr.setNameOfJsr(name);
+        jsr.setDescription(description);
+        return jsr;
+    }
+
+    private List<Long> search(String keyword) {
+        return index.search(keyword).stream().map(JSRResultJSONMapping::getId).collect(Collectors.toList());
+    }
+
+    @Test
+    public void matchesInTheNameComeFirst() {
+        assertEquals(Arrays.asList(315L, 340L, 369L, 365L), search("servlet"));
+    }
+
+    @Test
+    public void keywordIsNormalized() {
+        assertEquals(Arrays.asList(315L, 340L, 369L, 365L), search("  ＳＥＲＶＬＥＴ "));
+        assertEquals(Arrays.asList(340L, 369L), search("http/2"));
+    }
+
+    @Test
+    public void searchesTheJapaneseText() {
+        assertEquals(Arrays.asList(107L), search("キャッシュ"));
+        assertEquals(Arrays.asList(315L, 107L), search("API"));
+    }
+
+    @Test
+    public void candidatesAreVerifiedBySubstring() {
+        // Both of the bigrams "a " and " 3" are in "java servlet 3.0", but "a 3" is not.
+        assertTrue(search("a 3").isEmpty());
+        assertTrue(search("servlet 5").isEmpty());
+    }
+
+    @Test
+    public void shortKeywordChecksAllOfTheDocuments() {
+        assertEquals(Arrays.asList(315L, 340L), search("3"));
+        assertEquals(Arrays.asList(365L, 340L, 369L), search("2"));
+    }
+
+    @Test
+    public void emptyKeywordMatchesNothing() {
+        assertTrue(search(" ").isEmpty());
+        assertEquals(5, index.size());
+    }
+}
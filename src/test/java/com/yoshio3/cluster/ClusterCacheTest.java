@@ -0,0 +1,219 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.cluster;
+
+import com.hazelcast.config.Config;
+import com.hazelcast.config.JoinConfig;
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.Member;
+import com.yoshio3.concurrent.BotExecutors;
+import com.yoshio3.metrics.MetricsRegistry;
+import com.yoshio3.token.IssuedToken;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.AfterClass;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Two embedded Hazelcast members in one JVM, each with its own
+ * {@code ClusterCache} like two instances of the bot.
+ *
+ * @author Yoshio Terada
+ */
+public class ClusterCacheTest {
+
+    private final static long WAIT_MILLIS = 10_000;
+
+    private static HazelcastInstance firstMember;
+    private static HazelcastInstance secondMember;
+    private static ClusterCache first;
+    private static ClusterCache second;
+    private static MetricsRegistry secondMetrics;
+
+    @BeforeClass
+    public static void startCluster() {
+        String group = "jsr-bot-test-" + UUID.randomUUID();
+        firstMember = Hazelcast.newHazelcastInstance(newConfig(group));
+        secondMember = Hazelcast.newHazelcastInstance(newConfig(group));
+        assertEquals(2, firstMember.getCluster().getMembers().size());
+
+        System.setProperty("cluster.shareTokens", "true");
+        try {
+            first = newCache(firstMember, new MetricsRegistry());
+            secondMetrics = new MetricsRegistry();
+            second = newCache(secondMember, secondMetrics);
+        } finally {
+            System.clearProperty("cluster.shareTokens");
+        }
+    }
+
+    @AfterClass
+    public static void stopCluster() {
+        if (secondMember != null) {
+            secondMember.shutdown();
+        }
+        if (firstMember != null) {
+            firstMember.shutdown();
+        }
+    }
+
+    private static Config newConfig(String group) {
+        Config config = new Config();
+        config.getGroupConfig().setName(group);
+        config.setProperty("hazelcast.phone.home.enabled", "false");
+        config.setProperty("hazelcast.logging.type", "jdk");
+        // Send each invalidation of the near cache at once instead of the batch.
+        config.setProperty("hazelcast.map.invalidation.batch.enabled", "false");
+        JoinConfig join = config.getNetworkConfig().getJoin();
+        join.getMulticastConfig().setEnabled(false);
+        join.getTcpIpConfig().setEnabled(true).addMember("127.0.0.1");
+        return config;
+    }
+
+    private static ClusterCache newCache(HazelcastInstance member, MetricsRegistry metrics) {
+        ClusterCache cache = new ClusterCache();
+        cache.metrics = metrics;
+        cache.executors = new BotExecutors() {
+            @Override
+            public Executor blocking() {
+                return Runnable::run;
+            }
+        };
+        cache.start(member);
+        return cache;
+    }
+
+    // The near cache keeps only the entries which are owned by the other member.
+    private static String keyOwnedBy(HazelcastInstance owner, String prefix) {
+        Member member = owner.getCluster().getLocalMember();
+        for (int i = 0;; i++) {
+            String key = prefix + i;
+            if (member.equals(owner.getPartitionService().getPartition(key).getOwner())) {
+                return key;
+            }
+        }
+    }
+
+    private static Optional<String> read(ClusterCache cache, String key) {
+        return cache.<String>get(ClusterCache.JSR_DETAILS, key).join();
+    }
+
+    private static void awaitValue(ClusterCache cache, String key, Optional<String> expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (!read(cache, key).equals(expected)) {
+            assertTrue("Timed out waiting for " + key + " to be " + expected, System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+    }
+
+    private static long nearCacheHits() {
+        return secondMetrics.snapshot().get("cluster_near_cache_hits_total{map=\"jsr-details\"}").longValue();
+    }
+
+    @Test(timeout = 60_000)
+    public void nearCacheIsInvalidatedByTheOtherMember() throws InterruptedException {
+        String key = keyOwnedBy(firstMember, "jsr-");
+        first.put(ClusterCache.JSR_DETAILS, key, "old", 60_000);
+        awaitValue(second, key, Optional.of("old"));
+
+        // The later reads are answered by the near cache of the second member. The
+        // invalidation of the first put can still arrive, so wait for the hit.
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (nearCacheHits() == 0) {
+            assertTrue("Near cache is not used", System.currentTimeMillis() < deadline);
+            assertEquals(Optional.of("old"), read(second, key));
+        }
+
+        first.put(ClusterCache.JSR_DETAILS, key, "new", 60_000);
+        awaitValue(second, key, Optional.of("new"));
+
+        first.remove(ClusterCache.JSR_DETAILS, key);
+        awaitValue(second, key, Optional.empty());
+    }
+
+    @Test(timeout = 60_000)
+    public void onlyOneMemberRefreshesTheToken() throws Exception {
+        AtomicInteger fetches = new AtomicInteger();
+        Supplier<Optional<String>> tokenService = () -> {
+            int count = fetches.incrementAndGet();
+            try {
+                // The slow token service, so the other callers come while it is fetched.
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return Optional.of("token-" + count);
+        };
+        SharedTokenSource[] sources = {
+            first.sharedToken("single-writer", tokenService, 60_000, 10_000),
+            second.sharedToken("single-writer", tokenService, 60_000, 10_000)
+        };
+
+        ExecutorService callers = Executors.newFixedThreadPool(8);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Optional<IssuedToken>>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                SharedTokenSource source = sources[i % 2];
+                results.add(callers.submit(() -> {
+                    start.await();
+                    return source.get();
+                }));
+            }
+            start.countDown();
+            for (Future<Optional<IssuedToken>> result : results) {
+                assertEquals("token-1", result.get(WAIT_MILLIS, TimeUnit.MILLISECONDS).get().getValue());
+            }
+            assertEquals(1, fetches.get());
+
+            // The rejected token is removed from the cluster, and the next caller fetches the new one.
+            sources[1].invalidate("token-1");
+            assertEquals("token-2", sources[0].get().get().getValue());
+            assertEquals("token-2", sources[1].get().get().getValue());
+            assertEquals(2, fetches.get());
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 60_000)
+    public void tokensAreNotSharedByDefault() {
+        ClusterCache local = newCache(secondMember, new MetricsRegistry());
+        AtomicInteger fetches = new AtomicInteger();
+        first.sharedToken("not-shared", () -> Optional.of("token"), 60_000, 10_000).get();
+        SharedTokenSource source = local.sharedToken("not-shared", () -> {
+            fetches.incrementAndGet();
+            return Optional.of("local");
+        }, 60_000, 10_000);
+
+        assertEquals("local", source.get().get().getValue());
+        assertEquals(1, fetches.get());
+    }
+}
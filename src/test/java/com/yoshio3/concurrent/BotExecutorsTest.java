@@ -0,0 +1,38 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.concurrent;
+
+import com.yoshio3.concurrent.BotExecutors.Mode;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * @author Yoshio Terada
+ */
+public class BotExecutorsTest {
+
+    @Test
+    public void parsesTheMode() {
+        assertEquals(Mode.MANAGED, BotExecutors.modeOf("managed"));
+        assertEquals(Mode.VIRTUAL, BotExecutors.modeOf(" Virtual "));
+    }
+
+    @Test
+    public void usesTheManagedExecutorForTheUnknownMode() {
+        assertEquals(Mode.MANAGED, BotExecutors.modeOf("virtaul"));
+        assertEquals(Mode.MANAGED, BotExecutors.modeOf(""));
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.endpoint;
+
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+/**
+ * @author Yoshio Terada
+ */
+public class EndpointOverridesTest {
+
+    private final static String NAMESPACE = "http://schemas.microsoft.com/2003/10/Serialization/";
+
+    @Test
+    public void readsTheTranslatedText() throws Exception {
+        assertEquals("サーブレット API", EndpointOverrides.textOf(
+                "<string xmlns=\"" + NAMESPACE + "\">サーブレット API</string>"));
+    }
+
+    @Test
+    public void unescapesTheEntities() throws Exception {
+        assertEquals("<T> & \"list\"", EndpointOverrides.textOf(
+                "<string xmlns=\"" + NAMESPACE + "\">&lt;T&gt; &amp; &quot;list&quot;</string>"));
+    }
+
+    @Test
+    public void emptyElementIsEmptyText() throws Exception {
+        assertEquals("", EndpointOverrides.textOf("<string xmlns=\"" + NAMESPACE + "\"/>"));
+    }
+
+    @Test(expected = SAXException.class)
+    public void doctypeIsRejected() throws Exception {
+        EndpointOverrides.textOf("<?xml version=\"1.0\"?><!DOCTYPE string [<!ENTITY x SYSTEM \"file:///etc/passwd\">]>"
+                + "<string>&x;</string>");
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.ingress;
+
+import com.yoshio3.metrics.MetricsRegistry;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Yoshio Terada
+ */
+public class ActivityDeduplicatorTest {
+
+    private final AtomicLong now = new AtomicLong(1_000);
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final ActivityDeduplicator deduplicator = new ActivityDeduplicator();
+
+    @Before
+    public void setUp() {
+        deduplicator.metrics = metrics;
+        deduplicator.configure(100, 3, now::get);
+    }
+
+    @Test
+    public void dropsTheRedeliveryInTheWindow() {
+        assertTrue(deduplicator.firstSeen("a"));
+        now.addAndGet(99);
+        assertFalse(deduplicator.firstSeen("a"));
+        assertTrue(deduplicator.firstSeen("b"));
+        assertEquals(1, metrics.counter("ingress_duplicates_dropped_total").get());
+    }
+
+    @Test
+    public void forgetsTheIdAfterTheWindow() {
+        deduplicator.firstSeen("a");
+        now.addAndGet(50);
+        deduplicator.firstSeen("b");
+        now.addAndGet(50);
+        // "a" is expired, but "b" is still in the window.
+        assertTrue(deduplicator.firstSeen("a"));
+        assertFalse(deduplicator.firstSeen("b"));
+        assertEquals(2, deduplicator.size());
+    }
+
+    @Test
+    public void redeliveryDoesNotExtendTheWindow() {
+        deduplicator.firstSeen("a");
+        now.addAndGet(60);
+        assertFalse(deduplicator.firstSeen("a"));
+        now.addAndGet(40);
+        assertTrue(deduplicator.firstSeen("a"));
+    }
+
+    @Test
+    public void evictsTheOldestIdWhenFull() {
+        deduplicator.firstSeen("a");
+        deduplicator.firstSeen("b");
+        deduplicator.firstSeen("c");
+        deduplicator.firstSeen("d");
+        assertEquals(3, deduplicator.size());
+        assertEquals(1, metrics.counter("ingress_dedup_evictions_total").get());
+        assertTrue(deduplicator.firstSeen("a"));
+        assertFalse(deduplicator.firstSeen("d"));
+    }
+
+    @Test
+    public void forgottenIdIsHandledAgain() {
+        deduplicator.firstSeen("a");
+        deduplicator.forget("a");
+        assertTrue(deduplicator.firstSeen("a"));
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.ingress;
+
+import com.yoshio3.metrics.MetricsRegistry;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * @author Yoshio Terada
+ */
+public class IngressQueueTest {
+
+    // Runs the tasks only when the test asks, so the order is deterministic.
+    private final Deque<Runnable> tasks = new ArrayDeque<>();
+    private final Executor executor = tasks::add;
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final List<String> started = new ArrayList<>();
+    private final List<CompletableFuture<Void>> works = new ArrayList<>();
+
+    private IngressQueue newQueue(int capacity, int maxConcurrency, long maxWaitMillis, Executor executor) {
+        IngressQueue queue = new IngressQueue();
+        queue.metrics = metrics;
+        queue.configure(capacity, maxConcurrency, maxWaitMillis, executor);
+        return queue;
+    }
+
+    private boolean offer(IngressQueue queue, String conversationId, String name) {
+        return queue.offer(conversationId, () -> {
+            started.add(name);
+            CompletableFuture<Void> work = new CompletableFuture<>();
+            works.add(work);
+            return work;
+        });
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private long counter(String name) {
+        return metrics.counter(name).get();
+    }
+
+    @Test
+    public void startsTheWorkOnTheExecutor() {
+        IngressQueue queue = newQueue(10, 10, 60_000, executor);
+        assertTrue(offer(queue, "c1", "a"));
+        assertTrue(started.isEmpty());
+        assertEquals(1, queue.getRunning());
+
+        runTasks();
+        assertEquals(1, started.size());
+        assertEquals(1, counter("ingress_accepted_total"));
+    }
+
+    @Test
+    public void handlesTheWorksOfTheConversationInOrder() {
+        IngressQueue queue = newQueue(10, 10, 60_000, executor);
+        offer(queue, "c1", "a");
+        offer(queue, "c1", "b");
+        offer(queue, "c2", "x");
+        offer(queue, "c1", "c");
+        runTasks();
+        assertEquals(2, started.size());
+        assertEquals(2, queue.getQueued());
+
+        // The next work starts on the executor, not on the completing thread.
+        works.get(0).complete(null);
+        assertEquals(2, started.size());
+        runTasks();
+        assertEquals(3, started.size());
+        works.get(2).complete(null);
+        runTasks();
+        assertEquals(4, started.size());
+        assertEquals(0, queue.getQueued());
+        assertEquals(Arrays.asList("a", "x", "b", "c"), started);
+    }
+
+    @Test
+    public void limitsTheNumberOfTheRunningWorks() {
+        IngressQueue queue = newQueue(10, 2, 60_000, executor);
+        offer(queue, "c1", "a");
+        offer(queue, "c2", "b");
+        offer(queue, "c3", "c");
+        runTasks();
+        assertEquals(2, started.size());
+        assertEquals(2, queue.getRunning());
+        assertEquals(1, queue.getQueued());
+
+        works.get(1).complete(null);
+        runTasks();
+        assertEquals(3, started.size());
+        assertEquals(2, queue.getRunning());
+    }
+
+    @Test
+    public void rejectsTheWorkIfTheQueueIsFull() {
+        IngressQueue queue = newQueue(1, 1, 60_000, executor);
+        assertTrue(offer(queue, "c1", "a"));
+        assertTrue(offer(queue, "c2", "b"));
+        assertFalse(offer(queue, "c3", "c"));
+        assertEquals(1, counter("ingress_rejected_total"));
+        assertEquals(2, counter("ingress_accepted_total"));
+    }
+
+    @Test
+    public void dropsTheAcceptedWorkWhichWaitedTooLong() throws InterruptedException {
+        IngressQueue queue = newQueue(10, 1, 0, executor);
+        assertTrue(offer(queue, "c1", "a"));
+        assertTrue(offer(queue, "c1", "b"));
+        Thread.sleep(5);
+        runTasks();
+        assertTrue(started.isEmpty());
+        assertEquals(2, counter("ingress_expired_total"));
+        assertEquals(0, queue.getRunning());
+        assertEquals(0, queue.getQueued());
+    }
+
+    @Test
+    public void releasesTheSlotIfTheExecutorRejects() {
+        IngressQueue queue = newQueue(10, 1, 60_000, task -> {
+            throw new RejectedExecutionException();
+        });
+        assertTrue(offer(queue, "c1", "a"));
+        assertTrue(offer(queue, "c1", "b"));
+        assertEquals(0, queue.getRunning());
+        assertEquals(0, queue.getQueued());
+    }
+}
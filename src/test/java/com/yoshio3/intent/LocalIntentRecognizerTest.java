@@ -0,0 +1,76 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.intent;
+
+import java.util.Optional;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import org.junit.Test;
+
+/**
+ * @author Yoshio Terada
+ */
+public class LocalIntentRecognizerTest {
+
+    private final LocalIntentRecognizer recognizer = new LocalIntentRecognizer();
+
+    private Optional<RecognizedIntent> recognize(String text) {
+        return recognizer.recognize(Utterances.normalize(text));
+    }
+
+    private void assertIntent(Intent intent, int jsrNumber, String text) {
+        RecognizedIntent recognized = recognize(text).orElseThrow(() -> new AssertionError(text));
+        assertEquals(text, intent, recognized.getIntent());
+        assertEquals(text, Integer.valueOf(jsrNumber), recognized.getJsrNumber().orElse(null));
+    }
+
+    private void assertLeftToLUIS(String text) {
+        assertFalse(text, recognize(text).isPresent());
+    }
+
+    @Test
+    public void recognizesTheExplicitDetailQuestions() {
+        assertIntent(Intent.JSR_DETAIL, 299, "JSR 299 は何ですか？");
+        assertIntent(Intent.JSR_DETAIL, 299, "ＪＳＲ２９９は何？");
+        assertIntent(Intent.JSR_DETAIL, 366, "jsr-366 について教えて");
+        assertIntent(Intent.JSR_DETAIL, 352, "JSR 352 とは");
+        assertIntent(Intent.JSR_DETAIL, 352, "JSR352ってなんですか");
+        assertIntent(Intent.JSR_DETAIL, 369, "JSR 369 の詳細");
+        assertIntent(Intent.JSR_DETAIL, 369, "What is JSR 369?");
+        assertIntent(Intent.JSR_DETAIL, 369, "JSR 369");
+    }
+
+    @Test
+    public void recognizesTheTranslation() {
+        assertIntent(Intent.TRANSLATE, 199, "JSR 199 を翻訳してください");
+        assertIntent(Intent.TRANSLATE, 199, "JSR 199 の日本語訳は何ですか？");
+    }
+
+    @Test
+    public void leavesTheOtherQuestionsToLUIS() {
+        assertLeftToLUIS("JSR 369 に Servlet は入っている？");
+        assertLeftToLUIS("JSR 352 はいつ出ますか?");
+        assertLeftToLUIS("JSR 352 は何年に出ましたか");
+        assertLeftToLUIS("JSR 366 のスペックリードは誰？");
+        assertLeftToLUIS("JSR 299 なんだっけ");
+        assertLeftToLUIS("Servlet は何に含まれますか？");
+    }
+
+    @Test
+    public void leavesTheMultipleJSRNumbersToLUIS() {
+        assertLeftToLUIS("JSR 299 と JSR 346 は何ですか？");
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * @author Yoshio Terada
+ */
+public class HistogramTest {
+
+    @Test
+    public void smallValuesHaveTheirOwnBuckets() {
+        for (long value = 0; value < 16; value++) {
+            assertEquals(value, Histogram.indexOf(value));
+            assertEquals(value, Histogram.upperBoundOf(Histogram.indexOf(value)));
+        }
+    }
+
+    @Test
+    public void bucketContainsTheValueWithinTheRelativeError() {
+        int lastIndex = -1;
+        for (long value = 1; value < (1L << 40); value += Math.max(1, value / 7)) {
+            int index = Histogram.indexOf(value);
+            long upperBound = Histogram.upperBoundOf(index);
+            assertTrue("index must not decrease at " + value, index >= lastIndex);
+            assertTrue("bucket must contain " + value, value <= upperBound);
+            assertTrue("bucket of " + value + " is too wide", upperBound - value <= value / 8);
+            if (index > 0) {
+                assertTrue("previous bucket must not contain " + value, Histogram.upperBoundOf(index - 1) < value);
+            }
+            lastIndex = index;
+        }
+    }
+
+    @Test
+    public void powersOfTwoStartNewBuckets() {
+        for (int exponent = 4; exponent < 40; exponent++) {
+            long value = 1L << exponent;
+            assertEquals(value - 1, Histogram.upperBoundOf(Histogram.indexOf(value) - 1));
+            assertEquals(value + (value >> 3) - 1, Histogram.upperBoundOf(Histogram.indexOf(value)));
+        }
+    }
+
+    @Test
+    public void hugeValuesGoToTheLastBucket() {
+        int last = Histogram.indexOf(1L << 40);
+        assertEquals(last, Histogram.indexOf(Long.MAX_VALUE));
+        assertTrue(Histogram.indexOf((1L << 40) - 1) < last);
+    }
+
+    @Test
+    public void quantilesAreWithinTheRelativeError() {
+        Histogram histogram = new Histogram();
+        for (long value = 1; value <= 1_000; value++) {
+            histogram.record(value);
+        }
+        assertEquals(1_000, histogram.getCount());
+        assertEquals(500_500, histogram.getSum());
+        assertEquals(1_000, histogram.getMax());
+        assertWithin(500, histogram.getValueAtQuantile(0.5));
+        assertWithin(990, histogram.getValueAtQuantile(0.99));
+        assertEquals(1_000, histogram.getValueAtQuantile(1.0));
+        assertEquals(1, histogram.getValueAtQuantile(0.0));
+    }
+
+    @Test
+    public void emptyHistogramReturnsZero() {
+        assertEquals(0, new Histogram().getValueAtQuantile(0.99));
+    }
+
+    @Test
+    public void negativeValueIsRecordedAsZero() {
+        Histogram histogram = new Histogram();
+        histogram.record(-5);
+        assertEquals(0, histogram.getSum());
+        assertEquals(0, histogram.getValueAtQuantile(0.5));
+        assertEquals(1, histogram.getCount());
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("expected about " + expected + " but was " + actual,
+                actual >= expected && actual <= expected + expected / 8);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * @author Yoshio Terada
+ */
+public class MetricsRegistryTest {
+
+    private final MetricsRegistry metrics = new MetricsRegistry();
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nameOfTheCounterMustEndWithTotal() {
+        metrics.counter("requests");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nameOfTheFunctionCounterMustEndWithTotal() {
+        metrics.counter("cache_hits", () -> 0);
+    }
+
+    @Test
+    public void countersAreExportedWithTheCounterType() {
+        AtomicLong hits = new AtomicLong(3);
+        metrics.counter("cache_hits_total", hits::get, "cache", "jsr");
+        metrics.counter("cache_hits_total", "cache", "intent").add(2);
+        metrics.gauge("cache_size", () -> 7);
+
+        String text = metrics.toPrometheus();
+        assertEquals(1, occurrences(text, "# TYPE cache_hits_total counter\n"));
+        assertTrue(text.contains("cache_hits_total{cache=\"intent\"} 2\n"));
+        assertTrue(text.contains("cache_hits_total{cache=\"jsr\"} 3\n"));
+        assertTrue(text.contains("# TYPE cache_size gauge\ncache_size 7\n"));
+
+        hits.set(5);
+        assertEquals(5L, metrics.snapshot().get("cache_hits_total{cache=\"jsr\"}"));
+    }
+
+    @Test
+    public void histogramIsExportedAsTheSummaryInSeconds() {
+        metrics.histogram("latency_seconds", "stage", "luis").record(2_000_000);
+
+        String text = metrics.toPrometheus();
+        assertTrue(text.contains("# TYPE latency_seconds summary\n"));
+        assertTrue(text.contains("latency_seconds{stage=\"luis\",quantile=\"0.5\"} 2.0\n"));
+        assertTrue(text.contains("latency_seconds_sum{stage=\"luis\"} 2.0\n"));
+        assertTrue(text.contains("latency_seconds_count{stage=\"luis\"} 1\n"));
+    }
+
+    private static int occurrences(String text, String part) {
+        int count = 0;
+        for (int index = text.indexOf(part); index >= 0; index = text.indexOf(part, index + 1)) {
+            count++;
+        }
+        return count;
+    }
+}
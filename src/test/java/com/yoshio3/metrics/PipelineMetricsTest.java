@@ -0,0 +1,78 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.metrics;
+
+import com.yoshio3.intent.Intent;
+import com.yoshio3.metrics.PipelineMetrics.Stage;
+import java.util.concurrent.CompletableFuture;
+import static org.junit.Assert.assertEquals;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Yoshio Terada
+ */
+public class PipelineMetricsTest {
+
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final PipelineMetrics pipelineMetrics = new PipelineMetrics();
+
+    @Before
+    public void setUp() {
+        pipelineMetrics.metrics = metrics;
+        pipelineMetrics.init();
+    }
+
+    private Number inFlight(String stage, String intent) {
+        return metrics.snapshot().get("bot_stage_in_flight{stage=\"" + stage + "\",intent=\"" + intent + "\"}");
+    }
+
+    private long latencyCount(String stage, String intent) {
+        return metrics.histogram("bot_stage_latency_seconds", "stage", stage, "intent", intent).getCount();
+    }
+
+    private long errors(String stage, String intent) {
+        return metrics.counter("bot_stage_errors_total", "stage", stage, "intent", intent).get();
+    }
+
+    @Test
+    public void recordsTheStageUnderTheTaggedIntent() {
+        long start = pipelineMetrics.start(Stage.LUIS, null);
+        assertEquals(1, inFlight("luis", "none").intValue());
+
+        pipelineMetrics.tag(Stage.LUIS, null, Intent.JSR_DETAIL);
+        assertEquals(0, inFlight("luis", "none").intValue());
+        assertEquals(1, inFlight("luis", "jsr_detail").intValue());
+
+        pipelineMetrics.stop(Stage.LUIS, Intent.JSR_DETAIL, start, false);
+        assertEquals(0, inFlight("luis", "jsr_detail").intValue());
+        assertEquals(1, latencyCount("luis", "jsr_detail"));
+        assertEquals(0, latencyCount("luis", "none"));
+        assertEquals(0, errors("luis", "jsr_detail"));
+    }
+
+    @Test
+    public void timesTheFuture() {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        pipelineMetrics.time(Stage.TRANSLATOR, Intent.TRANSLATE, future);
+        assertEquals(1, inFlight("translator", "translate").intValue());
+
+        future.completeExceptionally(new IllegalStateException("down"));
+        assertEquals(0, inFlight("translator", "translate").intValue());
+        assertEquals(1, latencyCount("translator", "translate"));
+        assertEquals(1, errors("translator", "translate"));
+    }
+}
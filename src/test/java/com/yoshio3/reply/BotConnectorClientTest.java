@@ -0,0 +1,115 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.reply;
+
+import com.yoshio3.rest.entities.bot.BotObjectMapperProvider;
+import com.yoshio3.rest.entities.bot.CommonMessageFromBotFramework;
+import com.yoshio3.rest.entities.bot.MessageFromBotFrameWork;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * @author Yoshio Terada
+ */
+public class BotConnectorClientTest {
+
+    private final static List<String> ALLOWED_HOSTS = Arrays.asList(".botframework.com", ".trafficmanager.net", "127.0.0.1");
+
+    @Test
+    public void allowsTheServiceUrlsOfTheBotFramework() {
+        assertTrue(BotConnectorClient.isAllowed("https://smba.trafficmanager.net/apis/", ALLOWED_HOSTS, true));
+        assertTrue(BotConnectorClient.isAllowed("https://webchat.botframework.com/", ALLOWED_HOSTS, true));
+        assertTrue(BotConnectorClient.isAllowed("https://SMBA.TrafficManager.net/apis/", ALLOWED_HOSTS, true));
+    }
+
+    @Test
+    public void rejectsTheOtherHosts() {
+        assertFalse(BotConnectorClient.isAllowed("https://evil.example.com/", ALLOWED_HOSTS, true));
+        assertFalse(BotConnectorClient.isAllowed("https://evilbotframework.com/", ALLOWED_HOSTS, true));
+        assertFalse(BotConnectorClient.isAllowed("https://botframework.com.evil.example.com/", ALLOWED_HOSTS, true));
+        assertFalse(BotConnectorClient.isAllowed("https://botframework.com/", ALLOWED_HOSTS, true));
+        assertFalse(BotConnectorClient.isAllowed("https://user@evil.example.com/", ALLOWED_HOSTS, true));
+    }
+
+    @Test
+    public void rejectsTheMalformedServiceUrls() {
+        assertFalse(BotConnectorClient.isAllowed(null, ALLOWED_HOSTS, true));
+        assertFalse(BotConnectorClient.isAllowed("", ALLOWED_HOSTS, true));
+        assertFalse(BotConnectorClient.isAllowed("smba.trafficmanager.net/apis/", ALLOWED_HOSTS, true));
+        assertFalse(BotConnectorClient.isAllowed("https://smba.trafficmanager.net:bad/", ALLOWED_HOSTS, true));
+        assertFalse(BotConnectorClient.isAllowed("ftp://smba.trafficmanager.net/", ALLOWED_HOSTS, true));
+    }
+
+    @Test
+    public void allowsAllOfTheHostsByDefault() {
+        List<String> none = Collections.emptyList();
+        assertTrue(BotConnectorClient.isAllowed("http://localhost:3978/", none, false));
+        assertTrue(BotConnectorClient.isAllowed("https://slack.botframework.com/", none, false));
+        assertTrue(BotConnectorClient.isAllowed("https://channel.example.com/", none, false));
+        assertFalse(BotConnectorClient.isAllowed(null, none, false));
+        assertFalse(BotConnectorClient.isAllowed("ftp://localhost/", none, false));
+    }
+
+    @Test
+    public void buildsTheReplyFromTheIncomingActivity() throws IOException {
+        MessageFromBotFrameWork message = new BotObjectMapperProvider().getContext(CommonMessageFromBotFramework.class)
+                .readValue("{\"type\":\"message\",\"id\":\"m1\",\"channelId\":\"skype\",\"locale\":\"ja-JP\","
+                        + "\"serviceUrl\":\"https://smba.trafficmanager.net/apis/\","
+                        + "\"from\":{\"id\":\"user1\",\"name\":\"User\"},"
+                        + "\"recipient\":{\"id\":\"bot1\",\"name\":\"jsrbot\"},"
+                        + "\"conversation\":{\"id\":\"c1\"},\"text\":\"JSR 299 は何ですか？\"}",
+                        CommonMessageFromBotFramework.class);
+
+        Map<String, Object> activity = BotConnectorClient.activityOf(message, "reply");
+        assertEquals("message", activity.get("type"));
+        assertEquals("reply", activity.get("text"));
+        assertEquals("m1", activity.get("replyToId"));
+        assertEquals("skype", activity.get("channelId"));
+        assertEquals("ja-JP", activity.get("locale"));
+        // The bot replies as the recipient of the message to its sender.
+        assertEquals("bot1", ((Map<?, ?>) activity.get("from")).get("id"));
+        assertEquals("jsrbot", ((Map<?, ?>) activity.get("from")).get("name"));
+        assertEquals("user1", ((Map<?, ?>) activity.get("recipient")).get("id"));
+        assertEquals("c1", ((Map<?, ?>) activity.get("conversation")).get("id"));
+    }
+
+    @Test
+    public void omitsTheFieldsWhichTheMessageDoesNotHave() throws IOException {
+        MessageFromBotFrameWork message = new BotObjectMapperProvider().getContext(CommonMessageFromBotFramework.class)
+                .readValue("{\"type\":\"message\",\"id\":\"m1\",\"conversation\":{\"id\":\"c1\"}}",
+                        CommonMessageFromBotFramework.class);
+
+        Map<String, Object> activity = BotConnectorClient.activityOf(message, "reply");
+        assertFalse(activity.containsKey("from"));
+        assertFalse(activity.containsKey("recipient"));
+        assertFalse(activity.containsKey("locale"));
+        assertTrue(activity.containsKey("conversation"));
+    }
+
+    @Test
+    public void allowsHttpOnlyIfHttpsIsNotRequired() {
+        assertFalse(BotConnectorClient.isAllowed("http://smba.trafficmanager.net/apis/", ALLOWED_HOSTS, true));
+        assertFalse(BotConnectorClient.isAllowed("http://127.0.0.1:8080/bot", ALLOWED_HOSTS, true));
+        assertTrue(BotConnectorClient.isAllowed("http://127.0.0.1:8080/bot", ALLOWED_HOSTS, false));
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.reply;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yoshio3.metrics.MetricsRegistry;
+import com.yoshio3.rest.entities.bot.BotObjectMapperProvider;
+import com.yoshio3.rest.entities.bot.CommonMessageFromBotFramework;
+import com.yoshio3.rest.entities.bot.MessageFromBotFrameWork;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * @author Yoshio Terada
+ */
+public class OutboundQueueTest {
+
+    private final static ObjectMapper MAPPER = new BotObjectMapperProvider().getContext(CommonMessageFromBotFramework.class);
+
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final ManualTimer timer = new ManualTimer();
+    private final List<Sent> sent = new ArrayList<>();
+
+    private OutboundQueue newQueue(long lingerMillis, int maxRetries, int maxInFlight) {
+        OutboundQueue queue = new OutboundQueue();
+        queue.metrics = metrics;
+        queue.configure(lingerMillis, 5, 4_000, 100, maxRetries, 1_000, maxInFlight, timer, timer::now);
+        return queue;
+    }
+
+    private static MessageFromBotFrameWork message(String conversationId, String id) throws IOException {
+        return MAPPER.readValue("{\"type\":\"message\",\"id\":\"" + id + "\","
+                + "\"serviceUrl\":\"https://smba.trafficmanager.net/apis/\","
+                + "\"conversation\":{\"id\":\"" + conversationId + "\"},\"text\":\"hello\"}",
+                CommonMessageFromBotFramework.class);
+    }
+
+    private CompletableFuture<Void> send(OutboundQueue queue, MessageFromBotFrameWork message, String text) {
+        return queue.send(message, text, (requestMessage, reply) -> {
+            Sent send = new Sent(reply);
+            sent.add(send);
+            return send.future;
+        });
+    }
+
+    private List<String> texts() {
+        return sent.stream().map(send -> send.text).collect(Collectors.toList());
+    }
+
+    private static WebApplicationException throttled(String retryAfter) {
+        return new WebApplicationException(Response.status(429).header("Retry-After", retryAfter).build());
+    }
+
+    private long counter(String name) {
+        return metrics.counter(name).get();
+    }
+
+    @Test
+    public void sendsTheRepliesOfTheConversationInOrder() throws IOException {
+        OutboundQueue queue = newQueue(0, 5, 10);
+        CompletableFuture<Void> first = send(queue, message("c1", "m1"), "first");
+        CompletableFuture<Void> second = send(queue, message("c1", "m2"), "second");
+        assertEquals(Arrays.asList("first"), texts());
+
+        sent.get(0).future.complete(null);
+        assertTrue(first.isDone());
+        assertFalse(second.isDone());
+        assertEquals(Arrays.asList("first", "second"), texts());
+
+        sent.get(1).future.complete(null);
+        assertTrue(second.isDone());
+        assertEquals(0, queue.getQueued());
+        assertEquals(0, queue.getInFlight());
+    }
+
+    @Test
+    public void sendsTheConversationsConcurrently() throws IOException {
+        OutboundQueue queue = newQueue(0, 5, 10);
+        send(queue, message("c1", "m1"), "a");
+        send(queue, message("c2", "m2"), "b");
+        assertEquals(Arrays.asList("a", "b"), texts());
+        assertEquals(2, queue.getInFlight());
+    }
+
+    @Test
+    public void mergesTheRepliesToTheSameMessageWithinTheLinger() throws IOException {
+        OutboundQueue queue = newQueue(20, 5, 10);
+        MessageFromBotFrameWork message = message("c1", "m1");
+        CompletableFuture<Void> first = send(queue, message, "a");
+        CompletableFuture<Void> second = send(queue, message, "b");
+        timer.advance(19);
+        assertTrue(sent.isEmpty());
+
+        timer.advance(1);
+        assertEquals(Arrays.asList("a<BR><BR>b"), texts());
+        assertEquals(1, counter("reply_coalesced_total"));
+
+        sent.get(0).future.complete(null);
+        assertTrue(first.isDone());
+        assertTrue(second.isDone());
+    }
+
+    @Test
+    public void doesNotMergeTheRepliesToTheDifferentMessages() throws IOException {
+        OutboundQueue queue = newQueue(20, 5, 10);
+        send(queue, message("c1", "m1"), "a");
+        send(queue, message("c1", "m2"), "b");
+        timer.advance(20);
+        assertEquals(Arrays.asList("a"), texts());
+
+        sent.get(0).future.complete(null);
+        assertEquals(Arrays.asList("a", "b"), texts());
+        assertEquals(0, counter("reply_coalesced_total"));
+    }
+
+    @Test
+    public void retriesTheThrottledReplyAfterRetryAfter() throws IOException {
+        OutboundQueue queue = newQueue(0, 5, 8);
+        CompletableFuture<Void> reply = send(queue, message("c1", "m1"), "a");
+        CompletableFuture<Void> next = send(queue, message("c1", "m2"), "b");
+        sent.get(0).future.completeExceptionally(throttled("2"));
+        assertFalse(reply.isDone());
+        assertEquals(1, counter("reply_throttled_total"));
+        assertEquals(4.0, queue.getLimit(), 0.0);
+
+        timer.advance(1_999);
+        assertEquals(1, sent.size());
+
+        // The throttled reply is sent again before the next reply.
+        timer.advance(1);
+        assertEquals(Arrays.asList("a", "a"), texts());
+        sent.get(1).future.complete(null);
+        assertTrue(reply.isDone());
+        assertFalse(reply.isCompletedExceptionally());
+        assertEquals(Arrays.asList("a", "a", "b"), texts());
+        assertFalse(next.isDone());
+    }
+
+    @Test
+    public void pausesAllConversationsWhileThrottled() throws IOException {
+        OutboundQueue queue = newQueue(0, 5, 8);
+        send(queue, message("c1", "m1"), "a");
+        sent.get(0).future.completeExceptionally(throttled(null));
+        send(queue, message("c2", "m2"), "b");
+        assertEquals(1, sent.size());
+
+        // "Retry-After" is missing, so the default delay is used.
+        timer.advance(1_000);
+        assertEquals(Arrays.asList("a", "a", "b"), texts());
+    }
+
+    @Test
+    public void dropsTheReplyWhichIsThrottledTooManyTimes() throws IOException, InterruptedException {
+        OutboundQueue queue = newQueue(0, 1, 8);
+        CompletableFuture<Void> reply = send(queue, message("c1", "m1"), "a");
+        sent.get(0).future.completeExceptionally(throttled("1"));
+        timer.advance(1_000);
+        WebApplicationException error = throttled("1");
+        sent.get(1).future.completeExceptionally(error);
+        assertTrue(reply.isCompletedExceptionally());
+        assertEquals(1, counter("reply_dropped_total"));
+        try {
+            reply.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertSame(error, e.getCause());
+        }
+    }
+
+    @Test
+    public void doesNotRetryTheOtherFailures() throws IOException {
+        OutboundQueue queue = newQueue(0, 5, 8);
+        CompletableFuture<Void> reply = send(queue, message("c1", "m1"), "a");
+        sent.get(0).future.completeExceptionally(new IllegalStateException("down"));
+        assertTrue(reply.isCompletedExceptionally());
+        assertEquals(0, counter("reply_throttled_total"));
+        assertEquals(8.0, queue.getLimit(), 0.0);
+        timer.advance(10_000);
+        assertEquals(1, sent.size());
+    }
+
+    @Test
+    public void decreasesTheLimitOnceForTheSimultaneousThrottles() throws IOException {
+        OutboundQueue queue = newQueue(0, 5, 8);
+        for (int i = 0; i < 4; i++) {
+            send(queue, message("c" + i, "m" + i), "r" + i);
+        }
+        sent.get(0).future.completeExceptionally(throttled("1"));
+        sent.get(1).future.completeExceptionally(throttled("1"));
+        assertEquals(4.0, queue.getLimit(), 0.0);
+        assertEquals(2, counter("reply_throttled_total"));
+    }
+
+    @Test
+    public void limitsTheSendsInFlightAndIncreasesTheLimitWhileTheSendsSucceed() throws IOException {
+        OutboundQueue queue = newQueue(0, 5, 4);
+        send(queue, message("c0", "m0"), "r0");
+        sent.get(0).future.completeExceptionally(throttled("1"));
+        timer.advance(1_000);
+        assertEquals(2.0, queue.getLimit(), 0.0);
+
+        for (int i = 1; i < 4; i++) {
+            send(queue, message("c" + i, "m" + i), "r" + i);
+        }
+        // The retry of r0 and r1 are in flight, r2 and r3 wait for the limit.
+        assertEquals(Arrays.asList("r0", "r0", "r1"), texts());
+        assertEquals(2, queue.getQueued());
+
+        sent.get(1).future.complete(null);
+        assertEquals(2.5, queue.getLimit(), 0.0);
+        assertEquals(Arrays.asList("r0", "r0", "r1", "r2"), texts());
+    }
+
+    @Test
+    public void rejectsTheReplyIfTheQueueIsFull() throws IOException, InterruptedException {
+        OutboundQueue queue = new OutboundQueue();
+        queue.metrics = metrics;
+        queue.configure(0, 5, 4_000, 1, 5, 1_000, 1, timer, timer::now);
+        send(queue, message("c1", "m1"), "a");
+        send(queue, message("c1", "m2"), "b");
+        CompletableFuture<Void> rejected = send(queue, message("c1", "m3"), "c");
+        assertEquals(1, counter("reply_rejected_total"));
+        try {
+            rejected.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+    private static class Sent {
+
+        private final String text;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Sent(String text) {
+            this.text = text;
+        }
+    }
+
+    /**
+     * Runs the scheduled tasks only when the test advances the time, so the
+     * linger and "Retry-After" are deterministic.
+     */
+    private static class ManualTimer extends ScheduledThreadPoolExecutor {
+
+        private final List<Task> tasks = new ArrayList<>();
+        private long now = 1_000_000_000L;
+
+        ManualTimer() {
+            super(1);
+        }
+
+        long now() {
+            return now;
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            tasks.add(new Task(now + unit.toNanos(delay), command));
+            return null;
+        }
+
+        void advance(long millis) {
+            long until = now + TimeUnit.MILLISECONDS.toNanos(millis);
+            while (true) {
+                Task next = tasks.stream()
+                        .filter(task -> task.due - until <= 0)
+                        .min(Comparator.comparingLong(task -> task.due))
+                        .orElse(null);
+                if (next == null) {
+                    break;
+                }
+                tasks.remove(next);
+                now = Math.max(now, next.due);
+                next.command.run();
+            }
+            now = until;
+        }
+    }
+
+    private static class Task {
+
+        private final long due;
+        private final Runnable command;
+
+        Task(long due, Runnable command) {
+            this.due = due;
+            this.command = command;
+        }
+    }
+}
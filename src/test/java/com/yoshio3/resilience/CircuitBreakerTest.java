@@ -0,0 +1,152 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.resilience;
+
+import com.yoshio3.resilience.CircuitBreaker.State;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import org.junit.Test;
+
+/**
+ * @author Yoshio Terada
+ */
+public class CircuitBreakerTest {
+
+    private final AtomicLong now = new AtomicLong(1_000);
+    private final List<State> transitions = new ArrayList<>();
+
+    // Window of 4 calls, opened at 50% after 4 calls, 100ms open, 2 trial calls.
+    private final CircuitBreaker breaker = new CircuitBreaker(4, 4, 0.5, 100, 2, transitions::add, now::get);
+
+    private void call(boolean failed) {
+        long generation = breaker.tryAcquire();
+        assertNotEquals(CircuitBreaker.REJECTED, generation);
+        breaker.onResult(generation, failed);
+    }
+
+    private void open() {
+        call(true);
+        call(true);
+        call(false);
+        call(false);
+        assertEquals(State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void staysClosedUntilTheMinimumCalls() {
+        call(true);
+        call(true);
+        call(true);
+        assertEquals(State.CLOSED, breaker.getState());
+        call(true);
+        assertEquals(State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void staysClosedBelowTheThreshold() {
+        for (int i = 0; i < 10; i++) {
+            call(i % 4 == 0);
+        }
+        assertEquals(State.CLOSED, breaker.getState());
+        assertEquals(0, transitions.size());
+    }
+
+    @Test
+    public void oldResultsLeaveTheWindow() {
+        call(true);
+        call(false);
+        call(false);
+        call(false);
+        // The first failure leaves the window, so this is 1 of 4.
+        call(true);
+        assertEquals(State.CLOSED, breaker.getState());
+        call(true);
+        assertEquals(State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void rejectsWhileOpen() {
+        open();
+        assertEquals(CircuitBreaker.REJECTED, breaker.tryAcquire());
+        now.addAndGet(99);
+        assertEquals(CircuitBreaker.REJECTED, breaker.tryAcquire());
+    }
+
+    @Test
+    public void permitsOnlyTheTrialCallsWhenHalfOpen() {
+        open();
+        now.addAndGet(100);
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        long first = breaker.tryAcquire();
+        long second = breaker.tryAcquire();
+        assertNotEquals(CircuitBreaker.REJECTED, first);
+        assertNotEquals(CircuitBreaker.REJECTED, second);
+        assertEquals(CircuitBreaker.REJECTED, breaker.tryAcquire());
+
+        breaker.onResult(first, false);
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        breaker.onResult(second, false);
+        assertEquals(State.CLOSED, breaker.getState());
+        assertEquals(Arrays.asList(State.OPEN, State.HALF_OPEN, State.CLOSED), transitions);
+    }
+
+    @Test
+    public void failedTrialOpensAgain() {
+        open();
+        now.addAndGet(100);
+        breaker.onResult(breaker.tryAcquire(), true);
+        assertEquals(State.OPEN, breaker.getState());
+        assertEquals(CircuitBreaker.REJECTED, breaker.tryAcquire());
+
+        // The open duration starts again from the failed trial.
+        now.addAndGet(100);
+        assertEquals(State.HALF_OPEN, breaker.getState());
+    }
+
+    @Test
+    public void resultOfThePreviousGenerationIsIgnored() {
+        long slow = breaker.tryAcquire();
+        open();
+        now.addAndGet(100);
+        long trial = breaker.tryAcquire();
+
+        // The slow call permitted while closed fails after the circuit is half open.
+        breaker.onResult(slow, true);
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        breaker.onResult(trial, false);
+        breaker.onResult(breaker.tryAcquire(), false);
+        assertEquals(State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void windowIsResetWhenClosed() {
+        open();
+        now.addAndGet(100);
+        call(false);
+        call(false);
+        assertEquals(State.CLOSED, breaker.getState());
+
+        // The failures before the open are not counted again.
+        call(true);
+        call(false);
+        call(false);
+        assertEquals(State.CLOSED, breaker.getState());
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.resilience;
+
+import com.yoshio3.metrics.MetricsRegistry;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * @author Yoshio Terada
+ */
+public class HedgingTest {
+
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final ManualTimer timer = new ManualTimer();
+    private final List<CompletableFuture<String>> attempts = new ArrayList<>();
+
+    private Hedging newHedging(long initialDelayMillis, long minSamples, double budgetRatio) {
+        CircuitBreaker breaker = new CircuitBreaker(100, 100, 0.5, 1_000, 1, state -> {
+        });
+        DependencyGuard guard = new DependencyGuard("test", breaker, 100, 60_000, timer,
+                metrics.counter("rejected_total", "reason", "circuit_open"),
+                metrics.counter("rejected_total", "reason", "bulkhead_full"));
+        // p50, delay between 1ms and 500ms, window of 60 seconds.
+        return new Hedging(guard, true, 0.5, 1, 500, minSamples, initialDelayMillis, 60_000, budgetRatio,
+                timer, timer::now, metrics.counter("hedge_fired_total"), metrics.counter("hedge_won_total"),
+                metrics.counter("hedge_budget_exhausted_total"));
+    }
+
+    private CompletableFuture<String> call(Hedging hedging) {
+        return hedging.call(() -> {
+            CompletableFuture<String> attempt = new CompletableFuture<>();
+            attempts.add(attempt);
+            return attempt;
+        });
+    }
+
+    // Record the successful calls which take the latency.
+    private void learn(Hedging hedging, int calls, long latencyMillis) {
+        for (int i = 0; i < calls; i++) {
+            call(hedging);
+            CompletableFuture<String> attempt = attempts.get(attempts.size() - 1);
+            timer.advance(latencyMillis);
+            attempt.complete("ok");
+        }
+    }
+
+    private long counter(String name) {
+        return metrics.counter(name).get();
+    }
+
+    @Test
+    public void usesTheInitialDelayUntilEnoughLatencyIsLearned() {
+        Hedging hedging = newHedging(100, 10, 1.0);
+        assertEquals(100, hedging.getDelayMillis());
+
+        CompletableFuture<String> result = call(hedging);
+        timer.advance(99);
+        assertEquals(1, attempts.size());
+        timer.advance(1);
+        assertEquals(2, attempts.size());
+        assertEquals(1, counter("hedge_fired_total"));
+
+        attempts.get(1).complete("hedge");
+        assertEquals("hedge", result.join());
+        assertEquals(1, counter("hedge_won_total"));
+    }
+
+    @Test
+    public void doesNotHedgeUntilLearnedIfTheInitialDelayIsNegative() {
+        Hedging hedging = newHedging(-1, 10, 1.0);
+        assertEquals(-1, hedging.getDelayMillis());
+        call(hedging);
+        timer.advance(10_000);
+        assertEquals(1, attempts.size());
+        assertEquals(0, counter("hedge_fired_total"));
+    }
+
+    @Test
+    public void learnsTheDelayFromThePercentileOfTheLatency() {
+        Hedging hedging = newHedging(-1, 5, 1.0);
+        learn(hedging, 5, 40);
+        timer.advance(1_000);
+        call(hedging);
+        long delay = hedging.getDelayMillis();
+        assertTrue("delay " + delay, delay >= 35 && delay <= 45);
+    }
+
+    @Test
+    public void computesTheDelayAtMostOnceInASecond() {
+        Hedging hedging = newHedging(-1, 5, 1.0);
+        timer.advance(1_000);
+        // Computed here, not enough latency yet.
+        call(hedging);
+        // Enough latency is learned within the same second.
+        learn(hedging, 5, 40);
+        call(hedging);
+        assertEquals(-1, hedging.getDelayMillis());
+
+        timer.advance(1_000);
+        call(hedging);
+        assertTrue(hedging.getDelayMillis() > 0);
+    }
+
+    @Test
+    public void usesTheFirstResultAndIgnoresTheSlowerAttempt() {
+        Hedging hedging = newHedging(10, 10, 1.0);
+        CompletableFuture<String> result = call(hedging);
+        timer.advance(10);
+        attempts.get(0).complete("first");
+        attempts.get(1).complete("hedge");
+        assertEquals("first", result.join());
+        assertEquals(0, counter("hedge_won_total"));
+    }
+
+    @Test
+    public void usesTheHedgeIfTheFirstAttemptFailed() {
+        Hedging hedging = newHedging(10, 10, 1.0);
+        CompletableFuture<String> result = call(hedging);
+        timer.advance(10);
+        attempts.get(0).completeExceptionally(new IllegalStateException("down"));
+        assertEquals(false, result.isDone());
+        attempts.get(1).complete("hedge");
+        assertEquals("hedge", result.join());
+    }
+
+    @Test
+    public void doesNotHedgeWithoutTheBudget() {
+        // Each call earns a quarter of a hedge.
+        Hedging hedging = newHedging(10, 10, 0.25);
+        for (int i = 0; i < 4; i++) {
+            call(hedging);
+            timer.advance(10);
+        }
+        assertEquals(1, counter("hedge_fired_total"));
+        assertEquals(3, counter("hedge_budget_exhausted_total"));
+        assertEquals(5, attempts.size());
+    }
+
+    @Test
+    public void doesNotTakeTheBudgetIfTheFirstAttemptAlreadyFailed() {
+        // Two calls earn a whole hedge.
+        Hedging hedging = newHedging(10, 10, 0.5);
+        call(hedging);
+        call(hedging);
+        // No attempt is running, so the hedge is not fired.
+        assertFalse(hedging.tryStartHedge(new AtomicInteger(0)));
+        assertEquals(0, counter("hedge_budget_exhausted_total"));
+
+        timer.advance(10);
+        assertEquals(1, counter("hedge_fired_total"));
+        assertEquals(1, counter("hedge_budget_exhausted_total"));
+    }
+
+    /**
+     * Runs the scheduled tasks only when the test advances the time, so the
+     * hedge delay and the clock of {@code Hedging} are deterministic.
+     */
+    private static class ManualTimer extends ScheduledThreadPoolExecutor {
+
+        private final List<Task<?>> tasks = new ArrayList<>();
+        private long now = 1_000_000_000L;
+
+        ManualTimer() {
+            super(1);
+        }
+
+        long now() {
+            return now;
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            return schedule(() -> {
+                command.run();
+                return null;
+            }, delay, unit);
+        }
+
+        @Override
+        public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+            Task<V> task = new Task<>(callable, now + unit.toNanos(delay));
+            tasks.add(task);
+            return task;
+        }
+
+        void advance(long millis) {
+            long until = now + TimeUnit.MILLISECONDS.toNanos(millis);
+            while (true) {
+                Task<?> next = tasks.stream()
+                        .filter(task -> task.due - until <= 0)
+                        .min(Comparator.comparingLong(task -> task.due))
+                        .orElse(null);
+                if (next == null) {
+                    break;
+                }
+                tasks.remove(next);
+                now = Math.max(now, next.due);
+                next.run();
+            }
+            now = until;
+        }
+
+        private class Task<V> extends FutureTask<V> implements ScheduledFuture<V> {
+
+            private final long due;
+
+            Task(Callable<V> callable, long due) {
+                super(callable);
+                this.due = due;
+            }
+
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                tasks.remove(this);
+                return super.cancel(mayInterruptIfRunning);
+            }
+
+            @Override
+            public long getDelay(TimeUnit unit) {
+                return unit.convert(due - now, TimeUnit.NANOSECONDS);
+            }
+
+            @Override
+            public int compareTo(Delayed other) {
+                return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+            }
+        }
+    }
+}
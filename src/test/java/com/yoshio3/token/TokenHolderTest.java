@@ -0,0 +1,102 @@
+/*
+ * Copyright 2017 Yoshio Terada
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.yoshio3.token;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import org.junit.Test;
+
+/**
+ * @author Yoshio Terada
+ */
+public class TokenHolderTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService callers = Executors.newFixedThreadPool(8);
+    private final AtomicInteger fetches = new AtomicInteger();
+
+    @After
+    public void tearDown() {
+        callers.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    private Optional<String> slowFetch() {
+        int count = fetches.incrementAndGet();
+        try {
+            Thread.sleep(100);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return Optional.of("token-" + count);
+    }
+
+    private List<String> callConcurrently(Callable<Optional<String>> call) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Optional<String>>> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            results.add(callers.submit(() -> {
+                start.await();
+                return call.call();
+            }));
+        }
+        start.countDown();
+        List<String> tokens = new ArrayList<>();
+        for (Future<Optional<String>> result : results) {
+            tokens.add(result.get(5, TimeUnit.SECONDS).get());
+        }
+        return tokens;
+    }
+
+    @Test
+    public void onlyOneCallerFetchesTheToken() throws Exception {
+        TokenHolder holder = new TokenHolder("test", this::slowFetch, 60_000, 10_000, scheduler);
+        for (String token : callConcurrently(holder::getToken)) {
+            assertEquals("token-1", token);
+        }
+        assertEquals(1, fetches.get());
+        assertEquals(1, holder.getRefreshCount());
+    }
+
+    @Test
+    public void rejectedTokenIsRefreshedOnce() throws Exception {
+        TokenHolder holder = new TokenHolder("test", this::slowFetch, 60_000, 10_000, scheduler);
+        String rejected = holder.getToken().get();
+        for (String token : callConcurrently(() -> holder.refresh(rejected))) {
+            assertEquals("token-2", token);
+        }
+        assertEquals(2, fetches.get());
+    }
+
+    @Test
+    public void failedFetchIsCounted() {
+        TokenHolder holder = new TokenHolder("test", Optional::empty, 60_000, 10_000, scheduler);
+        assertFalse(holder.getToken().isPresent());
+        assertEquals(1, holder.getFailureCount());
+    }
+}